@@ -1,7 +1,10 @@
 package com.lavmusic.app;
 
+import com.lavmusic.app.concurrent.AppExecutors;
 import com.lavmusic.app.config.ConfigManager;
 import com.lavmusic.app.player.MusicPlayerManager;
+import com.lavmusic.app.storage.LibraryStore;
+import com.lavmusic.app.storage.SessionStore;
 import com.lavmusic.app.ui.MainUI;
 import javafx.application.Application;
 import javafx.scene.Scene;
@@ -9,6 +12,8 @@ import javafx.stage.Stage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+
 /**
  * Main application class for Ticly Lavamusic
  */
@@ -25,20 +30,30 @@ public class LavMusicApp extends Application {
             // Load configuration
             ConfigManager config = new ConfigManager();
             
+            // Open the saved library; without it the player still runs, keeping changes in memory
+            LibraryStore library = null;
+            try {
+                library = LibraryStore.open(config.getLibraryDirectory());
+            } catch (IOException e) {
+                logger.error("Failed to open library, playlists and favorites will not be saved", e);
+            }
+            
             // Initialize player manager
-            playerManager = new MusicPlayerManager(config);
+            playerManager = new MusicPlayerManager(config, library);
             playerManager.initialize();
             
             // Create UI
             MainUI mainUI = new MainUI(playerManager, primaryStage);
             Scene scene = mainUI.createScene();
             
+            // Resume where the last run left off; the UI follows the restored queue and track
+            playerManager.attachSession(new SessionStore(config.getLibraryDirectory()));
+            
             // Setup stage
             primaryStage.setTitle("Ticly Lavamusic - Modern Music Player");
             primaryStage.setScene(scene);
             primaryStage.setMinWidth(900);
             primaryStage.setMinHeight(650);
-            primaryStage.setOnCloseRequest(e -> shutdown());
             
             primaryStage.show();
             
@@ -59,6 +74,7 @@ public class LavMusicApp extends Application {
         if (playerManager != null) {
             playerManager.shutdown();
         }
+        AppExecutors.shared().shutdown();
         logger.info("Application shutdown complete");
     }
     
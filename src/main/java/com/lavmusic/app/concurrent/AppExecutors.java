@@ -0,0 +1,117 @@
+package com.lavmusic.app.concurrent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Application-wide execution layer.
+ * Blocking I/O runs on a bounded pool and all delayed work (status timers, playback ticks)
+ * shares a single scheduler thread, so the number of threads stays fixed no matter how
+ * many searches or status messages the user triggers.
+ */
+public class AppExecutors {
+    private static final Logger logger = LoggerFactory.getLogger(AppExecutors.class);
+    
+    /** Default upper bound on concurrently running I/O tasks */
+    public static final int DEFAULT_IO_THREADS = 8;
+    
+    private static AppExecutors shared;
+    
+    private final ThreadPoolExecutor io;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final AtomicInteger threadsCreated;
+    
+    public AppExecutors(int ioThreads) {
+        this.threadsCreated = new AtomicInteger();
+        
+        // Extra tasks queue up instead of spawning threads; started threads stay alive so
+        // bursts of searches reuse them rather than paying for new threads each time
+        this.io = new ThreadPoolExecutor(ioThreads, ioThreads, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), threadFactory("lavmusic-io"));
+        
+        this.scheduler = new ScheduledThreadPoolExecutor(1, threadFactory("lavmusic-scheduler"));
+        // Cancelled timers are dropped right away rather than lingering until their delay
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+    
+    /**
+     * The executors shared by the whole application, created on first use
+     *
+     * @throws IllegalStateException if the shared executors have already been shut down
+     */
+    public static synchronized AppExecutors shared() {
+        if (shared == null) {
+            shared = new AppExecutors(DEFAULT_IO_THREADS);
+        } else if (shared.isShutdown()) {
+            // Quietly starting a new pool would leak threads past application shutdown
+            throw new IllegalStateException("Shared executors used after shutdown");
+        }
+        return shared;
+    }
+    
+    /**
+     * Bounded executor for blocking I/O work
+     */
+    public ExecutorService io() {
+        return io;
+    }
+    
+    /**
+     * Single-threaded scheduler for delayed and periodic work; tasks must not block
+     */
+    public ScheduledExecutorService scheduler() {
+        return scheduler;
+    }
+    
+    /**
+     * Total number of threads these executors have ever started
+     */
+    public int getThreadsCreated() {
+        return threadsCreated.get();
+    }
+    
+    /**
+     * Number of threads currently alive in these executors
+     */
+    public int getLiveThreadCount() {
+        return io.getPoolSize() + scheduler.getPoolSize();
+    }
+    
+    public boolean isShutdown() {
+        return io.isShutdown();
+    }
+    
+    /**
+     * Stop accepting work and wait briefly for running tasks to finish
+     */
+    public void shutdown() {
+        io.shutdown();
+        scheduler.shutdownNow();
+        try {
+            if (!io.awaitTermination(2, TimeUnit.SECONDS)) {
+                io.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            io.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        logger.info("Executors shut down, {} threads created during session", threadsCreated.get());
+    }
+    
+    private ThreadFactory threadFactory(String prefix) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + threadsCreated.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -5,6 +5,7 @@ import com.google.gson.JsonObject;
 
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.file.Path;
 
 /**
  * Configuration manager for the Ticly Lavamusic application
@@ -35,6 +36,20 @@ public class ConfigManager {
         return config.getAsJsonObject("lavalink").get("password").getAsString();
     }
     
+    /**
+     * User id the app's Lavalink session and player are registered under
+     */
+    public String getLavalinkUserId() {
+        return config.getAsJsonObject("lavalink").get("userId").getAsString();
+    }
+    
+    /**
+     * Guild id of the app's Lavalink player; the server keys players by guild
+     */
+    public String getLavalinkGuildId() {
+        return config.getAsJsonObject("lavalink").get("guildId").getAsString();
+    }
+    
     public int getDefaultVolume() {
         return config.getAsJsonObject("player").get("defaultVolume").getAsInt();
     }
@@ -42,4 +57,42 @@ public class ConfigManager {
     public int getBufferDuration() {
         return config.getAsJsonObject("player").get("bufferDuration").getAsInt();
     }
+    
+    public int getHistorySize() {
+        return config.getAsJsonObject("player").get("historySize").getAsInt();
+    }
+    
+    public int getSearchMaxResults() {
+        return config.getAsJsonObject("search").get("maxResults").getAsInt();
+    }
+    
+    public int getSearchCacheSize() {
+        return config.getAsJsonObject("search").get("cacheSize").getAsInt();
+    }
+    
+    public int getSearchCacheTtlSeconds() {
+        return config.getAsJsonObject("search").get("cacheTtlSeconds").getAsInt();
+    }
+    
+    /**
+     * How long typing must pause before a search is sent to Lavalink
+     */
+    public int getSearchDebounceMillis() {
+        return config.getAsJsonObject("search").get("debounceMillis").getAsInt();
+    }
+    
+    /**
+     * Directory holding the playlist and favorites library; relative paths are resolved against the user's home
+     */
+    public Path getLibraryDirectory() {
+        String directory = config.getAsJsonObject("storage").get("directory").getAsString();
+        return Path.of(System.getProperty("user.home")).resolve(directory);
+    }
+    
+    /**
+     * How often the queue and playback position are saved for resuming after a restart
+     */
+    public int getSnapshotIntervalSeconds() {
+        return config.getAsJsonObject("storage").get("snapshotIntervalSeconds").getAsInt();
+    }
 }
@@ -2,22 +2,62 @@ package com.lavmusic.app.model;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
 
 /**
- * Represents a music playlist
+ * Represents a music playlist.
+ * Tracks are kept in an immutable {@link TrackTree}, so the player can share a
+ * playlist's current contents without copying them. A playlist read from disk can
+ * defer loading its tracks until they are first needed.
  */
 public class Playlist {
     private String name;
-    private List<Track> tracks;
+    private TrackTree tracks;
+    private Supplier<TrackTree> loader;
+    private int loaderSize;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    
+    /**
+     * Receives every change made to a playlist, e.g. to persist it
+     */
+    public interface Listener {
+        void onRenamed(Playlist playlist, String name);
+        
+        void onTrackAdded(Playlist playlist, Track track);
+        
+        void onTrackRemoved(Playlist playlist, int index, Track track);
+        
+        /**
+         * @param removed The tracks that were cleared, or null if they had never been loaded
+         */
+        void onCleared(Playlist playlist, TrackTree removed);
+        
+        /**
+         * Called when a lazily loaded playlist reads its tracks
+         */
+        default void onLoaded(Playlist playlist, TrackTree tracks) {
+        }
+    }
     
     public Playlist(String name) {
         this.name = name;
-        this.tracks = new ArrayList<>();
+        this.tracks = TrackTree.EMPTY;
     }
     
     public Playlist(String name, List<Track> tracks) {
         this.name = name;
-        this.tracks = new ArrayList<>(tracks);
+        this.tracks = TrackTree.of(tracks);
+    }
+    
+    /**
+     * Create a playlist whose tracks are loaded on first use
+     * @param size Number of tracks the loader will return, reported until they are loaded
+     */
+    public Playlist(String name, int size, Supplier<TrackTree> loader) {
+        this.name = name;
+        this.loader = loader;
+        this.loaderSize = size;
     }
     
     public String getName() {
@@ -26,32 +66,80 @@ public class Playlist {
     
     public void setName(String name) {
         this.name = name;
+        for (Listener listener : listeners) {
+            listener.onRenamed(this, name);
+        }
     }
     
     public List<Track> getTracks() {
-        return new ArrayList<>(tracks);
+        return new ArrayList<>(tracks().asList());
+    }
+    
+    /**
+     * The current contents as an immutable tree; later edits to the playlist do not affect it
+     */
+    public TrackTree getTrackTree() {
+        return tracks();
     }
     
     public void addTrack(Track track) {
-        tracks.add(track);
+        tracks = tracks().insert(tracks().size(), track);
+        for (Listener listener : listeners) {
+            listener.onTrackAdded(this, track);
+        }
     }
     
     public void removeTrack(int index) {
-        if (index >= 0 && index < tracks.size()) {
-            tracks.remove(index);
+        if (index >= 0 && index < tracks().size()) {
+            Track removed = tracks.get(index);
+            tracks = tracks.remove(index);
+            for (Listener listener : listeners) {
+                listener.onTrackRemoved(this, index, removed);
+            }
         }
     }
     
     public void clear() {
-        tracks.clear();
+        TrackTree removed = tracks;
+        tracks = TrackTree.EMPTY;
+        loader = null;
+        for (Listener listener : listeners) {
+            listener.onCleared(this, removed);
+        }
     }
     
     public int size() {
-        return tracks.size();
+        return tracks != null ? tracks.size() : loaderSize;
+    }
+    
+    /**
+     * Whether the tracks are in memory; false until a lazily loaded playlist is first read
+     */
+    public boolean isLoaded() {
+        return tracks != null;
+    }
+    
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+    
+    private TrackTree tracks() {
+        if (tracks == null) {
+            tracks = loader.get();
+            loader = null;
+            for (Listener listener : listeners) {
+                listener.onLoaded(this, tracks);
+            }
+        }
+        return tracks;
     }
     
     @Override
     public String toString() {
-        return name + " (" + tracks.size() + " tracks)";
+        return name + " (" + size() + " tracks)";
     }
 }
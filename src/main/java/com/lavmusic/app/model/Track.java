@@ -1,19 +1,55 @@
 package com.lavmusic.app.model;
 
+import java.util.Base64;
+import java.util.Objects;
+
 /**
- * Represents a music track
+ * Represents a music track.
+ * Besides the display metadata, a track carries what Lavalink needs to play it again without
+ * another lookup: the encoded track, kept as raw bytes (a quarter smaller than its Base64 text),
+ * and the source identifier. Two tracks are equal when they refer to the same source item:
+ * source and identifier when known, otherwise the URI, so the same song returned by two
+ * searches is one track.
  */
 public class Track {
     private final String title;
     private final String author;
     private final String uri;
     private final long duration;
+    private final String identifier;
+    private final String sourceName;
+    private final boolean seekable;
+    private final boolean stream;
+    private final byte[] encoded;
     
     public Track(String title, String author, String uri, long duration) {
+        this(title, author, uri, duration, null);
+    }
+    
+    /**
+     * @param identifier Lavalink's identifier for the track at its source, e.g. a video id; may be null
+     */
+    public Track(String title, String author, String uri, long duration, String identifier) {
+        this(title, author, uri, duration, identifier, null, true, false, null);
+    }
+    
+    /**
+     * Create a track with its full Lavalink data
+     * @param sourceName Source manager that resolved the track, e.g. "youtube"; may be null
+     * @param encoded The decoded bytes of Lavalink's Base64 encoded track, owned by the track from now on; may be null
+     */
+    public Track(String title, String author, String uri, long duration, String identifier,
+                 String sourceName, boolean seekable, boolean stream, byte[] encoded) {
         this.title = title;
         this.author = author;
         this.uri = uri;
         this.duration = duration;
+        this.identifier = identifier;
+        // A handful of sources serve every track, so they share one instance each
+        this.sourceName = sourceName != null ? sourceName.intern() : null;
+        this.seekable = seekable;
+        this.stream = stream;
+        this.encoded = encoded;
     }
     
     public String getTitle() {
@@ -32,6 +68,40 @@ public class Track {
         return duration;
     }
     
+    public String getIdentifier() {
+        return identifier;
+    }
+    
+    public String getSourceName() {
+        return sourceName;
+    }
+    
+    public boolean isSeekable() {
+        return seekable;
+    }
+    
+    public boolean isStream() {
+        return stream;
+    }
+    
+    public boolean hasEncoded() {
+        return encoded != null;
+    }
+    
+    /**
+     * Lavalink's encoded track as raw bytes, or null if unknown; the array is shared and must not be modified
+     */
+    public byte[] getEncodedBytes() {
+        return encoded;
+    }
+    
+    /**
+     * Lavalink's encoded track in its Base64 wire form, or null if unknown
+     */
+    public String getEncoded() {
+        return encoded != null ? Base64.getEncoder().encodeToString(encoded) : null;
+    }
+    
     public String getFormattedDuration() {
         long seconds = duration / 1000;
         long minutes = seconds / 60;
@@ -39,6 +109,35 @@ public class Track {
         return String.format("%d:%02d", minutes, seconds);
     }
     
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Track other)) {
+            return false;
+        }
+        if (identifier != null || other.identifier != null) {
+            return Objects.equals(identifier, other.identifier) && Objects.equals(sourceName, other.sourceName);
+        }
+        if (uri != null || other.uri != null) {
+            return Objects.equals(uri, other.uri);
+        }
+        return Objects.equals(title, other.title) && Objects.equals(author, other.author);
+    }
+    
+    @Override
+    public int hashCode() {
+        // Must follow the same precedence as equals; computed without allocating, as cells hash on every redraw
+        if (identifier != null) {
+            return 31 * identifier.hashCode() + Objects.hashCode(sourceName);
+        }
+        if (uri != null) {
+            return uri.hashCode();
+        }
+        return 31 * Objects.hashCode(title) + Objects.hashCode(author);
+    }
+    
     @Override
     public String toString() {
         return title + " - " + author + " (" + getFormattedDuration() + ")";
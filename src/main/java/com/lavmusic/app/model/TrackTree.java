@@ -0,0 +1,514 @@
+package com.lavmusic.app.model;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable sequence of tracks stored in a persistent AVL tree ordered by position.
+ * Every node knows the size of its subtree, so positional lookup, insert and remove
+ * are O(log n). Updates copy only the path to the changed node and share the rest of
+ * the tree with the previous version, which makes old versions free to keep as snapshots.
+ * <p>
+ * Any track can be marked, e.g. as played in the current round, and every node also counts
+ * the marks in its subtree, so the k-th unmarked track is found in O(log n). Marks stay
+ * with their tracks through inserts, removals and moves.
+ */
+public final class TrackTree {
+    public static final TrackTree EMPTY = new TrackTree(null);
+    
+    /**
+     * One change to a tree, recorded to describe how a tree was derived from an earlier one
+     */
+    public interface Edit {
+        TrackTree applyTo(TrackTree tracks);
+    }
+    
+    /**
+     * An {@link #insertAll} of tracks at an index
+     */
+    public record Insert(int index, List<Track> tracks) implements Edit {
+        public Insert {
+            tracks = List.copyOf(tracks);
+        }
+        
+        @Override
+        public TrackTree applyTo(TrackTree tree) {
+            return tree.insertAll(index, tracks);
+        }
+    }
+    
+    /**
+     * A {@link #removeRange} of the tracks in {@code [from, to)}
+     */
+    public record Remove(int from, int to) implements Edit {
+        @Override
+        public TrackTree applyTo(TrackTree tracks) {
+            return tracks.removeRange(from, to);
+        }
+    }
+    
+    /**
+     * A {@link #move} of the track at {@code from} to {@code to}
+     */
+    public record Move(int from, int to) implements Edit {
+        @Override
+        public TrackTree applyTo(TrackTree tracks) {
+            return tracks.move(from, to);
+        }
+    }
+    
+    /**
+     * A {@link #mark} of the track at an index
+     */
+    public record Mark(int index) implements Edit {
+        @Override
+        public TrackTree applyTo(TrackTree tracks) {
+            return tracks.mark(index);
+        }
+    }
+    
+    /**
+     * A {@link #clearMarks} of every track
+     */
+    public record ClearMarks() implements Edit {
+        @Override
+        public TrackTree applyTo(TrackTree tracks) {
+            return tracks.clearMarks();
+        }
+    }
+    
+    private final Node root;
+    
+    private TrackTree(Node root) {
+        this.root = root;
+    }
+    
+    /**
+     * Build a balanced tree holding the given tracks in order, in O(n)
+     */
+    public static TrackTree of(Collection<? extends Track> tracks) {
+        if (tracks.isEmpty()) {
+            return EMPTY;
+        }
+        Track[] array = tracks.toArray(new Track[0]);
+        return new TrackTree(build(array, 0, array.length));
+    }
+    
+    public int size() {
+        return size(root);
+    }
+    
+    public Track get(int index) {
+        checkIndex(index, size());
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index > leftSize) {
+                index -= leftSize + 1;
+                node = node.right;
+            } else {
+                return node.track;
+            }
+        }
+    }
+    
+    public TrackTree insert(int index, Track track) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        return new TrackTree(insert(root, index, track, false));
+    }
+    
+    public TrackTree remove(int index) {
+        checkIndex(index, size());
+        return new TrackTree(remove(root, index));
+    }
+    
+    public TrackTree set(int index, Track track) {
+        checkIndex(index, size());
+        return new TrackTree(set(root, index, track));
+    }
+    
+    /**
+     * Move the track at {@code from} so that it ends up at {@code to}, with its mark
+     */
+    public TrackTree move(int from, int to) {
+        Track track = get(from);
+        boolean marked = isMarked(from);
+        TrackTree removed = remove(from);
+        if (to < 0 || to > removed.size()) {
+            throw new IndexOutOfBoundsException("Index: " + to + ", Size: " + removed.size());
+        }
+        return new TrackTree(insert(removed.root, to, track, marked));
+    }
+    
+    /**
+     * Mark the track at an index; marking it again changes nothing
+     */
+    public TrackTree mark(int index) {
+        checkIndex(index, size());
+        return isMarked(index) ? this : new TrackTree(mark(root, index));
+    }
+    
+    public boolean isMarked(int index) {
+        checkIndex(index, size());
+        Node node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index > leftSize) {
+                index -= leftSize + 1;
+                node = node.right;
+            } else {
+                return node.marked;
+            }
+        }
+    }
+    
+    /**
+     * Number of marked tracks, in O(1)
+     */
+    public int markedCount() {
+        return marked(root);
+    }
+    
+    /**
+     * Index of the k-th unmarked track, counting from 0, in O(log n)
+     */
+    public int indexOfUnmarked(int k) {
+        checkIndex(k, size() - markedCount());
+        Node node = root;
+        int index = 0;
+        while (true) {
+            int leftUnmarked = size(node.left) - marked(node.left);
+            if (k < leftUnmarked) {
+                node = node.left;
+            } else if (k == leftUnmarked && !node.marked) {
+                return index + size(node.left);
+            } else {
+                k -= leftUnmarked + (node.marked ? 0 : 1);
+                index += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+    }
+    
+    /**
+     * Remove every mark, copying only the paths to marked tracks
+     */
+    public TrackTree clearMarks() {
+        return markedCount() == 0 ? this : new TrackTree(clearMarks(root));
+    }
+    
+    /**
+     * Insert several tracks at a position in O(k + log n): the batch is built as a balanced
+     * subtree and joined in, rather than inserted one by one
+     */
+    public TrackTree insertAll(int index, Collection<? extends Track> tracks) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        if (tracks.isEmpty()) {
+            return this;
+        }
+        Node batch = of(tracks).root;
+        if (root == null) {
+            return new TrackTree(batch);
+        }
+        Node[] parts = split(root, index);
+        return new TrackTree(join(join(parts[0], batch), parts[1]));
+    }
+    
+    /**
+     * Remove the tracks in {@code [from, to)} in O(log n)
+     */
+    public TrackTree removeRange(int from, int to) {
+        if (from < 0 || to > size() || from > to) {
+            throw new IndexOutOfBoundsException("Range: " + from + ".." + to + ", Size: " + size());
+        }
+        if (from == to) {
+            return this;
+        }
+        Node[] head = split(root, from);
+        Node[] tail = split(head[1], to - from);
+        return new TrackTree(join(head[0], tail[1]));
+    }
+    
+    /**
+     * Read-only list over this version; get is O(log n) and iteration amortised O(1) per track
+     */
+    public List<Track> asList() {
+        return root == null ? Collections.emptyList() : new View(0, size());
+    }
+    
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+    
+    private static final class Node {
+        final Track track;
+        final boolean marked;
+        final Node left;
+        final Node right;
+        final int height;
+        final int size;
+        final int markedCount;
+        
+        Node(Node left, Track track, boolean marked, Node right) {
+            this.track = track;
+            this.marked = marked;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+            this.size = size(left) + size(right) + 1;
+            this.markedCount = marked(left) + marked(right) + (marked ? 1 : 0);
+        }
+    }
+    
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+    
+    private static int marked(Node node) {
+        return node == null ? 0 : node.markedCount;
+    }
+    
+    private static int height(Node node) {
+        return node == null ? 0 : node.height;
+    }
+    
+    private static Node build(Track[] tracks, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+        int mid = (from + to) >>> 1;
+        return new Node(build(tracks, from, mid), tracks[mid], false, build(tracks, mid + 1, to));
+    }
+    
+    private static Node insert(Node node, int index, Track track, boolean marked) {
+        if (node == null) {
+            return new Node(null, track, marked, null);
+        }
+        int leftSize = size(node.left);
+        if (index <= leftSize) {
+            return balance(insert(node.left, index, track, marked), node.track, node.marked, node.right);
+        }
+        return balance(node.left, node.track, node.marked, insert(node.right, index - leftSize - 1, track, marked));
+    }
+    
+    private static Node remove(Node node, int index) {
+        int leftSize = size(node.left);
+        if (index < leftSize) {
+            return balance(remove(node.left, index), node.track, node.marked, node.right);
+        }
+        if (index > leftSize) {
+            return balance(node.left, node.track, node.marked, remove(node.right, index - leftSize - 1));
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        Node successor = node.right;
+        while (successor.left != null) {
+            successor = successor.left;
+        }
+        return balance(node.left, successor.track, successor.marked, remove(node.right, 0));
+    }
+    
+    private static Node set(Node node, int index, Track track) {
+        int leftSize = size(node.left);
+        if (index < leftSize) {
+            return new Node(set(node.left, index, track), node.track, node.marked, node.right);
+        }
+        if (index > leftSize) {
+            return new Node(node.left, node.track, node.marked, set(node.right, index - leftSize - 1, track));
+        }
+        return new Node(node.left, track, node.marked, node.right);
+    }
+    
+    private static Node mark(Node node, int index) {
+        int leftSize = size(node.left);
+        if (index < leftSize) {
+            return new Node(mark(node.left, index), node.track, node.marked, node.right);
+        }
+        if (index > leftSize) {
+            return new Node(node.left, node.track, node.marked, mark(node.right, index - leftSize - 1));
+        }
+        return new Node(node.left, node.track, true, node.right);
+    }
+    
+    private static Node clearMarks(Node node) {
+        if (marked(node) == 0) {
+            return node;
+        }
+        return new Node(clearMarks(node.left), node.track, false, clearMarks(node.right));
+    }
+    
+    /**
+     * Split a tree into its first {@code index} tracks and the rest
+     */
+    private static Node[] split(Node node, int index) {
+        if (node == null) {
+            return new Node[] {null, null};
+        }
+        int leftSize = size(node.left);
+        if (index <= leftSize) {
+            Node[] parts = split(node.left, index);
+            return new Node[] {parts[0], join(parts[1], node.track, node.marked, node.right)};
+        }
+        Node[] parts = split(node.right, index - leftSize - 1);
+        return new Node[] {join(node.left, node.track, node.marked, parts[0]), parts[1]};
+    }
+    
+    /**
+     * Concatenate two trees of any heights
+     */
+    private static Node join(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        Node first = right;
+        while (first.left != null) {
+            first = first.left;
+        }
+        return join(left, first.track, first.marked, remove(right, 0));
+    }
+    
+    /**
+     * Concatenate two trees of any heights around a middle track, in O(|height difference|)
+     */
+    private static Node join(Node left, Track track, boolean marked, Node right) {
+        if (height(left) > height(right) + 1) {
+            return balance(left.left, left.track, left.marked, join(left.right, track, marked, right));
+        }
+        if (height(right) > height(left) + 1) {
+            return balance(join(left, track, marked, right.left), right.track, right.marked, right.right);
+        }
+        return new Node(left, track, marked, right);
+    }
+    
+    /**
+     * Join two subtrees whose heights differ by at most two, rotating as needed
+     */
+    private static Node balance(Node left, Track track, boolean marked, Node right) {
+        int diff = height(left) - height(right);
+        if (diff > 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new Node(left.left, left.track, left.marked, new Node(left.right, track, marked, right));
+            }
+            Node pivot = left.right;
+            return new Node(new Node(left.left, left.track, left.marked, pivot.left), pivot.track, pivot.marked,
+                new Node(pivot.right, track, marked, right));
+        }
+        if (diff < -1) {
+            if (height(right.right) >= height(right.left)) {
+                return new Node(new Node(left, track, marked, right.left), right.track, right.marked, right.right);
+            }
+            Node pivot = right.left;
+            return new Node(new Node(left, track, marked, pivot.left), pivot.track, pivot.marked,
+                new Node(pivot.right, right.track, right.marked, right.right));
+        }
+        return new Node(left, track, marked, right);
+    }
+    
+    /**
+     * Positional range of this version. Range views are O(1) to create and share the tree.
+     */
+    private final class View extends AbstractList<Track> {
+        private final int from;
+        private final int to;
+        
+        View(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        public int size() {
+            return to - from;
+        }
+        
+        @Override
+        public Track get(int index) {
+            checkIndex(index, size());
+            return TrackTree.this.get(from + index);
+        }
+        
+        @Override
+        public List<Track> subList(int fromIndex, int toIndex) {
+            if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex) {
+                throw new IndexOutOfBoundsException("Range: " + fromIndex + ".." + toIndex + ", Size: " + size());
+            }
+            return new View(from + fromIndex, from + toIndex);
+        }
+        
+        @Override
+        public Iterator<Track> iterator() {
+            return new InOrderIterator(from, to - from);
+        }
+    }
+    
+    /**
+     * In-order walk starting at a position, keeping the path of pending ancestors on a stack
+     */
+    private final class InOrderIterator implements Iterator<Track> {
+        private final Deque<Node> stack;
+        private int remaining;
+        
+        InOrderIterator(int start, int count) {
+            this.stack = new ArrayDeque<>();
+            this.remaining = count;
+            
+            // Descend to the start position, remembering nodes still to be visited
+            Node node = root;
+            int index = start;
+            while (node != null && count > 0) {
+                int leftSize = size(node.left);
+                if (index < leftSize) {
+                    stack.push(node);
+                    node = node.left;
+                } else if (index > leftSize) {
+                    index -= leftSize + 1;
+                    node = node.right;
+                } else {
+                    stack.push(node);
+                    break;
+                }
+            }
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+        
+        @Override
+        public Track next() {
+            if (remaining == 0) {
+                throw new NoSuchElementException();
+            }
+            remaining--;
+            Node node = stack.pop();
+            for (Node next = node.right; next != null; next = next.left) {
+                stack.push(next);
+            }
+            return node.track;
+        }
+    }
+}
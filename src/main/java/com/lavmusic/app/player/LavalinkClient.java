@@ -1,13 +1,17 @@
 package com.lavmusic.app.player;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
+import com.lavmusic.app.concurrent.AppExecutors;
 import com.lavmusic.app.model.Track;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
+import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,29 +19,98 @@ import java.io.IOException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
- * Client for interacting with the Lavalink REST API
+ * Client for interacting with the Lavalink REST API.
+ * All requests are issued through OkHttp's asynchronous dispatcher; the blocking
+ * methods are thin wrappers around their async counterparts. Server-pushed player
+ * updates arrive on a {@link LavalinkSession} created by {@link #createSession}.
  */
 public class LavalinkClient {
     private static final Logger logger = LoggerFactory.getLogger(LavalinkClient.class);
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    
+    /** Default maximum number of tracks returned by a search */
+    public static final int DEFAULT_SEARCH_LIMIT = 20;
+    
+    /** Lavalink search source used for text queries */
+    public static final String SEARCH_SOURCE = "ytsearch";
+    
+    /** Maximum number of encoded tracks sent in one /v4/decodetracks request */
+    public static final int DECODE_CHUNK_SIZE = 500;
+    
+    /** Name and version the client reports when opening a session */
+    public static final String CLIENT_NAME = "lavmusic-app/1.0";
+    
+    private static final long SESSION_PING_INTERVAL_SECONDS = 30;
     
     private final String host;
     private final int port;
     private final String password;
+    private final int searchLimit;
     private final OkHttpClient httpClient;
     private final Gson gson;
+    private final ConcurrentHashMap<LoadKey, InFlightLoad> inFlightLoads;
+    private final AtomicLong coalescedSearches;
+    
+    /**
+     * Reads a successful response body into a result
+     */
+    @FunctionalInterface
+    private interface BodyReader<T> {
+        T read(ResponseBody body) throws IOException;
+    }
+    
+    /**
+     * Identity of a load request for coalescing: the same identifier with the same result cap
+     */
+    private record LoadKey(String identifier, int limit) {
+    }
     
     public LavalinkClient(String host, int port, String password) {
+        this(host, port, password, DEFAULT_SEARCH_LIMIT);
+    }
+    
+    public LavalinkClient(String host, int port, String password, int searchLimit) {
+        this(host, port, password, searchLimit, createHttpClient());
+    }
+    
+    /**
+     * Create a client on top of an existing HTTP client, e.g. to share its connection pool
+     */
+    public LavalinkClient(String host, int port, String password, int searchLimit, OkHttpClient httpClient) {
         this.host = host;
         this.port = port;
         this.password = password;
+        this.searchLimit = searchLimit;
+        this.httpClient = httpClient;
         this.gson = new Gson();
+        this.inFlightLoads = new ConcurrentHashMap<>();
+        this.coalescedSearches = new AtomicLong();
+    }
+    
+    /**
+     * Create an HTTP client whose calls run on the application's bounded I/O executor
+     */
+    private static OkHttpClient createHttpClient() {
+        Dispatcher dispatcher = new Dispatcher(AppExecutors.shared().io());
+        dispatcher.setMaxRequests(AppExecutors.DEFAULT_IO_THREADS);
+        // Every call goes to the one Lavalink node, so let it use the whole budget
+        dispatcher.setMaxRequestsPerHost(AppExecutors.DEFAULT_IO_THREADS);
         
         // Create HTTP client with reasonable timeouts
-        this.httpClient = new OkHttpClient.Builder()
+        return new OkHttpClient.Builder()
+            .dispatcher(dispatcher)
             .connectTimeout(10, TimeUnit.SECONDS)
             .readTimeout(10, TimeUnit.SECONDS)
             .writeTimeout(10, TimeUnit.SECONDS)
@@ -45,79 +118,111 @@ public class LavalinkClient {
     }
     
     /**
-     * Search for tracks using the Lavalink REST API
+     * Search for tracks using the Lavalink REST API.
+     * Blocks until the search completes; failures are logged and yield an empty list.
      * @param query The search query
-     * @return List of tracks matching the query
+     * @return Unmodifiable list of tracks matching the query
      */
     public List<Track> searchTracks(String query) {
-        List<Track> tracks = new ArrayList<>();
-        
         try {
-            // Encode the query parameter
-            String encodedQuery = URLEncoder.encode("ytsearch:" + query, StandardCharsets.UTF_8);
-            
-            // Build the request URL
-            String url = String.format("http://%s:%d/v4/loadtracks?identifier=%s", 
-                host, port, encodedQuery);
-            
-            logger.debug("Searching Lavalink: {}", url);
-            
-            // Create the request with authorization header
-            Request request = new Request.Builder()
-                .url(url)
-                .addHeader("Authorization", password)
-                .get()
-                .build();
-            
-            // Execute the request
-            try (Response response = httpClient.newCall(request).execute()) {
-                if (!response.isSuccessful()) {
-                    logger.error("Lavalink search failed with status: {}", response.code());
-                    return tracks;
+            return searchTracksAsync(query).join();
+        } catch (CompletionException | CancellationException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            logger.error("Error searching tracks", cause);
+            return Collections.emptyList();
+        }
+    }
+    
+    /**
+     * Search for tracks without blocking.
+     * Concurrent searches for the same query share a single HTTP call and result.
+     * Cancelling the returned future aborts the HTTP call once no other caller is waiting on it.
+     * @param query The search query
+     * @return Future completing with an unmodifiable list of at most the configured number of tracks
+     */
+    public CompletableFuture<List<Track>> searchTracksAsync(String query) {
+        return load(SEARCH_SOURCE + ":" + query, searchLimit, null);
+    }
+    
+    /**
+     * Search for tracks without blocking, receiving each track as soon as it is decoded.
+     * A caller that joins a search already in flight first receives the tracks decoded so far.
+     * @param onTrack Called in result order on an HTTP thread while the response is read; must not block
+     * @return Future completing with the same tracks once the whole response has been read
+     */
+    public CompletableFuture<List<Track>> searchTracksAsync(String query, Consumer<Track> onTrack) {
+        return load(SEARCH_SOURCE + ":" + query, searchLimit, onTrack);
+    }
+    
+    /**
+     * Load tracks for an identifier (URL, playlist link or prefixed search) without blocking.
+     * Unlike searches, the result is not capped, so whole playlists are returned.
+     * @param identifier The Lavalink identifier
+     * @return Future completing with an unmodifiable list of tracks
+     */
+    public CompletableFuture<List<Track>> loadTracksAsync(String identifier) {
+        return load(identifier, Integer.MAX_VALUE, null);
+    }
+    
+    /**
+     * Decode encoded tracks through /v4/decodetracks without blocking.
+     * Large lists are split into chunks of {@link #DECODE_CHUNK_SIZE} that are all issued at once,
+     * so they run in parallel over the shared connection pool and restore time follows the
+     * amount of data rather than the number of round trips. Each chunk is decoded straight from
+     * its response stream. If any chunk fails, the others are cancelled; cancelling the returned
+     * future cancels every chunk still running.
+     * <p>
+     * The app's own session and library files keep each track's metadata next to its encoding,
+     * so restoring them needs no round trip; this is for tracks known only by their encoding,
+     * such as those saved by a bot on the same Lavalink node.
+     * @param encodedTracks Base64 encoded tracks as returned by Lavalink
+     * @return Future completing with the decoded tracks, in request order
+     */
+    public CompletableFuture<List<Track>> decodeTracksAsync(List<String> encodedTracks) {
+        if (encodedTracks.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        if (encodedTracks.size() <= DECODE_CHUNK_SIZE) {
+            return decodeChunk(encodedTracks).thenApply(Collections::unmodifiableList);
+        }
+        
+        List<CompletableFuture<List<Track>>> chunks = new ArrayList<>();
+        for (int from = 0; from < encodedTracks.size(); from += DECODE_CHUNK_SIZE) {
+            int to = Math.min(from + DECODE_CHUNK_SIZE, encodedTracks.size());
+            chunks.add(decodeChunk(encodedTracks.subList(from, to)));
+        }
+        logger.debug("Decoding {} tracks in {} requests", encodedTracks.size(), chunks.size());
+        
+        CompletableFuture<List<Track>> result = CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0]))
+            .thenApply(ignored -> {
+                List<Track> tracks = new ArrayList<>(encodedTracks.size());
+                for (CompletableFuture<List<Track>> chunk : chunks) {
+                    tracks.addAll(chunk.join());
                 }
-                
-                String responseBody = response.body().string();
-                logger.debug("Lavalink response: {}", responseBody);
-                
-                // Parse the response
-                JsonObject json = gson.fromJson(responseBody, JsonObject.class);
-                
-                // Check load type
-                String loadType = json.get("loadType").getAsString();
-                
-                if ("search".equals(loadType) || "track".equals(loadType) || "playlist".equals(loadType)) {
-                    JsonArray data = json.getAsJsonArray("data");
-                    
-                    for (JsonElement element : data) {
-                        JsonObject trackData = element.getAsJsonObject();
-                        JsonObject info = trackData.getAsJsonObject("info");
-                        
-                        String title = info.get("title").getAsString();
-                        String author = info.get("author").getAsString();
-                        String uri = info.get("uri").getAsString();
-                        long duration = info.get("length").getAsLong();
-                        
-                        tracks.add(new Track(title, author, uri, duration));
-                        
-                        // Limit to 20 results
-                        if (tracks.size() >= 20) {
-                            break;
-                        }
-                    }
-                    
-                    logger.info("Found {} tracks for query: {}", tracks.size(), query);
-                } else {
-                    logger.warn("No results found for query: {}", query);
+                return Collections.unmodifiableList(tracks);
+            });
+        
+        for (CompletableFuture<List<Track>> chunk : chunks) {
+            chunk.whenComplete((tracks, error) -> {
+                if (error != null) {
+                    // Fail as soon as one chunk fails instead of waiting for the rest
+                    result.completeExceptionally(error);
                 }
-                
-            }
-        } catch (IOException e) {
-            logger.error("Error searching tracks", e);
-        } catch (Exception e) {
-            logger.error("Unexpected error during search", e);
+            });
         }
-        
-        return tracks;
+        result.whenComplete((tracks, error) -> {
+            if (error != null) {
+                chunks.forEach(chunk -> chunk.cancel(false));
+            }
+        });
+        return result;
+    }
+    
+    /**
+     * Number of searches that were served by joining an identical in-flight call
+     */
+    public long getCoalescedSearchCount() {
+        return coalescedSearches.get();
     }
     
     /**
@@ -125,36 +230,290 @@ public class LavalinkClient {
      * @return true if connection is successful
      */
     public boolean testConnection() {
-        try {
-            String url = String.format("http://%s:%d/version", host, port);
-            
-            Request request = new Request.Builder()
-                .url(url)
-                .addHeader("Authorization", password)
-                .get()
-                .build();
-            
-            try (Response response = httpClient.newCall(request).execute()) {
-                if (response.isSuccessful()) {
-                    String version = response.body().string();
-                    logger.info("Connected to Lavalink server version: {}", version);
-                    return true;
-                } else {
-                    logger.error("Failed to connect to Lavalink server: {}", response.code());
-                    return false;
-                }
+        return testConnectionAsync().join();
+    }
+    
+    /**
+     * Test connection to the Lavalink server without blocking
+     * @return Future completing with true if the server answered; it never completes exceptionally
+     */
+    public CompletableFuture<Boolean> testConnectionAsync() {
+        Request request = newRequest("/version").get().build();
+        
+        return execute(request, ResponseBody::string).handle((version, error) -> {
+            if (error != null) {
+                logger.error("Failed to connect to Lavalink server: {}", error.getMessage());
+                return false;
             }
-        } catch (Exception e) {
-            logger.error("Error testing Lavalink connection", e);
-            return false;
+            logger.info("Connected to Lavalink server version: {}", version);
+            return true;
+        });
+    }
+    
+    /**
+     * Create a web socket session with the server; add its listeners before starting it
+     * @param userId The user id the session's players belong to
+     */
+    public LavalinkSession createSession(String userId) {
+        // The read timeout does not apply once a socket is open, so pings detect a dead connection.
+        // The socket's reader occupies a dispatcher thread and slot for the whole session, so it
+        // gets a dispatcher of its own rather than one of the shared I/O threads.
+        OkHttpClient sockets = httpClient.newBuilder()
+            .dispatcher(new Dispatcher())
+            .pingInterval(SESSION_PING_INTERVAL_SECONDS, TimeUnit.SECONDS)
+            .build();
+        return new LavalinkSession(this, sockets, userId, AppExecutors.shared().scheduler());
+    }
+    
+    /**
+     * Let the server keep a session and its players for a while after its socket drops
+     * @param timeoutSeconds How long the session waits for a reconnect
+     */
+    public CompletableFuture<Void> enableResumingAsync(String sessionId, int timeoutSeconds) {
+        String update = gson.toJson(Map.of("resuming", true, "timeout", timeoutSeconds));
+        Request request = newRequest("/v4/sessions/" + sessionId)
+            .patch(RequestBody.create(update, JSON))
+            .build();
+        
+        return execute(request, body -> null);
+    }
+    
+    /**
+     * Let the server drop a session and its players as soon as its socket closes
+     */
+    public CompletableFuture<Void> disableResumingAsync(String sessionId) {
+        Request request = newRequest("/v4/sessions/" + sessionId)
+            .patch(RequestBody.create(gson.toJson(Map.of("resuming", false)), JSON))
+            .build();
+        
+        return execute(request, body -> null);
+    }
+    
+    /**
+     * Change a player of a session, creating it if needed; a new track replaces the playing one
+     * @param update The PATCH body: any of track, position, paused and volume
+     */
+    public CompletableFuture<Void> updatePlayerAsync(String sessionId, String guildId, String update) {
+        Request request = newRequest("/v4/sessions/" + sessionId + "/players/" + guildId + "?noReplace=false")
+            .patch(RequestBody.create(update, JSON))
+            .build();
+        
+        return execute(request, body -> null);
+    }
+    
+    /**
+     * The upgrade request for a session socket, resuming the given session if it is not null
+     */
+    Request newSessionRequest(String userId, String sessionId) {
+        Request.Builder request = new Request.Builder()
+            .url(String.format("ws://%s:%d/v4/websocket", host, port))
+            .addHeader("Authorization", password)
+            .addHeader("User-Id", userId)
+            .addHeader("Client-Name", CLIENT_NAME);
+        if (sessionId != null) {
+            request.addHeader("Session-Id", sessionId);
         }
+        return request.build();
     }
     
     /**
-     * Shutdown the HTTP client
+     * Shutdown the HTTP client, failing any requests still in flight.
+     * The dispatcher's threads belong to the application executors and are stopped with them.
      */
     public void shutdown() {
-        httpClient.dispatcher().executorService().shutdown();
+        httpClient.dispatcher().cancelAll();
         httpClient.connectionPool().evictAll();
     }
+    
+    private CompletableFuture<List<Track>> load(String identifier, int limit, Consumer<Track> onTrack) {
+        LoadKey key = new LoadKey(identifier, limit);
+        
+        while (true) {
+            InFlightLoad created = new InFlightLoad(key);
+            InFlightLoad existing = inFlightLoads.putIfAbsent(key, created);
+            InFlightLoad load = existing != null ? existing : created;
+            
+            if (!load.subscribe()) {
+                // Every caller of that load cancelled just now; it is leaving the map
+                continue;
+            }
+            
+            if (existing == null) {
+                created.start();
+            } else {
+                coalescedSearches.incrementAndGet();
+                logger.debug("Joining in-flight load for: {}", identifier);
+            }
+            return load.newSubscriber(onTrack);
+        }
+    }
+    
+    private CompletableFuture<List<Track>> decodeChunk(List<String> encodedTracks) {
+        Request request = newRequest("/v4/decodetracks")
+            .post(RequestBody.create(gson.toJson(encodedTracks), JSON))
+            .build();
+        
+        return execute(request, body -> LoadResultParser.parseTrackArray(body.charStream()));
+    }
+    
+    private Request.Builder newRequest(String path) {
+        return new Request.Builder()
+            .url(String.format("http://%s:%d%s", host, port, path))
+            .addHeader("Authorization", password);
+    }
+    
+    /**
+     * Enqueue a request on the OkHttp dispatcher.
+     * Cancelling the returned future cancels the underlying call, releasing its connection.
+     */
+    private <T> CompletableFuture<T> execute(Request request, BodyReader<T> reader) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Call call = httpClient.newCall(request);
+        
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+            
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (response) {
+                    ResponseBody body = response.body();
+                    if (!response.isSuccessful() || body == null) {
+                        future.completeExceptionally(new IOException(
+                            "Lavalink request " + request.method() + " " + request.url()
+                                + " failed with status: " + response.code()));
+                        return;
+                    }
+                    future.complete(reader.read(body));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        
+        return future;
+    }
+    
+    /**
+     * A /v4/loadtracks call shared by every caller that asked for the same identifier
+     * while it was running. The HTTP call is cancelled once all of them have cancelled.
+     */
+    private final class InFlightLoad {
+        private final LoadKey key;
+        private final CompletableFuture<List<Track>> result;
+        private final List<Track> decoded;
+        private final List<Consumer<Track>> trackListeners;
+        private CompletableFuture<List<Track>> request;
+        private int subscribers;
+        private boolean abandoned;
+        
+        InFlightLoad(LoadKey key) {
+            this.key = key;
+            this.result = new CompletableFuture<>();
+            this.decoded = new ArrayList<>();
+            this.trackListeners = new ArrayList<>();
+        }
+        
+        synchronized boolean subscribe() {
+            if (abandoned) {
+                return false;
+            }
+            subscribers++;
+            return true;
+        }
+        
+        synchronized void unsubscribe() {
+            subscribers--;
+            if (subscribers == 0 && !result.isDone()) {
+                abandoned = true;
+                inFlightLoads.remove(key, this);
+                if (request != null) {
+                    request.cancel(false);
+                }
+                result.cancel(false);
+                logger.debug("Cancelled load for: {}", key.identifier());
+            }
+        }
+        
+        void start() {
+            String encoded = URLEncoder.encode(key.identifier(), StandardCharsets.UTF_8);
+            Request httpRequest = newRequest("/v4/loadtracks?identifier=" + encoded).get().build();
+            
+            logger.debug("Loading from Lavalink: {}", key.identifier());
+            
+            CompletableFuture<List<Track>> pending = execute(httpRequest, body -> {
+                // Decode straight from the body stream, stopping at the result limit
+                List<Track> tracks = LoadResultParser.parseTracks(body.charStream(), key.limit(), this::publish);
+                if (!tracks.isEmpty()) {
+                    logger.info("Found {} tracks for: {}", tracks.size(), key.identifier());
+                } else {
+                    logger.warn("No results found for: {}", key.identifier());
+                }
+                return Collections.unmodifiableList(tracks);
+            });
+            
+            synchronized (this) {
+                request = pending;
+                if (abandoned) {
+                    pending.cancel(false);
+                }
+            }
+            
+            pending.whenComplete((tracks, error) -> {
+                inFlightLoads.remove(key, this);
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(tracks);
+                }
+            });
+        }
+        
+        synchronized void publish(Track track) {
+            decoded.add(track);
+            for (Consumer<Track> listener : trackListeners) {
+                listener.accept(track);
+            }
+        }
+        
+        /**
+         * A per-caller view of the shared result whose cancellation only counts as one vote
+         * @param onTrack Receives the tracks decoded so far and then each new one; may be null
+         */
+        CompletableFuture<List<Track>> newSubscriber(Consumer<Track> onTrack) {
+            if (onTrack != null) {
+                synchronized (this) {
+                    decoded.forEach(onTrack);
+                    trackListeners.add(onTrack);
+                }
+            }
+            CompletableFuture<List<Track>> view = new CompletableFuture<>();
+            result.whenComplete((tracks, error) -> {
+                if (error != null) {
+                    view.completeExceptionally(error);
+                } else {
+                    view.complete(tracks);
+                }
+            });
+            view.whenComplete((tracks, error) -> {
+                if (onTrack != null) {
+                    synchronized (this) {
+                        trackListeners.remove(onTrack);
+                    }
+                }
+                if (view.isCancelled()) {
+                    unsubscribe();
+                }
+            });
+            return view;
+        }
+    }
 }
@@ -0,0 +1,204 @@
+package com.lavmusic.app.player;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.lavmusic.app.player.LavalinkSession.EndReason;
+import com.lavmusic.app.player.LavalinkSession.EventTrack;
+import com.lavmusic.app.player.LavalinkSession.NodeStats;
+import com.lavmusic.app.player.LavalinkSession.PlayerState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming decoder for the messages Lavalink sends over its /v4/websocket session.
+ * Only the fields the player uses are read; the rest, including most of the track object
+ * of events and the frame statistics, are skipped without being built. Each message
+ * is handed to a {@link LavalinkSession.Listener} once it has been read completely,
+ * since Lavalink does not promise that {@code op} comes first.
+ */
+public final class LavalinkMessageParser {
+    private static final Logger logger = LoggerFactory.getLogger(LavalinkMessageParser.class);
+    
+    private LavalinkMessageParser() {
+    }
+    
+    /**
+     * The fields of one message, whatever its op
+     */
+    private static final class Message {
+        String op;
+        String type;
+        String guildId;
+        String sessionId;
+        boolean resumed;
+        String reason;
+        String encoded;
+        String identifier;
+        String uri;
+        String exceptionMessage;
+        String severity;
+        long thresholdMs;
+        long time;
+        long position;
+        boolean connected;
+        long ping;
+        int players;
+        int playingPlayers;
+        long uptime;
+        long memoryUsed;
+        double lavalinkLoad;
+    }
+    
+    /**
+     * Decode one message and pass it to the listener; unknown ops and event types are ignored
+     */
+    public static void parse(Reader reader, LavalinkSession.Listener listener) throws IOException {
+        JsonReader json = new JsonReader(reader);
+        Message message = new Message();
+        
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "op" -> message.op = nextString(json);
+                case "type" -> message.type = nextString(json);
+                case "guildId" -> message.guildId = nextString(json);
+                case "sessionId" -> message.sessionId = nextString(json);
+                case "resumed" -> message.resumed = json.nextBoolean();
+                case "reason" -> message.reason = nextString(json);
+                case "track" -> readTrack(json, message);
+                case "thresholdMs" -> message.thresholdMs = json.nextLong();
+                case "exception" -> readException(json, message);
+                case "state" -> readState(json, message);
+                case "players" -> message.players = json.nextInt();
+                case "playingPlayers" -> message.playingPlayers = json.nextInt();
+                case "uptime" -> message.uptime = json.nextLong();
+                case "memory" -> readMemory(json, message);
+                case "cpu" -> readCpu(json, message);
+                default -> json.skipValue();
+            }
+        }
+        json.endObject();
+        
+        dispatch(message, listener);
+    }
+    
+    private static void dispatch(Message message, LavalinkSession.Listener listener) {
+        if (message.op == null) {
+            logger.warn("Ignoring Lavalink message without op");
+            return;
+        }
+        switch (message.op) {
+            case "ready" -> listener.onReady(message.sessionId, message.resumed);
+            case "playerUpdate" -> listener.onPlayerUpdate(new PlayerState(
+                message.guildId, message.time, message.position, message.connected, message.ping));
+            case "stats" -> listener.onStats(new NodeStats(
+                message.players, message.playingPlayers, message.uptime, message.memoryUsed, message.lavalinkLoad));
+            case "event" -> dispatchEvent(message, listener);
+            default -> logger.debug("Ignoring Lavalink op: {}", message.op);
+        }
+    }
+    
+    private static void dispatchEvent(Message message, LavalinkSession.Listener listener) {
+        if (message.type == null) {
+            return;
+        }
+        EventTrack track = message.encoded == null && message.identifier == null && message.uri == null ? null
+            : new EventTrack(message.encoded, message.identifier, message.uri);
+        switch (message.type) {
+            case "TrackEndEvent" -> listener.onTrackEnd(message.guildId, track, EndReason.fromName(message.reason));
+            case "TrackExceptionEvent" ->
+                listener.onTrackException(message.guildId, track, message.exceptionMessage, message.severity);
+            case "TrackStuckEvent" -> listener.onTrackStuck(message.guildId, track, message.thresholdMs);
+            default -> logger.debug("Ignoring Lavalink event: {}", message.type);
+        }
+    }
+    
+    private static void readState(JsonReader json, Message message) throws IOException {
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "time" -> message.time = json.nextLong();
+                case "position" -> message.position = json.nextLong();
+                case "connected" -> message.connected = json.nextBoolean();
+                case "ping" -> message.ping = json.nextLong();
+                default -> json.skipValue();
+            }
+        }
+        json.endObject();
+    }
+    
+    private static void readTrack(JsonReader json, Message message) throws IOException {
+        if (json.peek() == JsonToken.NULL) {
+            json.nextNull();
+            return;
+        }
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "encoded" -> message.encoded = nextString(json);
+                case "info" -> readTrackInfo(json, message);
+                default -> json.skipValue();
+            }
+        }
+        json.endObject();
+    }
+    
+    private static void readTrackInfo(JsonReader json, Message message) throws IOException {
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "identifier" -> message.identifier = nextString(json);
+                case "uri" -> message.uri = nextString(json);
+                default -> json.skipValue();
+            }
+        }
+        json.endObject();
+    }
+    
+    private static void readException(JsonReader json, Message message) throws IOException {
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "message" -> message.exceptionMessage = nextString(json);
+                case "severity" -> message.severity = nextString(json);
+                default -> json.skipValue();
+            }
+        }
+        json.endObject();
+    }
+    
+    private static void readMemory(JsonReader json, Message message) throws IOException {
+        json.beginObject();
+        while (json.hasNext()) {
+            if ("used".equals(json.nextName())) {
+                message.memoryUsed = json.nextLong();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+    }
+    
+    private static void readCpu(JsonReader json, Message message) throws IOException {
+        json.beginObject();
+        while (json.hasNext()) {
+            if ("lavalinkLoad".equals(json.nextName())) {
+                message.lavalinkLoad = json.nextDouble();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+    }
+    
+    private static String nextString(JsonReader json) throws IOException {
+        if (json.peek() == JsonToken.NULL) {
+            json.nextNull();
+            return null;
+        }
+        return json.nextString();
+    }
+}
@@ -0,0 +1,372 @@
+package com.lavmusic.app.player;
+
+import com.lavmusic.app.model.Track;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A Lavalink /v4/websocket session: the channel on which the server pushes player
+ * positions, track events and node statistics.
+ * The socket is reopened with backoff whenever it drops. Once ready, the session is
+ * made resumable, so a reconnect within {@link #RESUME_TIMEOUT_SECONDS} picks up the
+ * same session and its players instead of starting over.
+ * Listeners are called on OkHttp's socket reader thread. That thread, and a slot of the
+ * dispatcher it comes from, is held for as long as the socket is open, which is why
+ * {@link LavalinkClient#createSession} gives the socket a dispatcher of its own.
+ */
+public class LavalinkSession {
+    private static final Logger logger = LoggerFactory.getLogger(LavalinkSession.class);
+    
+    /** How long the server keeps a dropped session and its players for a reconnect */
+    public static final int RESUME_TIMEOUT_SECONDS = 60;
+    
+    private static final long MIN_RECONNECT_DELAY_MILLIS = 1000;
+    private static final long MAX_RECONNECT_DELAY_MILLIS = 30_000;
+    private static final long CLOSE_TIMEOUT_MILLIS = 1000;
+    
+    /**
+     * Why a track stopped, as reported by a TrackEndEvent
+     */
+    public enum EndReason {
+        FINISHED,
+        LOAD_FAILED,
+        STOPPED,
+        REPLACED,
+        CLEANUP;
+        
+        /**
+         * Whether the player should move on to the next track
+         */
+        public boolean mayStartNext() {
+            return this == FINISHED || this == LOAD_FAILED;
+        }
+        
+        static EndReason fromName(String name) {
+            if (name == null) {
+                return STOPPED;
+            }
+            return switch (name) {
+                case "finished" -> FINISHED;
+                case "loadFailed" -> LOAD_FAILED;
+                case "replaced" -> REPLACED;
+                case "cleanup" -> CLEANUP;
+                default -> STOPPED;
+            };
+        }
+    }
+    
+    /**
+     * Position of a player as last sampled by the server
+     * @param time Server time of the sample, in epoch milliseconds
+     * @param positionMillis Position in the track at that time
+     * @param connected Whether the player is connected to a voice gateway
+     * @param ping Round trip to the voice gateway in milliseconds, or -1 when unknown
+     */
+    public record PlayerState(String guildId, long time, long positionMillis, boolean connected, long ping) {
+    }
+    
+    /**
+     * The track an event is about, as far as the player needs to recognise it
+     * @param encoded The server's encoding of the track; may be null
+     * @param identifier The source's identifier of the track; may be null
+     * @param uri Where the track was loaded from; may be null
+     */
+    public record EventTrack(String encoded, String identifier, String uri) {
+        /**
+         * Whether this is the given track: by encoding when both have one, otherwise by
+         * the URL or identifier the track was loaded with
+         */
+        public boolean matches(Track track) {
+            if (track == null) {
+                return false;
+            }
+            if (encoded != null && track.hasEncoded()) {
+                return encoded.equals(track.getEncoded());
+            }
+            return names(track.getUri()) || names(track.getIdentifier());
+        }
+        
+        private boolean names(String id) {
+            return id != null && (id.equals(uri) || id.equals(identifier));
+        }
+    }
+    
+    /**
+     * Load figures the server sends about once a minute
+     */
+    public record NodeStats(int players, int playingPlayers, long uptimeMillis, long memoryUsed, double lavalinkLoad) {
+    }
+    
+    /**
+     * Receives what the server pushes; every method is optional.
+     * The track of an event is null if the server did not name one.
+     */
+    public interface Listener {
+        default void onReady(String sessionId, boolean resumed) {
+        }
+        
+        default void onPlayerUpdate(PlayerState state) {
+        }
+        
+        default void onTrackEnd(String guildId, EventTrack track, EndReason reason) {
+        }
+        
+        default void onTrackException(String guildId, EventTrack track, String message, String severity) {
+        }
+        
+        default void onTrackStuck(String guildId, EventTrack track, long thresholdMillis) {
+        }
+        
+        default void onStats(NodeStats stats) {
+        }
+        
+        /**
+         * The socket dropped; a reconnect is already scheduled unless the session was closed
+         */
+        default void onDisconnected() {
+        }
+    }
+    
+    private final LavalinkClient client;
+    private final WebSocket.Factory sockets;
+    private final String userId;
+    private final ScheduledExecutorService scheduler;
+    private final List<Listener> listeners;
+    private final Listener handler;
+    private WebSocket socket;
+    private ScheduledFuture<?> reconnect;
+    private long reconnectDelayMillis;
+    private volatile String sessionId;
+    private volatile boolean ready;
+    private volatile NodeStats stats;
+    private boolean closed;
+    
+    /**
+     * Create a session that is opened by {@link #start()}
+     * @param sockets Opens the web socket, normally the client's OkHttp client
+     * @param userId The user id the server attributes the session's players to
+     * @param scheduler Runs the reconnect attempts
+     */
+    public LavalinkSession(LavalinkClient client, WebSocket.Factory sockets, String userId,
+            ScheduledExecutorService scheduler) {
+        this.client = client;
+        this.sockets = sockets;
+        this.userId = userId;
+        this.scheduler = scheduler;
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.handler = new MessageHandler();
+        this.reconnectDelayMillis = MIN_RECONNECT_DELAY_MILLIS;
+    }
+    
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Open the socket; does nothing if it is already open or the session was closed
+     */
+    public synchronized void start() {
+        if (closed || socket != null) {
+            return;
+        }
+        logger.info("Opening Lavalink session{}", sessionId != null ? " to resume " + sessionId : "");
+        socket = sockets.newWebSocket(client.newSessionRequest(userId, sessionId), new SocketListener());
+    }
+    
+    /**
+     * Close the socket for good. A resumable session would keep its players running on the
+     * server until the resume timeout, so resuming is switched off first, waiting up to
+     * {@value #CLOSE_TIMEOUT_MILLIS} ms; the server then drops the players with the socket.
+     */
+    public void close() {
+        String resumable;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            resumable = ready ? sessionId : null;
+            ready = false;
+            if (reconnect != null) {
+                reconnect.cancel(false);
+                reconnect = null;
+            }
+        }
+        
+        if (resumable != null) {
+            try {
+                client.disableResumingAsync(resumable).get(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                logger.warn("Could not stop Lavalink session {} from resuming: {}", resumable, e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        synchronized (this) {
+            if (socket != null) {
+                socket.close(1000, "Client shutdown");
+                socket = null;
+            }
+        }
+    }
+    
+    /**
+     * The client of the server this session is on
+     */
+    public LavalinkClient getClient() {
+        return client;
+    }
+    
+    /**
+     * Id of the current or last session, or null before the first ready message
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+    
+    /**
+     * Whether the socket is open and the server has sent its ready message
+     */
+    public boolean isReady() {
+        return ready;
+    }
+    
+    /**
+     * The last statistics the server sent, or null before the first
+     */
+    public NodeStats getStats() {
+        return stats;
+    }
+    
+    private void onSocketLost(WebSocket lost, String cause) {
+        synchronized (this) {
+            if (lost != socket) {
+                // A socket that was already replaced or closed
+                return;
+            }
+            socket = null;
+            ready = false;
+            if (closed) {
+                return;
+            }
+            logger.warn("Lavalink session lost ({}), reconnecting in {} ms", cause, reconnectDelayMillis);
+            reconnect = scheduler.schedule(this::start, reconnectDelayMillis, TimeUnit.MILLISECONDS);
+            reconnectDelayMillis = Math.min(reconnectDelayMillis * 2, MAX_RECONNECT_DELAY_MILLIS);
+        }
+        
+        for (Listener listener : listeners) {
+            listener.onDisconnected();
+        }
+    }
+    
+    private synchronized boolean isCurrent(WebSocket webSocket) {
+        return webSocket == socket;
+    }
+    
+    /**
+     * Keeps the session state, then forwards every message to the listeners
+     */
+    private final class MessageHandler implements Listener {
+        @Override
+        public void onReady(String id, boolean resumed) {
+            synchronized (LavalinkSession.this) {
+                reconnectDelayMillis = MIN_RECONNECT_DELAY_MILLIS;
+            }
+            sessionId = id;
+            ready = true;
+            logger.info("Lavalink session {} {}", id, resumed ? "resumed" : "ready");
+            if (!resumed) {
+                client.enableResumingAsync(id, RESUME_TIMEOUT_SECONDS).exceptionally(error -> {
+                    logger.warn("Could not make Lavalink session resumable: {}", error.getMessage());
+                    return null;
+                });
+            }
+            for (Listener listener : listeners) {
+                listener.onReady(id, resumed);
+            }
+        }
+        
+        @Override
+        public void onPlayerUpdate(PlayerState state) {
+            for (Listener listener : listeners) {
+                listener.onPlayerUpdate(state);
+            }
+        }
+        
+        @Override
+        public void onTrackEnd(String guildId, EventTrack track, EndReason reason) {
+            for (Listener listener : listeners) {
+                listener.onTrackEnd(guildId, track, reason);
+            }
+        }
+        
+        @Override
+        public void onTrackException(String guildId, EventTrack track, String message, String severity) {
+            for (Listener listener : listeners) {
+                listener.onTrackException(guildId, track, message, severity);
+            }
+        }
+        
+        @Override
+        public void onTrackStuck(String guildId, EventTrack track, long thresholdMillis) {
+            for (Listener listener : listeners) {
+                listener.onTrackStuck(guildId, track, thresholdMillis);
+            }
+        }
+        
+        @Override
+        public void onStats(NodeStats nodeStats) {
+            stats = nodeStats;
+            for (Listener listener : listeners) {
+                listener.onStats(nodeStats);
+            }
+        }
+    }
+    
+    private final class SocketListener extends WebSocketListener {
+        @Override
+        public void onMessage(WebSocket webSocket, String text) {
+            if (!isCurrent(webSocket)) {
+                return;
+            }
+            try {
+                LavalinkMessageParser.parse(new StringReader(text), handler);
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Failed to handle Lavalink message: {}", e.getMessage());
+            }
+        }
+        
+        @Override
+        public void onClosing(WebSocket webSocket, int code, String reason) {
+            webSocket.close(code, reason);
+        }
+        
+        @Override
+        public void onClosed(WebSocket webSocket, int code, String reason) {
+            onSocketLost(webSocket, "closed with " + code + " " + reason);
+        }
+        
+        @Override
+        public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+            onSocketLost(webSocket, t.getMessage());
+        }
+    }
+}
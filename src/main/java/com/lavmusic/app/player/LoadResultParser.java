@@ -0,0 +1,249 @@
+package com.lavmusic.app.player;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.lavmusic.app.model.Track;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Streaming decoder for Lavalink /v4/loadtracks responses.
+ * Tracks are read straight from the response stream and decoding stops as soon
+ * as the result limit is reached, so large playlist loads are never fully parsed.
+ * Fields the player does not use (pluginInfo, artworkUrl, isrc, ...) are skipped.
+ */
+public final class LoadResultParser {
+    private static final Logger logger = LoggerFactory.getLogger(LoadResultParser.class);
+    
+    private LoadResultParser() {
+    }
+    
+    /**
+     * Decode up to {@code limit} tracks from a loadtracks response body.
+     * Lavalink writes {@code loadType} before {@code data}, which lets the
+     * payload shape be known before it is read.
+     * @param reader The response body
+     * @param limit Maximum number of tracks to decode
+     * @return The decoded tracks, never more than {@code limit}
+     */
+    public static List<Track> parseTracks(Reader reader, int limit) throws IOException {
+        return parseTracks(reader, limit, track -> { });
+    }
+    
+    /**
+     * Decode up to {@code limit} tracks, handing each one over as soon as it is read
+     * @param onTrack Called with every decoded track, in order, while the body is still being read
+     * @return The decoded tracks, never more than {@code limit}
+     */
+    public static List<Track> parseTracks(Reader reader, int limit, Consumer<Track> onTrack) throws IOException {
+        List<Track> tracks = new ArrayList<>(Math.min(Math.max(limit, 0), 64));
+        if (limit <= 0) {
+            return tracks;
+        }
+        
+        JsonReader json = new JsonReader(reader);
+        String loadType = null;
+        
+        json.beginObject();
+        while (tracks.size() < limit && json.hasNext()) {
+            String name = json.nextName();
+            if ("loadType".equals(name)) {
+                loadType = json.nextString();
+            } else if ("data".equals(name)) {
+                readData(json, loadType, new TrackSink(tracks, onTrack), limit);
+            } else {
+                json.skipValue();
+            }
+        }
+        
+        return tracks;
+    }
+    
+    /**
+     * Decode a bare JSON array of track objects, as returned by /v4/decodetracks
+     * @param reader The response body
+     * @return The decoded tracks in response order
+     */
+    public static List<Track> parseTrackArray(Reader reader) throws IOException {
+        List<Track> tracks = new ArrayList<>();
+        readTrackArray(new JsonReader(reader), new TrackSink(tracks, null), Integer.MAX_VALUE);
+        return tracks;
+    }
+    
+    private static void readData(JsonReader json, String loadType, TrackSink tracks, int limit) throws IOException {
+        if (json.peek() == JsonToken.NULL) {
+            json.nextNull();
+            return;
+        }
+        
+        if (loadType == null) {
+            // Only search results can be recognised without the load type
+            if (json.peek() == JsonToken.BEGIN_ARRAY) {
+                readTrackArray(json, tracks, limit);
+            } else {
+                json.skipValue();
+            }
+            return;
+        }
+        
+        switch (loadType) {
+            case "search" -> readTrackArray(json, tracks, limit);
+            case "track" -> {
+                Track track = readTrack(json);
+                if (track != null) {
+                    tracks.add(track);
+                }
+            }
+            case "playlist" -> readPlaylist(json, tracks, limit);
+            case "error" -> readError(json);
+            default -> json.skipValue();
+        }
+    }
+    
+    private static void readPlaylist(JsonReader json, TrackSink tracks, int limit) throws IOException {
+        json.beginObject();
+        while (tracks.size() < limit && json.hasNext()) {
+            if ("tracks".equals(json.nextName())) {
+                readTrackArray(json, tracks, limit);
+            } else {
+                json.skipValue();
+            }
+        }
+        if (tracks.size() < limit) {
+            json.endObject();
+        }
+    }
+    
+    private static void readTrackArray(JsonReader json, TrackSink tracks, int limit) throws IOException {
+        json.beginArray();
+        while (tracks.size() < limit && json.hasNext()) {
+            Track track = readTrack(json);
+            if (track != null) {
+                tracks.add(track);
+            }
+        }
+        // Once the limit is hit the rest of the body is left unread
+        if (tracks.size() < limit) {
+            json.endArray();
+        }
+    }
+    
+    /**
+     * Collects decoded tracks and passes each one on to an optional consumer
+     */
+    private record TrackSink(List<Track> tracks, Consumer<Track> onTrack) {
+        void add(Track track) {
+            tracks.add(track);
+            if (onTrack != null) {
+                onTrack.accept(track);
+            }
+        }
+        
+        int size() {
+            return tracks.size();
+        }
+    }
+    
+    private static Track readTrack(JsonReader json) throws IOException {
+        byte[] encoded = null;
+        Info info = null;
+        
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "encoded" -> encoded = decodeBase64(nextStringOrNull(json));
+                case "info" -> info = readInfo(json);
+                default -> json.skipValue();
+            }
+        }
+        json.endObject();
+        
+        if (info == null || info.title == null) {
+            return null;
+        }
+        return new Track(info.title, info.author, info.uri, info.length, info.identifier,
+            info.sourceName, info.seekable, info.stream, encoded);
+    }
+    
+    /**
+     * The fields of a track's info object; the encoded track may come before or after it
+     */
+    private record Info(String title, String author, String uri, long length, String identifier,
+                        String sourceName, boolean seekable, boolean stream) {
+    }
+    
+    private static Info readInfo(JsonReader json) throws IOException {
+        String title = null;
+        String author = null;
+        String uri = null;
+        String identifier = null;
+        String sourceName = null;
+        boolean seekable = true;
+        boolean stream = false;
+        long length = 0;
+        
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "title" -> title = nextStringOrNull(json);
+                case "author" -> author = nextStringOrNull(json);
+                case "uri" -> uri = nextStringOrNull(json);
+                case "identifier" -> identifier = nextStringOrNull(json);
+                case "sourceName" -> sourceName = nextStringOrNull(json);
+                case "isSeekable" -> seekable = json.nextBoolean();
+                case "isStream" -> stream = json.nextBoolean();
+                case "length" -> length = json.nextLong();
+                default -> json.skipValue();
+            }
+        }
+        json.endObject();
+        
+        return new Info(title, author, uri, length, identifier, sourceName, seekable, stream);
+    }
+    
+    /**
+     * Decode an encoded track to raw bytes; a malformed value is dropped rather than failing the load
+     */
+    private static byte[] decodeBase64(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Base64.getDecoder().decode(value);
+        } catch (IllegalArgumentException e) {
+            logger.debug("Ignoring malformed encoded track: {}", e.getMessage());
+            return null;
+        }
+    }
+    
+    private static void readError(JsonReader json) throws IOException {
+        String message = null;
+        
+        json.beginObject();
+        while (json.hasNext()) {
+            if ("message".equals(json.nextName())) {
+                message = nextStringOrNull(json);
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        
+        logger.warn("Lavalink failed to load tracks: {}", message);
+    }
+    
+    private static String nextStringOrNull(JsonReader json) throws IOException {
+        if (json.peek() == JsonToken.NULL) {
+            json.nextNull();
+            return null;
+        }
+        return json.nextString();
+    }
+}
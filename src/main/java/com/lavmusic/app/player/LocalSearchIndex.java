@@ -0,0 +1,400 @@
+package com.lavmusic.app.player;
+
+import com.lavmusic.app.model.Track;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * In-memory inverted index over the titles and authors of the user's own tracks.
+ * Words are folded to lower case without diacritics, so "Beyoncé" is found by "beyonce",
+ * and every query word matches as a prefix. A track must match all query words; it ranks
+ * higher for whole-word and title matches and for being a favorite, in a playlist or in
+ * the history. Scoring reuses per-track arrays instead of allocating, so a query over a
+ * large library typically takes well under a millisecond.
+ * <p>
+ * A track can be indexed from several sources at once; it leaves the index when its last
+ * source removes it. Its postings go with it and its doc id is reused by the next track
+ * added, so the index stays the size of what can be found however often tracks come and go.
+ */
+public class LocalSearchIndex {
+    private static final int TITLE = 0;
+    private static final int AUTHOR = 1;
+    
+    /**
+     * Where an indexed track comes from, with the rank boost it gives
+     */
+    public enum Source {
+        FAVORITE(2.0f),
+        PLAYLIST(1.0f),
+        HISTORY(0.5f);
+        
+        private final float boost;
+        
+        Source(float boost) {
+            this.boost = boost;
+        }
+    }
+    
+    /**
+     * Doc ids of a term, each shifted left by one with the field in the low bit
+     */
+    private static final class Postings {
+        int[] entries = new int[2];
+        int size;
+        
+        void add(int entry) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entries[size++] = entry;
+        }
+        
+        void remove(int entry) {
+            for (int i = 0; i < size; i++) {
+                if (entries[i] == entry) {
+                    System.arraycopy(entries, i + 1, entries, i, size - i - 1);
+                    size--;
+                    return;
+                }
+            }
+        }
+    }
+    
+    private final NavigableMap<String, Postings> terms;
+    private final Map<Track, Integer> docIds;
+    private Track[] docs;
+    private int[][] sourceCounts;
+    private short[] titleWords;
+    private int docCount;
+    private int liveCount;
+    
+    // Doc ids of removed tracks, handed out again before new ones
+    private int[] freeDocs;
+    private int freeCount;
+    
+    // Per-query scratch space, indexed by doc id and reset lazily through the stamps
+    private int[] queryStamp;
+    private int[] tokenStamp;
+    private int[] matched;
+    private float[] scores;
+    private float[] best;
+    private int[] candidates;
+    private int queryId;
+    private int tokenPass;
+    
+    public LocalSearchIndex() {
+        this.terms = new TreeMap<>();
+        this.docIds = new HashMap<>();
+        this.docs = new Track[64];
+        this.sourceCounts = new int[Source.values().length][64];
+        this.titleWords = new short[64];
+        this.freeDocs = new int[64];
+        this.queryStamp = new int[64];
+        this.tokenStamp = new int[64];
+        this.matched = new int[64];
+        this.scores = new float[64];
+        this.best = new float[64];
+        this.candidates = new int[64];
+    }
+    
+    /**
+     * Index a track for a source; adding it again for the same source counts it twice
+     */
+    public synchronized void add(Track track, Source source) {
+        Integer id = docIds.get(track);
+        int doc = id != null ? id : addDoc(track);
+        sourceCounts[source.ordinal()][doc]++;
+    }
+    
+    public synchronized void addAll(Collection<? extends Track> tracks, Source source) {
+        for (Track track : tracks) {
+            add(track, source);
+        }
+    }
+    
+    /**
+     * Remove one count of a track for a source; the track stays findable while any source still has it
+     */
+    public synchronized void remove(Track track, Source source) {
+        Integer doc = docIds.get(track);
+        if (doc == null || sourceCounts[source.ordinal()][doc] == 0) {
+            return;
+        }
+        sourceCounts[source.ordinal()][doc]--;
+        for (int[] counts : sourceCounts) {
+            if (counts[doc] > 0) {
+                return;
+            }
+        }
+        removeDoc(track, doc);
+    }
+    
+    public synchronized void removeAll(Collection<? extends Track> tracks, Source source) {
+        for (Track track : tracks) {
+            remove(track, source);
+        }
+    }
+    
+    /**
+     * Make a source hold exactly the given tracks, each counted once
+     */
+    public synchronized void replace(Source source, Collection<? extends Track> tracks) {
+        Set<Track> wanted = new HashSet<>(tracks);
+        List<Track> stale = new ArrayList<>();
+        for (Map.Entry<Track, Integer> entry : docIds.entrySet()) {
+            if (sourceCounts[source.ordinal()][entry.getValue()] > 0 && !wanted.contains(entry.getKey())) {
+                stale.add(entry.getKey());
+            }
+        }
+        for (Track track : stale) {
+            sourceCounts[source.ordinal()][docIds.get(track)] = 1;
+            remove(track, source);
+        }
+        for (Track track : wanted) {
+            Integer doc = docIds.get(track);
+            if (doc == null || sourceCounts[source.ordinal()][doc] == 0) {
+                add(track, source);
+            }
+        }
+    }
+    
+    /**
+     * Number of distinct tracks that can be found
+     */
+    public synchronized int size() {
+        return liveCount;
+    }
+    
+    /**
+     * Find indexed tracks whose title or author words start with every word of the query
+     * @return At most {@code limit} tracks, best match first
+     */
+    public synchronized List<Track> search(String query, int limit) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        // Start from the rarest word, whose docs are the only candidates for the later words
+        tokens.sort(Comparator.comparingInt(this::postingCount));
+        
+        queryId++;
+        int candidateCount = 0;
+        for (int k = 0; k < tokens.size(); k++) {
+            String token = tokens.get(k);
+            tokenPass++;
+            for (Map.Entry<String, Postings> term : prefixRange(token).entrySet()) {
+                boolean exact = term.getKey().length() == token.length();
+                Postings postings = term.getValue();
+                for (int i = 0; i < postings.size; i++) {
+                    int entry = postings.entries[i];
+                    int doc = entry >>> 1;
+                    if (queryStamp[doc] != queryId) {
+                        if (k > 0) {
+                            continue;
+                        }
+                        queryStamp[doc] = queryId;
+                        matched[doc] = 0;
+                        scores[doc] = 0;
+                        candidates[candidateCount++] = doc;
+                    }
+                    float score = termScore(entry & 1, exact);
+                    if (tokenStamp[doc] == tokenPass) {
+                        // Another term of the same query word; keep the best one
+                        if (score > best[doc]) {
+                            scores[doc] += score - best[doc];
+                            best[doc] = score;
+                        }
+                    } else if (matched[doc] == k) {
+                        tokenStamp[doc] = tokenPass;
+                        matched[doc] = k + 1;
+                        scores[doc] += score;
+                        best[doc] = score;
+                    }
+                }
+            }
+        }
+        
+        int[] topDocs = new int[limit];
+        float[] topScores = new float[limit];
+        int topCount = 0;
+        for (int c = 0; c < candidateCount; c++) {
+            int doc = candidates[c];
+            if (matched[doc] != tokens.size()) {
+                continue;
+            }
+            float score = scores[doc] + sourceBoost(doc) - 0.01f * titleWords[doc];
+            if (topCount < limit) {
+                topCount++;
+            } else if (score <= topScores[limit - 1]) {
+                continue;
+            }
+            int slot = topCount - 1;
+            while (slot > 0 && topScores[slot - 1] < score) {
+                topDocs[slot] = topDocs[slot - 1];
+                topScores[slot] = topScores[slot - 1];
+                slot--;
+            }
+            topDocs[slot] = doc;
+            topScores[slot] = score;
+        }
+        
+        List<Track> results = new ArrayList<>(topCount);
+        for (int i = 0; i < topCount; i++) {
+            results.add(docs[topDocs[i]]);
+        }
+        return results;
+    }
+    
+    private NavigableMap<String, Postings> prefixRange(String prefix) {
+        return terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+    
+    private int postingCount(String prefix) {
+        int count = 0;
+        for (Postings postings : prefixRange(prefix).values()) {
+            count += postings.size;
+        }
+        return count;
+    }
+    
+    /**
+     * Split text into folded words: lower case, diacritics removed, letters and digits only
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                appendFolded(word, Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                tokens.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0) {
+            tokens.add(word.toString());
+        }
+        return tokens;
+    }
+    
+    /**
+     * Letters that do not decompose into a base letter and a mark
+     */
+    private static void appendFolded(StringBuilder word, char c) {
+        switch (c) {
+            case 'ø' -> word.append('o');
+            case 'æ' -> word.append("ae");
+            case 'œ' -> word.append("oe");
+            case 'ß' -> word.append("ss");
+            case 'ł' -> word.append('l');
+            case 'đ' -> word.append('d');
+            case 'ı' -> word.append('i');
+            default -> word.append(c);
+        }
+    }
+    
+    private static float termScore(int field, boolean exact) {
+        if (field == TITLE) {
+            return exact ? 4.0f : 2.0f;
+        }
+        return exact ? 3.0f : 1.5f;
+    }
+    
+    private float sourceBoost(int doc) {
+        float boost = 0;
+        for (Source source : Source.values()) {
+            if (sourceCounts[source.ordinal()][doc] > 0) {
+                boost += source.boost;
+            }
+        }
+        return boost;
+    }
+    
+    private int addDoc(Track track) {
+        int doc;
+        if (freeCount > 0) {
+            doc = freeDocs[--freeCount];
+        } else {
+            if (docCount == docs.length) {
+                grow(docCount * 2);
+            }
+            doc = docCount++;
+        }
+        docs[doc] = track;
+        docIds.put(track, doc);
+        liveCount++;
+        
+        List<String> title = tokenize(track.getTitle());
+        titleWords[doc] = (short) Math.min(title.size(), Short.MAX_VALUE);
+        indexField(doc, TITLE, title);
+        indexField(doc, AUTHOR, tokenize(track.getAuthor()));
+        return doc;
+    }
+    
+    private void indexField(int doc, int field, List<String> words) {
+        Set<String> seen = new HashSet<>();
+        for (String word : words) {
+            if (seen.add(word)) {
+                terms.computeIfAbsent(word, w -> new Postings()).add(doc << 1 | field);
+            }
+        }
+    }
+    
+    /**
+     * Drop a track's postings and free its doc id; the words are found again by tokenizing
+     */
+    private void removeDoc(Track track, int doc) {
+        unindexField(doc, TITLE, tokenize(track.getTitle()));
+        unindexField(doc, AUTHOR, tokenize(track.getAuthor()));
+        docIds.remove(track);
+        docs[doc] = null;
+        freeDocs[freeCount++] = doc;
+        liveCount--;
+    }
+    
+    private void unindexField(int doc, int field, List<String> words) {
+        for (String word : new HashSet<>(words)) {
+            Postings postings = terms.get(word);
+            if (postings != null) {
+                postings.remove(doc << 1 | field);
+                if (postings.size == 0) {
+                    terms.remove(word);
+                }
+            }
+        }
+    }
+    
+    private void grow(int capacity) {
+        docs = Arrays.copyOf(docs, capacity);
+        for (int i = 0; i < sourceCounts.length; i++) {
+            sourceCounts[i] = Arrays.copyOf(sourceCounts[i], capacity);
+        }
+        titleWords = Arrays.copyOf(titleWords, capacity);
+        freeDocs = Arrays.copyOf(freeDocs, capacity);
+        queryStamp = Arrays.copyOf(queryStamp, capacity);
+        tokenStamp = Arrays.copyOf(tokenStamp, capacity);
+        matched = Arrays.copyOf(matched, capacity);
+        scores = Arrays.copyOf(scores, capacity);
+        best = Arrays.copyOf(best, capacity);
+        candidates = Arrays.copyOf(candidates, capacity);
+    }
+}
@@ -1,27 +1,46 @@
 package com.lavmusic.app.player;
 
+import com.lavmusic.app.concurrent.AppExecutors;
 import com.lavmusic.app.config.ConfigManager;
 import com.lavmusic.app.model.Playlist;
 import com.lavmusic.app.model.Track;
+import com.lavmusic.app.model.TrackTree;
+import com.lavmusic.app.storage.LibraryStore;
+import com.lavmusic.app.storage.SessionStore;
 import javafx.beans.property.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Random;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 /**
- * Music player manager that handles playback
- * This is a simplified implementation for demonstration
+ * Music player manager that handles playback.
+ * Playback commands go to the Lavalink player of the configured guild, and the server's
+ * reports on that player drive the position and track ends while a session is open.
  */
 public class MusicPlayerManager {
     private static final Logger logger = LoggerFactory.getLogger(MusicPlayerManager.class);
     
+    /** Past this point skipPrevious restarts the current track instead of going back */
+    private static final long RESTART_THRESHOLD_MILLIS = 3000;
+    
+    /** Drift from the server's reported position that is left alone instead of seeking the clock */
+    private static final long SYNC_TOLERANCE_MILLIS = 250;
+    
     /**
      * Repeat modes for playback
      */
@@ -31,38 +50,134 @@ public class MusicPlayerManager {
         ALL       // Repeat entire queue
     }
     
+    /**
+     * Notified once per queue change, including cursor moves; may be called from any thread
+     */
+    @FunctionalInterface
+    public interface QueueListener {
+        void onQueueChanged();
+    }
+    
+    /**
+     * Notified of each edit to the upcoming tracks, on the thread that made it.
+     * Edits made at the same time on different threads may arrive out of order; the
+     * versions of the changes show this, and {@link #getQueueState()} recovers from it.
+     */
+    @FunctionalInterface
+    public interface QueueChangeListener {
+        void onQueueChange(QueueChange change);
+    }
+    
     private final ConfigManager config;
-    private final List<Track> queue;
+    private final PlaybackQueue queue;
     private final ObjectProperty<Track> currentTrack;
     private final BooleanProperty playing;
     private final IntegerProperty volume;
     private final DoubleProperty position;
     private final AtomicBoolean initialized;
+    private final AtomicBoolean shutDown;
     private final LavalinkClient lavalinkClient;
-    private Timer progressTimer;
-    private long trackStartTime;
-    private boolean shuffle;
-    private RepeatMode repeatMode;
+    private final PlayerUpdatePump playerUpdates;
+    private final SearchCache searchCache;
+    private final PlaybackClock clock;
+    private final PlayHistory history;
+    private final Random shuffleRandom;
+    private final List<QueueListener> queueListeners;
+    private final List<QueueChangeListener> queueChangeListeners;
+    private volatile boolean shuffle;
+    private volatile RepeatMode repeatMode;
     private List<Playlist> playlists;
-    private List<Track> favorites;
+    private final Set<Track> favorites;
+    private final LibraryStore library;
+    private final LocalSearchIndex localIndex;
+    private final Playlist.Listener playlistIndexer;
+    /** Held while a snapshot is taken, so none runs alongside the final one on shutdown */
+    private final Object snapshotLock = new Object();
+    /**
+     * Held while the current track changes. Skips come from the FX thread, track ends from
+     * the clock's scheduler thread and the socket reader, so each change checks and moves
+     * on from the track it saw in one step.
+     */
+    private final Object transitionLock = new Object();
+    private SessionStore session;
+    private ScheduledFuture<?> snapshotTask;
+    private final String guildId;
+    private volatile LavalinkSession lavalinkSession;
+    private volatile boolean followingServer;
     
     public MusicPlayerManager(ConfigManager config) {
+        this(config, null);
+    }
+    
+    /**
+     * Create a player whose playlists and favorites are saved in a library store
+     * @param library The store to load from and save to, or null to keep everything in memory
+     */
+    public MusicPlayerManager(ConfigManager config, LibraryStore library) {
         this.config = config;
-        this.queue = new ArrayList<>();
+        this.queueChangeListeners = new CopyOnWriteArrayList<>();
+        this.queue = new PlaybackQueue(this::fireQueueChange);
         this.currentTrack = new SimpleObjectProperty<>();
         this.playing = new SimpleBooleanProperty(false);
         this.volume = new SimpleIntegerProperty(config.getDefaultVolume());
         this.position = new SimpleDoubleProperty(0.0);
         this.initialized = new AtomicBoolean(false);
+        this.shutDown = new AtomicBoolean(false);
         this.lavalinkClient = new LavalinkClient(
             config.getLavalinkHost(), 
             config.getLavalinkPort(), 
-            config.getLavalinkPassword()
+            config.getLavalinkPassword(),
+            config.getSearchMaxResults()
+        );
+        this.searchCache = new SearchCache(
+            config.getSearchCacheSize(),
+            Duration.ofSeconds(config.getSearchCacheTtlSeconds())
         );
+        this.clock = new PlaybackClock(AppExecutors.shared().scheduler());
+        this.history = new PlayHistory(config.getHistorySize());
+        this.shuffleRandom = new Random();
+        this.queueListeners = new CopyOnWriteArrayList<>();
         this.shuffle = false;
         this.repeatMode = RepeatMode.OFF;
         this.playlists = new ArrayList<>();
-        this.favorites = new ArrayList<>();
+        // Insertion-ordered hash index keyed by track identity: O(1) lookups, no duplicates
+        this.favorites = Collections.synchronizedSet(new LinkedHashSet<>());
+        this.library = library;
+        this.localIndex = new LocalSearchIndex();
+        this.playlistIndexer = new PlaylistIndexer();
+        this.guildId = config.getLavalinkGuildId();
+        this.playerUpdates = new PlayerUpdatePump(guildId, AppExecutors.shared().scheduler());
+        if (library != null) {
+            // Playlist tracks stay on disk until a playlist is opened, and are indexed then
+            for (Playlist playlist : library.getPlaylists()) {
+                playlists.add(playlist);
+                playlist.addListener(playlistIndexer);
+            }
+            favorites.addAll(library.getFavorites());
+            localIndex.addAll(favorites, LocalSearchIndex.Source.FAVORITE);
+        }
+        
+        clock.addListener(new PlaybackClock.Listener() {
+            @Override
+            public void onTick(long positionMillis, long durationMillis) {
+                position.set(durationMillis > 0 ? Math.min(1.0, (double) positionMillis / durationMillis) : 0.0);
+            }
+            
+            @Override
+            public void onTrackEnd() {
+                synchronized (transitionLock) {
+                    // A track started since the clock ran out is not the one that ended
+                    if (clock.isRunning() || !playing.get()) {
+                        return;
+                    }
+                    // While the server reports on the player, its TrackEnd event moves on instead; but a
+                    // track it has not taken, e.g. because the request failed, will never end there
+                    if (!followingServer || !playerUpdates.isPositionSettled()) {
+                        handleTrackEnd();
+                    }
+                }
+            }
+        });
     }
     
     /**
@@ -82,6 +197,9 @@ public class MusicPlayerManager {
             if (connected) {
                 initialized.set(true);
                 logger.info("Successfully connected to Lavalink server");
+                LavalinkSession created = lavalinkClient.createSession(config.getLavalinkUserId());
+                followSession(created);
+                created.start();
             } else {
                 logger.warn("Could not connect to Lavalink server, running in offline mode");
                 // Still mark as initialized to allow the app to start
@@ -95,16 +213,238 @@ public class MusicPlayerManager {
         }
     }
     
+    /**
+     * Follow the position and track events the server pushes over a session, for the
+     * configured guild's player. The local clock keeps the progress moving between updates
+     * and takes over again when the session drops. A session followed before is closed.
+     */
+    public void followSession(LavalinkSession newSession) {
+        LavalinkSession previous = lavalinkSession;
+        lavalinkSession = newSession;
+        playerUpdates.sessionLost();
+        if (previous != null) {
+            previous.close();
+        }
+        newSession.addListener(new ServerPlayerListener(newSession));
+    }
+    
+    /**
+     * Queue the whole local player state for the server's player
+     */
+    private void pushPlayerState() {
+        Track current = currentTrack.get();
+        if (current != null) {
+            playerUpdates.playTrack(current, clock.getPositionMillis(), !playing.get());
+        }
+        playerUpdates.setVolume(volume.get());
+    }
+    
+    /**
+     * Changes to the server's player, merged while a request is in flight
+     */
+    public PlayerUpdatePump getPlayerUpdates() {
+        return playerUpdates;
+    }
+    
+    /**
+     * The followed server session, or null when there is none
+     */
+    public LavalinkSession getLavalinkSession() {
+        return lavalinkSession;
+    }
+    
+    /**
+     * Whether position and track ends currently come from the server rather than the local clock
+     */
+    public boolean isFollowingServer() {
+        return followingServer;
+    }
+    
+    /**
+     * Resume the queue, track and position saved in a session store, paused, then keep
+     * saving them to it periodically and once more on shutdown
+     */
+    public void attachSession(SessionStore session) {
+        this.session = session;
+        restoreSession();
+        
+        long interval = TimeUnit.SECONDS.toMillis(config.getSnapshotIntervalSeconds());
+        // The timer only hands the write to the I/O pool, keeping the shared scheduler free
+        snapshotTask = AppExecutors.shared().scheduler().scheduleWithFixedDelay(
+            () -> AppExecutors.shared().io().execute(this::snapshotSession),
+            interval, interval, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Save the queue and playback position now; only the parts that changed are written
+     */
+    public void snapshotSession() {
+        synchronized (snapshotLock) {
+            if (session == null) {
+                return;
+            }
+            PlaybackQueue.Checkpoint checkpoint = queue.checkpoint();
+            try {
+                session.save(new SessionStore.Session(checkpoint.tracks(), checkpoint.cursor(), currentTrack.get(),
+                    clock.getPositionMillis(), checkpoint.base(), checkpoint.edits()));
+            } catch (IOException e) {
+                logger.error("Failed to save session", e);
+            }
+        }
+    }
+    
+    private void restoreSession() {
+        SessionStore.Session saved;
+        try {
+            saved = session.load();
+        } catch (IOException e) {
+            logger.error("Failed to restore session", e);
+            return;
+        }
+        if (saved == null) {
+            return;
+        }
+        
+        queue.restore(new PlaybackQueue.Checkpoint(saved.tracks(), saved.cursor(), saved.base(), saved.edits()));
+        Track current = saved.current();
+        if (current != null) {
+            recordHistory(current);
+            currentTrack.set(current);
+            playing.set(false);
+            clock.start(current.getDuration());
+            clock.pause();
+            clock.seek(saved.positionMillis());
+            long duration = current.getDuration();
+            position.set(duration > 0 ? Math.min(1.0, (double) saved.positionMillis() / duration) : 0.0);
+            playerUpdates.playTrack(current, saved.positionMillis(), true);
+        }
+        logger.info("Restored session with {} queued tracks at {} ms into {}",
+            saved.tracks().size(), saved.positionMillis(), current);
+        fireQueueChanged();
+    }
+    
     /**
      * Add a track to the queue
      */
     public void addToQueue(Track track) {
         queue.add(track);
         logger.info("Added to queue: {}", track);
+        fireQueueChanged();
         
         // If nothing is playing, start playing this track
-        if (currentTrack.get() == null) {
-            playNext();
+        playIfIdle();
+    }
+    
+    /**
+     * Append many tracks as one change: one event and one log line for the whole batch
+     */
+    public void addAllToQueue(Collection<? extends Track> tracks) {
+        if (tracks.isEmpty()) {
+            return;
+        }
+        queue.addAll(tracks);
+        logger.info("Added {} tracks to queue", tracks.size());
+        fireQueueChanged();
+        
+        playIfIdle();
+    }
+    
+    /**
+     * Replace the whole queue with the given tracks as one change
+     */
+    public void replaceQueue(Collection<? extends Track> tracks) {
+        queue.load(TrackTree.of(tracks));
+        logger.info("Replaced queue with {} tracks", tracks.size());
+        fireQueueChanged();
+        
+        playIfIdle();
+    }
+    
+    /**
+     * Insert tracks so they play right after the current one, keeping their order
+     */
+    public void enqueueNext(Collection<? extends Track> tracks) {
+        if (tracks.isEmpty()) {
+            return;
+        }
+        queue.insertAll(0, tracks);
+        logger.info("Queued {} tracks to play next", tracks.size());
+        fireQueueChanged();
+        
+        playIfIdle();
+    }
+    
+    /**
+     * Insert a track at a position in the queue
+     */
+    public void insertIntoQueue(int index, Track track) {
+        queue.insertAt(index, track);
+        logger.info("Inserted into queue at {}: {}", index, track);
+        fireQueueChanged();
+    }
+    
+    /**
+     * Remove the track at a position in the queue
+     */
+    public Track removeFromQueue(int index) {
+        Track removed = queue.removeAt(index);
+        logger.info("Removed from queue: {}", removed);
+        fireQueueChanged();
+        return removed;
+    }
+    
+    /**
+     * Move a queued track to a new position
+     */
+    public void moveInQueue(int from, int to) {
+        queue.move(from, to);
+        logger.info("Moved queue entry from {} to {}", from, to);
+        fireQueueChanged();
+    }
+    
+    public void addQueueListener(QueueListener listener) {
+        queueListeners.add(listener);
+    }
+    
+    public void removeQueueListener(QueueListener listener) {
+        queueListeners.remove(listener);
+    }
+    
+    public void addQueueChangeListener(QueueChangeListener listener) {
+        queueChangeListeners.add(listener);
+    }
+    
+    public void removeQueueChangeListener(QueueChangeListener listener) {
+        queueChangeListeners.remove(listener);
+    }
+    
+    /**
+     * The upcoming tracks and their version, to start a view that then follows queue changes
+     */
+    public QueueChange getQueueState() {
+        return queue.currentState();
+    }
+    
+    private void fireQueueChange(QueueChange change) {
+        for (QueueChangeListener listener : queueChangeListeners) {
+            listener.onQueueChange(change);
+        }
+    }
+    
+    private void fireQueueChanged() {
+        for (QueueListener listener : queueListeners) {
+            listener.onQueueChanged();
+        }
+    }
+    
+    /**
+     * Start the next queued track if nothing is playing
+     */
+    private void playIfIdle() {
+        synchronized (transitionLock) {
+            if (currentTrack.get() == null) {
+                playNext();
+            }
         }
     }
     
@@ -112,27 +452,37 @@ public class MusicPlayerManager {
      * Play the specified track
      */
     public void play(Track track) {
+        synchronized (transitionLock) {
+            recordHistory(track);
+            startPlayback(track);
+        }
+    }
+    
+    /**
+     * Start a track from the beginning without recording it in the history; hold the transition lock
+     */
+    private void startPlayback(Track track) {
         logger.info("Playing: {}", track);
         currentTrack.set(track);
         playing.set(true);
         position.set(0.0);
-        trackStartTime = System.currentTimeMillis();
-        
-        startProgressTimer();
-        
-        // In a real implementation, you would send play command to Lavalink
+        clock.start(track.getDuration());
+        playerUpdates.playTrack(track);
     }
     
     /**
      * Play or resume playback
      */
     public void play() {
-        if (currentTrack.get() != null) {
-            logger.info("Resuming playback");
-            playing.set(true);
-            startProgressTimer();
-        } else if (!queue.isEmpty()) {
-            playNext();
+        synchronized (transitionLock) {
+            if (currentTrack.get() != null) {
+                logger.info("Resuming playback");
+                playing.set(true);
+                clock.resume();
+                playerUpdates.setPaused(false);
+            } else if (shuffle ? queue.unplayedCount() > 0 : !queue.isExhausted()) {
+                playNext();
+            }
         }
     }
     
@@ -142,40 +492,49 @@ public class MusicPlayerManager {
     public void pause() {
         logger.info("Pausing playback");
         playing.set(false);
-        stopProgressTimer();
+        clock.pause();
+        playerUpdates.setPaused(true);
     }
     
     /**
      * Stop playback
      */
     public void stop() {
-        logger.info("Stopping playback");
-        playing.set(false);
-        currentTrack.set(null);
-        position.set(0.0);
-        stopProgressTimer();
+        synchronized (transitionLock) {
+            logger.info("Stopping playback");
+            playing.set(false);
+            currentTrack.set(null);
+            position.set(0.0);
+            clock.stop();
+            playerUpdates.stopTrack();
+        }
     }
     
     /**
-     * Skip to next track in queue
+     * Skip to next track: forward through the history after going back, otherwise the queue
      */
     public void skipNext() {
-        logger.info("Skipping to next track");
-        playNext();
+        synchronized (transitionLock) {
+            logger.info("Skipping to next track");
+            Track next = history.forward();
+            if (next != null) {
+                startPlayback(next);
+            } else {
+                playNext();
+            }
+        }
     }
     
     /**
-     * Play the next track in the queue
+     * Play the next track in the queue; hold the transition lock
      */
     private void playNext() {
-        if (!queue.isEmpty()) {
-            Track track = queue.remove(0);
+        // Playing advances the cursor; repeat-all wraps it back to the first track
+        boolean wrap = repeatMode == RepeatMode.ALL;
+        Track track = shuffle ? queue.advanceRandom(shuffleRandom, wrap) : queue.advance(wrap);
+        if (track != null) {
+            fireQueueChanged();
             play(track);
-        } else if (repeatMode == RepeatMode.ALL && currentTrack.get() != null) {
-            // If repeat all is enabled and queue is empty, we just finished the last track
-            // In a real implementation, we'd reload the original queue
-            logger.info("Repeat all enabled but queue is empty");
-            stop();
         } else {
             stop();
         }
@@ -185,59 +544,44 @@ public class MusicPlayerManager {
      * Play the previous track
      */
     public void skipPrevious() {
-        logger.info("Skipping to previous track");
-        // In a simple implementation, we just restart the current track
-        // A full implementation would maintain a history of played tracks
-        if (currentTrack.get() != null) {
-            play(currentTrack.get());
-        }
-    }
-    
-    /**
-     * Start the progress timer
-     */
-    private void startProgressTimer() {
-        stopProgressTimer();
-        
-        progressTimer = new Timer(true);
-        progressTimer.scheduleAtFixedRate(new TimerTask() {
-            @Override
-            public void run() {
-                if (playing.get() && currentTrack.get() != null) {
-                    long elapsed = System.currentTimeMillis() - trackStartTime;
-                    double progress = (double) elapsed / currentTrack.get().getDuration();
-                    position.set(Math.min(progress, 1.0));
-                    
-                    // Check if track has ended
-                    if (progress >= 1.0) {
-                        handleTrackEnd();
-                    }
-                }
+        synchronized (transitionLock) {
+            logger.info("Skipping to previous track");
+            Track current = currentTrack.get();
+            
+            // Restart the current track if it has been playing for a while or there is nothing before it
+            Track previous = null;
+            if (current == null) {
+                // After a stop or the end of the queue, the last played track is the one to go back to
+                previous = history.current();
+            } else if (clock.getPositionMillis() <= RESTART_THRESHOLD_MILLIS) {
+                previous = history.back();
+            }
+            
+            if (previous != null) {
+                startPlayback(previous);
+            } else if (current != null) {
+                startPlayback(current);
             }
-        }, 0, 100); // Update every 100ms
+        }
     }
     
     /**
-     * Stop the progress timer
+     * Lower the progress update rate while the window is not visible
      */
-    private void stopProgressTimer() {
-        if (progressTimer != null) {
-            progressTimer.cancel();
-            progressTimer = null;
-        }
+    public void setBackgroundPlayback(boolean background) {
+        clock.setBackground(background);
     }
     
     /**
-     * Handle track end
+     * Handle track end, called by the playback clock or a TrackEnd event from the server
+     * with the transition lock held
      */
     private void handleTrackEnd() {
-        stopProgressTimer();
-        
         if (repeatMode == RepeatMode.ONE) {
             // Repeat current track
             Track current = currentTrack.get();
             if (current != null) {
-                play(current);
+                startPlayback(current);
             }
         } else {
             // Play next track
@@ -246,16 +590,15 @@ public class MusicPlayerManager {
     }
     
     /**
-     * Toggle shuffle mode
+     * Toggle shuffle mode in O(1).
+     * The queue keeps its order; while shuffle is on, each next track is drawn at random
+     * from those not played yet in this round, and tracks added meanwhile simply join them.
+     * Turning it off continues in the queue's own order from the current track, and
+     * repeat-all plays the whole queue in that order again.
      */
     public void toggleShuffle() {
         shuffle = !shuffle;
         logger.info("Shuffle: {}", shuffle ? "ON" : "OFF");
-        
-        if (shuffle && !queue.isEmpty()) {
-            Collections.shuffle(queue, new Random());
-            logger.info("Queue shuffled");
-        }
     }
     
     /**
@@ -278,7 +621,8 @@ public class MusicPlayerManager {
             double clampedPosition = Math.max(0.0, Math.min(1.0, position));
             this.position.set(clampedPosition);
             long newTime = (long) (clampedPosition * currentTrack.get().getDuration());
-            trackStartTime = System.currentTimeMillis() - newTime;
+            clock.seek(newTime);
+            playerUpdates.seek(newTime);
             logger.info("Seeked to position: {}", clampedPosition);
         }
     }
@@ -289,39 +633,93 @@ public class MusicPlayerManager {
     public void setVolume(int vol) {
         int newVolume = Math.max(0, Math.min(100, vol));
         volume.set(newVolume);
+        playerUpdates.setVolume(newVolume);
         logger.info("Volume set to: {}", newVolume);
     }
     
     /**
-     * Search for tracks
+     * Search for tracks, blocking until results are available
      */
     public List<Track> search(String query) {
+        return searchAsync(query).join();
+    }
+    
+    /**
+     * Search for tracks without blocking the caller.
+     * Cancelling the returned future aborts the underlying Lavalink request.
+     */
+    public CompletableFuture<List<Track>> searchAsync(String query) {
+        return searchAsync(query, null);
+    }
+    
+    /**
+     * Search for tracks without blocking, receiving Lavalink results one by one as they are decoded.
+     * Cached results are handed over at once; the demo fallback is only in the completed list.
+     * @param onTrack Called for each result, possibly on an HTTP thread; must not block. May be null.
+     */
+    public CompletableFuture<List<Track>> searchAsync(String query, Consumer<Track> onTrack) {
         logger.info("Searching for: {}", query);
         
-        List<Track> results = new ArrayList<>();
+        // Serve repeated searches without a round trip
+        String cacheKey = SearchCache.key(LavalinkClient.SEARCH_SOURCE, query);
+        List<Track> cached = searchCache.get(cacheKey);
+        if (cached != null) {
+            logger.info("Found {} cached results", cached.size());
+            if (onTrack != null) {
+                cached.forEach(onTrack);
+            }
+            return CompletableFuture.completedFuture(cached);
+        }
         
-        try {
-            // Try to search using Lavalink
-            results = lavalinkClient.searchTracks(query);
-            
-            if (results.isEmpty()) {
+        // Try to search using Lavalink
+        CompletableFuture<List<Track>> request = onTrack != null
+            ? lavalinkClient.searchTracksAsync(query, onTrack)
+            : lavalinkClient.searchTracksAsync(query);
+        CompletableFuture<List<Track>> results = request.handle((tracks, error) -> {
+            if (error != null) {
+                logger.error("Error during search", error);
+            } else if (tracks.isEmpty()) {
                 logger.warn("No results found from Lavalink for query: {}", query);
             } else {
-                logger.info("Found {} results from Lavalink", results.size());
-                return results;
+                logger.info("Found {} results from Lavalink", tracks.size());
+                // Only real results are cached, never failures or the demo fallback
+                return searchCache.put(cacheKey, tracks);
             }
-        } catch (Exception e) {
-            logger.error("Error during search", e);
-        }
-        
-        // Fallback to demo results if Lavalink search failed or returned no results
-        if (results.isEmpty()) {
+            
+            // Fallback to demo results if Lavalink search failed or returned no results
             logger.warn("Returning demo results as fallback");
-            results.add(new Track("Sample Song 1", "Artist A", "https://example.com/1", 180000));
-            results.add(new Track("Sample Song 2", "Artist B", "https://example.com/2", 210000));
-            results.add(new Track("Sample Song 3", "Artist C", "https://example.com/3", 195000));
-        }
+            return demoResults();
+        });
         
+        // Dependent stages do not cancel their source, so forward it explicitly
+        results.whenComplete((tracks, error) -> {
+            if (results.isCancelled()) {
+                request.cancel(false);
+            }
+        });
+        return results;
+    }
+    
+    /**
+     * Search the favorites, opened playlists and history without leaving the process.
+     * Fast enough to call on every keystroke; results are ranked best first.
+     */
+    public List<Track> searchLocal(String query) {
+        return localIndex.search(query, config.getSearchMaxResults());
+    }
+    
+    private void recordHistory(Track track) {
+        List<Track> dropped = history.record(track);
+        // The history source counts each entry, so only the entries that changed are touched
+        localIndex.add(track, LocalSearchIndex.Source.HISTORY);
+        localIndex.removeAll(dropped, LocalSearchIndex.Source.HISTORY);
+    }
+    
+    private List<Track> demoResults() {
+        List<Track> results = new ArrayList<>();
+        results.add(new Track("Sample Song 1", "Artist A", "https://example.com/1", 180000));
+        results.add(new Track("Sample Song 2", "Artist B", "https://example.com/2", 210000));
+        results.add(new Track("Sample Song 3", "Artist C", "https://example.com/3", 195000));
         return results;
     }
     
@@ -331,17 +729,38 @@ public class MusicPlayerManager {
     public void clearQueue() {
         queue.clear();
         logger.info("Queue cleared");
+        fireQueueChanged();
     }
     
     /**
-     * Shutdown the player
+     * Shutdown the player; calls after the first do nothing
      */
     public void shutdown() {
+        if (!shutDown.compareAndSet(false, true)) {
+            return;
+        }
         logger.info("Shutting down music player");
-        stopProgressTimer();
+        synchronized (snapshotLock) {
+            if (session != null) {
+                snapshotTask.cancel(false);
+                snapshotSession();
+                // A snapshot still queued on the I/O pool finds no session and leaves the files alone
+                session = null;
+            }
+        }
         stop();
         queue.clear();
+        if (lavalinkSession != null) {
+            lavalinkSession.close();
+        }
         lavalinkClient.shutdown();
+        if (library != null) {
+            try {
+                library.close();
+            } catch (IOException e) {
+                logger.error("Failed to close library", e);
+            }
+        }
         initialized.set(false);
     }
     
@@ -362,8 +781,27 @@ public class MusicPlayerManager {
         return position;
     }
     
+    public PlaybackClock getPlaybackClock() {
+        return clock;
+    }
+    
+    public PlayHistory getHistory() {
+        return history;
+    }
+    
+    public ConfigManager getConfig() {
+        return config;
+    }
+    
+    public SearchCache getSearchCache() {
+        return searchCache;
+    }
+    
+    /**
+     * Immutable snapshot of the upcoming tracks; taking it does not copy them
+     */
     public List<Track> getQueue() {
-        return new ArrayList<>(queue);
+        return queue.upcoming();
     }
     
     public boolean isShuffleEnabled() {
@@ -380,6 +818,10 @@ public class MusicPlayerManager {
     public Playlist createPlaylist(String name) {
         Playlist playlist = new Playlist(name);
         playlists.add(playlist);
+        playlist.addListener(playlistIndexer);
+        if (library != null) {
+            library.addPlaylist(playlist);
+        }
         logger.info("Created playlist: {}", name);
         return playlist;
     }
@@ -396,31 +838,45 @@ public class MusicPlayerManager {
      */
     public void deletePlaylist(Playlist playlist) {
         playlists.remove(playlist);
+        playlist.removeListener(playlistIndexer);
+        if (playlist.isLoaded()) {
+            localIndex.removeAll(playlist.getTrackTree().asList(), LocalSearchIndex.Source.PLAYLIST);
+        }
+        if (library != null) {
+            library.removePlaylist(playlist);
+        }
         logger.info("Deleted playlist: {}", playlist.getName());
     }
     
     /**
-     * Load a playlist into the queue
+     * Load a playlist into the queue.
+     * The queue shares the playlist's immutable track tree, so this is O(1) whatever its size.
      */
     public void loadPlaylist(Playlist playlist) {
-        clearQueue();
-        for (Track track : playlist.getTracks()) {
-            addToQueue(track);
-        }
-        logger.info("Loaded playlist: {}", playlist.getName());
+        queue.load(playlist.getTrackTree());
+        logger.info("Loaded playlist: {} ({} tracks)", playlist.getName(), playlist.size());
+        fireQueueChanged();
+        
+        // If nothing is playing, start with the first track
+        playIfIdle();
     }
     
     /**
      * Save current queue as a playlist
      */
     public Playlist saveQueueAsPlaylist(String name) {
-        List<Track> currentQueue = new ArrayList<>(queue);
+        List<Track> currentQueue = new ArrayList<>(queue.upcoming());
         if (currentTrack.get() != null) {
             currentQueue.add(0, currentTrack.get());
         }
         
         Playlist playlist = new Playlist(name, currentQueue);
         playlists.add(playlist);
+        playlist.addListener(playlistIndexer);
+        localIndex.addAll(currentQueue, LocalSearchIndex.Source.PLAYLIST);
+        if (library != null) {
+            library.addPlaylist(playlist);
+        }
         logger.info("Saved queue as playlist: {}", name);
         return playlist;
     }
@@ -429,8 +885,11 @@ public class MusicPlayerManager {
      * Add a track to favorites
      */
     public void addToFavorites(Track track) {
-        if (!favorites.contains(track)) {
-            favorites.add(track);
+        if (favorites.add(track)) {
+            localIndex.add(track, LocalSearchIndex.Source.FAVORITE);
+            if (library != null) {
+                library.addFavorite(track);
+            }
             logger.info("Added to favorites: {}", track);
         }
     }
@@ -439,12 +898,17 @@ public class MusicPlayerManager {
      * Remove a track from favorites
      */
     public void removeFromFavorites(Track track) {
-        favorites.remove(track);
-        logger.info("Removed from favorites: {}", track);
+        if (favorites.remove(track)) {
+            localIndex.remove(track, LocalSearchIndex.Source.FAVORITE);
+            if (library != null) {
+                library.removeFavorite(track);
+            }
+            logger.info("Removed from favorites: {}", track);
+        }
     }
     
     /**
-     * Check if a track is in favorites
+     * Check if a track is in favorites; matches any track with the same identity in O(1)
      */
     public boolean isFavorite(Track track) {
         return favorites.contains(track);
@@ -454,6 +918,145 @@ public class MusicPlayerManager {
      * Get all favorite tracks
      */
     public List<Track> getFavorites() {
-        return new ArrayList<>(favorites);
+        synchronized (favorites) {
+            return new ArrayList<>(favorites);
+        }
+    }
+    
+    /**
+     * Applies what the server reports about this app's player
+     */
+    private class ServerPlayerListener implements LavalinkSession.Listener {
+        private final LavalinkSession source;
+        
+        ServerPlayerListener(LavalinkSession source) {
+            this.source = source;
+        }
+        
+        private boolean isOurs(String eventGuildId) {
+            return source == lavalinkSession && guildId.equals(eventGuildId);
+        }
+        
+        /**
+         * Whether an event is about the track playing now rather than one the player has
+         * already moved away from, e.g. the end of a track the user skipped just before
+         */
+        private boolean isOurs(String eventGuildId, LavalinkSession.EventTrack track) {
+            return isOurs(eventGuildId) && (track == null || track.matches(currentTrack.get()));
+        }
+        
+        @Override
+        public void onReady(String sessionId, boolean resumed) {
+            if (source != lavalinkSession) {
+                return;
+            }
+            if (!resumed) {
+                // A new session has no players, so the server's one is created from the local state
+                followingServer = false;
+                pushPlayerState();
+            }
+            playerUpdates.sessionReady(source.getClient(), sessionId);
+        }
+        
+        @Override
+        public void onPlayerUpdate(LavalinkSession.PlayerState state) {
+            // Until the server has taken the last track change or seek, it reports where it was before
+            if (!isOurs(state.guildId()) || !playerUpdates.isPositionSettled()) {
+                return;
+            }
+            Track current = currentTrack.get();
+            if (current == null) {
+                return;
+            }
+            followingServer = true;
+            long serverPosition = state.positionMillis();
+            if (Math.abs(clock.getPositionMillis() - serverPosition) > SYNC_TOLERANCE_MILLIS) {
+                clock.seek(serverPosition);
+                long duration = current.getDuration();
+                position.set(duration > 0 ? Math.min(1.0, (double) serverPosition / duration) : 0.0);
+            }
+        }
+        
+        @Override
+        public void onTrackEnd(String eventGuildId, LavalinkSession.EventTrack track,
+                LavalinkSession.EndReason reason) {
+            synchronized (transitionLock) {
+                if (!isOurs(eventGuildId, track)) {
+                    return;
+                }
+                logger.debug("Lavalink track ended: {}", reason);
+                if (reason.mayStartNext()) {
+                    handleTrackEnd();
+                }
+            }
+        }
+        
+        @Override
+        public void onTrackException(String eventGuildId, LavalinkSession.EventTrack track, String message,
+                String severity) {
+            if (isOurs(eventGuildId, track)) {
+                // A TrackEnd event with reason loadFailed follows and moves on
+                logger.warn("Lavalink could not play track ({}): {}", severity, message);
+            }
+        }
+        
+        @Override
+        public void onTrackStuck(String eventGuildId, LavalinkSession.EventTrack track, long thresholdMillis) {
+            synchronized (transitionLock) {
+                if (isOurs(eventGuildId, track)) {
+                    logger.warn("Track stuck for {} ms on Lavalink, skipping", thresholdMillis);
+                    skipNext();
+                }
+            }
+        }
+        
+        @Override
+        public void onDisconnected() {
+            if (source != lavalinkSession) {
+                return;
+            }
+            playerUpdates.sessionLost();
+            if (!followingServer) {
+                return;
+            }
+            followingServer = false;
+            // The clock stops at the end of the track; if it got there first, nobody else will move on
+            synchronized (transitionLock) {
+                if (playing.get() && currentTrack.get() != null && !clock.isRunning()) {
+                    handleTrackEnd();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Keeps the local search index in step with the playlists' contents
+     */
+    private class PlaylistIndexer implements Playlist.Listener {
+        @Override
+        public void onRenamed(Playlist playlist, String name) {
+        }
+        
+        @Override
+        public void onTrackAdded(Playlist playlist, Track track) {
+            localIndex.add(track, LocalSearchIndex.Source.PLAYLIST);
+        }
+        
+        @Override
+        public void onTrackRemoved(Playlist playlist, int index, Track track) {
+            localIndex.remove(track, LocalSearchIndex.Source.PLAYLIST);
+        }
+        
+        @Override
+        public void onCleared(Playlist playlist, TrackTree removed) {
+            if (removed != null) {
+                localIndex.removeAll(removed.asList(), LocalSearchIndex.Source.PLAYLIST);
+            }
+        }
+        
+        @Override
+        public void onLoaded(Playlist playlist, TrackTree tracks) {
+            localIndex.addAll(tracks.asList(), LocalSearchIndex.Source.PLAYLIST);
+        }
     }
 }
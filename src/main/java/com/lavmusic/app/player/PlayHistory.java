@@ -0,0 +1,129 @@
+package com.lavmusic.app.player;
+
+import com.lavmusic.app.model.Track;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recently played tracks with back/forward navigation, like a browser history.
+ * Entries live in a fixed-size ring buffer allocated once, so memory stays constant
+ * however long the session runs; when the buffer is full the oldest entry is overwritten.
+ */
+public class PlayHistory {
+    private final Track[] entries;
+    private int oldest;
+    private int count;
+    private int cursor;
+    
+    /**
+     * @param capacity Maximum number of tracks remembered
+     */
+    public PlayHistory(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("History capacity must be positive: " + capacity);
+        }
+        this.entries = new Track[capacity];
+        this.cursor = -1;
+    }
+    
+    /**
+     * Record a newly played track as the current entry.
+     * Entries ahead of the cursor (left there by going back) are discarded.
+     * @return The entries that left the history, usually none or the overwritten oldest one
+     */
+    public synchronized List<Track> record(Track track) {
+        List<Track> dropped = List.of();
+        if (cursor + 1 < count || count == entries.length) {
+            dropped = new ArrayList<>();
+        }
+        for (int i = cursor + 1; i < count; i++) {
+            dropped.add(entries[slot(i)]);
+            entries[slot(i)] = null;
+        }
+        count = cursor + 1;
+        
+        if (count == entries.length) {
+            // Overwrite the oldest entry
+            dropped.add(entries[oldest]);
+            entries[oldest] = null;
+            oldest = slot(1);
+            count--;
+        }
+        entries[slot(count)] = track;
+        count++;
+        cursor = count - 1;
+        return dropped;
+    }
+    
+    /**
+     * Step back to the previously played track
+     * @return The previous track, or null if there is none
+     */
+    public synchronized Track back() {
+        if (cursor <= 0) {
+            return null;
+        }
+        cursor--;
+        return entries[slot(cursor)];
+    }
+    
+    /**
+     * Step forward again after going back
+     * @return The next track in history, or null if the cursor is at the newest entry
+     */
+    public synchronized Track forward() {
+        if (cursor >= count - 1) {
+            return null;
+        }
+        cursor++;
+        return entries[slot(cursor)];
+    }
+    
+    /**
+     * The entry at the cursor, or null if nothing was recorded
+     */
+    public synchronized Track current() {
+        return cursor < 0 ? null : entries[slot(cursor)];
+    }
+    
+    public synchronized boolean canGoBack() {
+        return cursor > 0;
+    }
+    
+    public synchronized boolean canGoForward() {
+        return cursor < count - 1;
+    }
+    
+    public synchronized int size() {
+        return count;
+    }
+    
+    public int capacity() {
+        return entries.length;
+    }
+    
+    /**
+     * Tracks from oldest to newest
+     */
+    public synchronized List<Track> getTracks() {
+        List<Track> tracks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tracks.add(entries[slot(i)]);
+        }
+        return tracks;
+    }
+    
+    public synchronized void clear() {
+        for (int i = 0; i < count; i++) {
+            entries[slot(i)] = null;
+        }
+        oldest = 0;
+        count = 0;
+        cursor = -1;
+    }
+    
+    private int slot(int offset) {
+        return (oldest + offset) % entries.length;
+    }
+}
@@ -0,0 +1,250 @@
+package com.lavmusic.app.player;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Monotonic playback clock for the current track.
+ * Position is derived from {@link System#nanoTime()} rather than the wall clock, so it
+ * never jumps when the system time changes. A single periodic task on a shared scheduler
+ * notifies every listener; it ticks slowly while the window is in the background and not
+ * at all while paused. Track end is a separate one-shot task scheduled for the exact
+ * remaining time instead of being detected by polling.
+ */
+public class PlaybackClock {
+    private static final Logger logger = LoggerFactory.getLogger(PlaybackClock.class);
+    
+    /** Tick period while the window is visible */
+    public static final long FOREGROUND_TICK_MILLIS = 100;
+    
+    /** Tick period while the window is minimized */
+    public static final long BACKGROUND_TICK_MILLIS = 1000;
+    
+    /**
+     * Receives clock updates on the scheduler thread; implementations must not block
+     */
+    public interface Listener {
+        void onTick(long positionMillis, long durationMillis);
+        
+        default void onTrackEnd() {
+        }
+    }
+    
+    private final ScheduledExecutorService scheduler;
+    private final LongSupplier nanoClock;
+    private final List<Listener> listeners;
+    private long durationNanos;
+    private long basePositionNanos;
+    private long resumedAtNanos;
+    private boolean running;
+    private boolean background;
+    private long tickPeriodMillis;
+    private long generation;
+    private ScheduledFuture<?> ticker;
+    private ScheduledFuture<?> endTimer;
+    
+    public PlaybackClock(ScheduledExecutorService scheduler) {
+        this(scheduler, System::nanoTime);
+    }
+    
+    /**
+     * Create a clock with a custom time source, e.g. for tests
+     */
+    public PlaybackClock(ScheduledExecutorService scheduler, LongSupplier nanoClock) {
+        this.scheduler = scheduler;
+        this.nanoClock = nanoClock;
+        this.listeners = new CopyOnWriteArrayList<>();
+    }
+    
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Start a new track from the beginning
+     * @param durationMillis Track length; zero or less means unknown (e.g. a stream), which never ends
+     */
+    public synchronized void start(long durationMillis) {
+        durationNanos = Math.max(0, TimeUnit.MILLISECONDS.toNanos(durationMillis));
+        basePositionNanos = 0;
+        resumedAtNanos = nanoClock.getAsLong();
+        running = true;
+        reschedule();
+    }
+    
+    /**
+     * Continue from the paused position
+     */
+    public synchronized void resume() {
+        if (running) {
+            return;
+        }
+        resumedAtNanos = nanoClock.getAsLong();
+        running = true;
+        reschedule();
+    }
+    
+    /**
+     * Freeze the position; no ticks are delivered until resumed
+     */
+    public synchronized void pause() {
+        if (!running) {
+            return;
+        }
+        basePositionNanos = currentPositionNanos();
+        running = false;
+        reschedule();
+    }
+    
+    /**
+     * Stop the clock and reset the position
+     */
+    public synchronized void stop() {
+        running = false;
+        basePositionNanos = 0;
+        durationNanos = 0;
+        reschedule();
+    }
+    
+    /**
+     * Move to a position in the current track, keeping the running state
+     */
+    public synchronized void seek(long positionMillis) {
+        long target = Math.max(0, TimeUnit.MILLISECONDS.toNanos(positionMillis));
+        basePositionNanos = durationNanos > 0 ? Math.min(target, durationNanos) : target;
+        resumedAtNanos = nanoClock.getAsLong();
+        reschedule();
+    }
+    
+    /**
+     * Switch between the foreground and background tick rate
+     */
+    public synchronized void setBackground(boolean background) {
+        if (this.background == background) {
+            return;
+        }
+        this.background = background;
+        logger.debug("Playback clock in {} mode", background ? "background" : "foreground");
+        reschedule();
+    }
+    
+    public synchronized long getPositionMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(currentPositionNanos());
+    }
+    
+    public synchronized long getDurationMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(durationNanos);
+    }
+    
+    public synchronized boolean isRunning() {
+        return running;
+    }
+    
+    /**
+     * Current tick period in milliseconds, or 0 when no ticks are scheduled
+     */
+    public synchronized long getTickPeriodMillis() {
+        return ticker != null ? tickPeriodMillis : 0;
+    }
+    
+    private long currentPositionNanos() {
+        long position = basePositionNanos;
+        if (running) {
+            position += nanoClock.getAsLong() - resumedAtNanos;
+        }
+        return durationNanos > 0 ? Math.min(position, durationNanos) : position;
+    }
+    
+    /**
+     * Bring the scheduled tasks in line with the current state.
+     * The ticker keeps running across track changes and seeks; only its period or a pause
+     * replaces it. The end timer is re-armed whenever the remaining time changes.
+     */
+    private void reschedule() {
+        generation++;
+        
+        if (endTimer != null) {
+            endTimer.cancel(false);
+            endTimer = null;
+        }
+        
+        long period = background ? BACKGROUND_TICK_MILLIS : FOREGROUND_TICK_MILLIS;
+        if (!running) {
+            cancelTicker();
+        } else if (ticker == null || tickPeriodMillis != period) {
+            cancelTicker();
+            tickPeriodMillis = period;
+            ticker = scheduler.scheduleAtFixedRate(this::tick, 0, period, TimeUnit.MILLISECONDS);
+        }
+        
+        if (running && durationNanos > 0) {
+            long expected = generation;
+            long remaining = durationNanos - currentPositionNanos();
+            if (remaining <= 0) {
+                // A seek onto the very end is reported one tick later, so the final position shows first
+                remaining = TimeUnit.MILLISECONDS.toNanos(tickPeriodMillis);
+            }
+            endTimer = scheduler.schedule(() -> checkEnd(expected), remaining, TimeUnit.NANOSECONDS);
+        }
+    }
+    
+    private void cancelTicker() {
+        if (ticker != null) {
+            ticker.cancel(false);
+            ticker = null;
+        }
+    }
+    
+    private void tick() {
+        long position;
+        long duration;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            position = TimeUnit.NANOSECONDS.toMillis(currentPositionNanos());
+            duration = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        }
+        for (Listener listener : listeners) {
+            listener.onTick(position, duration);
+        }
+    }
+    
+    private void checkEnd(long expectedGeneration) {
+        long duration;
+        synchronized (this) {
+            if (generation != expectedGeneration || !running) {
+                // Superseded by a seek, pause or track change
+                return;
+            }
+            long remaining = durationNanos - currentPositionNanos();
+            if (remaining > 0) {
+                endTimer = scheduler.schedule(() -> checkEnd(expectedGeneration), remaining, TimeUnit.NANOSECONDS);
+                return;
+            }
+            basePositionNanos = durationNanos;
+            running = false;
+            reschedule();
+            duration = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        }
+        
+        // Listeners are called outside the lock so they may start the next track
+        for (Listener listener : listeners) {
+            listener.onTick(duration, duration);
+        }
+        for (Listener listener : listeners) {
+            listener.onTrackEnd();
+        }
+    }
+}
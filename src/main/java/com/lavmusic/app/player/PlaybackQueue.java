@@ -0,0 +1,419 @@
+package com.lavmusic.app.player;
+
+import com.lavmusic.app.model.Track;
+import com.lavmusic.app.model.TrackTree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Lock-free, indexed play queue with a cursor.
+ * The queue holds every track of the current run; a cursor marks the track being played,
+ * and playing the next track only advances it, so repeat-all wraps around without
+ * copying or reloading anything. Positions passed to {@link #insertAt}, {@link #removeAt},
+ * {@link #move} and {@link #get} count from the first upcoming track.
+ * <p>
+ * Tracks and cursor are an immutable {@link TrackTree} plus index held in an AtomicReference;
+ * every change builds a new version and publishes it with compare-and-set, so all operations
+ * are safe from any thread without locking. Positional operations are O(log n), and reading
+ * a snapshot costs nothing: it is the current version itself, which no later change can modify.
+ * <p>
+ * Each change can be reported as a {@link QueueChange} describing the edit to the upcoming
+ * tracks, so a view of them can be updated in proportion to the change, not the queue.
+ */
+public class PlaybackQueue {
+    /** Edits recorded against one base tree before the tree itself becomes the base */
+    static final int MAX_LOGGED_EDITS = 1024;
+    
+    private final AtomicReference<State> state;
+    private final Consumer<QueueChange> listener;
+    
+    /**
+     * One version of the queue; {@code cursor} is the index of the current track, or -1.
+     * {@code tracks} is {@code base} with the changes in {@code edits} applied.
+     */
+    private record State(TrackTree tracks, int cursor, long version, TrackTree base, Edits edits) {
+        static final State EMPTY = new State(TrackTree.EMPTY, -1, 0, TrackTree.EMPTY, null);
+        
+        /**
+         * The version that follows this one; tracks replaced wholesale start a new base
+         */
+        State next(TrackTree tracks, int cursor) {
+            if (tracks == this.tracks) {
+                return new State(tracks, cursor, version + 1, base, edits);
+            }
+            return new State(tracks, cursor, version + 1, tracks, null);
+        }
+        
+        /**
+         * The version that follows this one when an edit changed some of the tracks
+         */
+        State edited(TrackTree tracks, int cursor, TrackTree.Edit edit) {
+            int count = edits == null ? 0 : edits.count;
+            if (count >= MAX_LOGGED_EDITS) {
+                return new State(tracks, cursor, version + 1, tracks, null);
+            }
+            return new State(tracks, cursor, version + 1, base, new Edits(edit, edits, count + 1));
+        }
+        
+        /**
+         * The version that follows this one when the track at an index starts playing: it is
+         * marked as played, after the marks of the finished round are cleared for a new one
+         */
+        State played(int index, boolean newRound) {
+            State state = this;
+            if (newRound && tracks.markedCount() > 0) {
+                state = state.edited(tracks.clearMarks(), cursor, new TrackTree.ClearMarks());
+            }
+            if (!state.tracks.isMarked(index)) {
+                state = state.edited(state.tracks.mark(index), cursor, new TrackTree.Mark(index));
+            }
+            return new State(state.tracks, index, version + 1, state.base, state.edits);
+        }
+        
+        List<Track> upcoming() {
+            List<Track> all = tracks.asList();
+            return all.subList(upcomingStart(), all.size());
+        }
+        
+        int upcomingStart() {
+            return cursor + 1;
+        }
+        
+        int upcomingSize() {
+            return tracks.size() - upcomingStart();
+        }
+        
+        int upcomingIndex(int position, int bound) {
+            if (position < 0 || position >= bound) {
+                throw new IndexOutOfBoundsException("Position: " + position + ", Upcoming: " + upcomingSize());
+            }
+            return upcomingStart() + position;
+        }
+    }
+    
+    /**
+     * Persistent list of the edits made since the base, newest first
+     */
+    private record Edits(TrackTree.Edit edit, Edits previous, int count) {
+        List<TrackTree.Edit> toList() {
+            List<TrackTree.Edit> list = new ArrayList<>(count);
+            for (Edits node = this; node != null; node = node.previous) {
+                list.add(node.edit);
+            }
+            Collections.reverse(list);
+            return list;
+        }
+    }
+    
+    /**
+     * The tracks and cursor of one instant, e.g. to save and later restore the queue.
+     * {@code tracks} is {@code base} with {@code edits} applied in order. Inserts, removals
+     * and moves keep the base, so a snapshot can store the few edits made since the last
+     * one instead of the whole queue; only loading or clearing the queue starts a new base.
+     */
+    public record Checkpoint(TrackTree tracks, int cursor, TrackTree base, List<TrackTree.Edit> edits) {
+        public Checkpoint(TrackTree tracks, int cursor) {
+            this(tracks, cursor, tracks, List.of());
+        }
+    }
+    
+    public PlaybackQueue() {
+        this(null);
+    }
+    
+    /**
+     * @param listener Receives every change, on the thread that made it; changes made at the
+     *                 same time on different threads may arrive out of version order. May be null.
+     */
+    public PlaybackQueue(Consumer<QueueChange> listener) {
+        this.state = new AtomicReference<>(State.EMPTY);
+        this.listener = listener;
+    }
+    
+    /**
+     * Append a track to the end of the queue
+     */
+    public void add(Track track) {
+        update(current -> {
+            int index = current.tracks.size();
+            return current.edited(current.tracks.insert(index, track), current.cursor,
+                new TrackTree.Insert(index, List.of(track)));
+        },
+            (before, after) -> QueueChange.insert(after.version, before.upcomingSize(), List.of(track)));
+    }
+    
+    /**
+     * Append several tracks in one atomic step, in O(k + log n)
+     */
+    public void addAll(Collection<? extends Track> tracks) {
+        List<Track> added = List.copyOf(tracks);
+        update(current -> {
+            int index = current.tracks.size();
+            return current.edited(current.tracks.insertAll(index, added), current.cursor,
+                new TrackTree.Insert(index, added));
+        },
+            (before, after) -> QueueChange.insert(after.version, before.upcomingSize(), added));
+    }
+    
+    /**
+     * Insert several tracks among the upcoming tracks in one atomic step, in O(k + log n)
+     * @throws IndexOutOfBoundsException if the position is outside 0..upcoming size
+     */
+    public void insertAll(int position, Collection<? extends Track> tracks) {
+        List<Track> added = List.copyOf(tracks);
+        update(current -> {
+            int index = current.upcomingIndex(position, current.upcomingSize() + 1);
+            return current.edited(current.tracks.insertAll(index, added), current.cursor,
+                new TrackTree.Insert(index, added));
+        }, (before, after) -> QueueChange.insert(after.version, position, added));
+    }
+    
+    /**
+     * Replace the whole queue with the given tracks, sharing the tree rather than copying it.
+     * The cursor is reset so the first track is the next one to play.
+     */
+    public void load(TrackTree tracks) {
+        update(current -> current.next(tracks, -1), this::reset);
+    }
+    
+    /**
+     * Replace the queue with a checkpoint; a cursor outside the tracks is clamped to them
+     */
+    public void restore(Checkpoint checkpoint) {
+        TrackTree tracks = checkpoint.tracks();
+        int cursor = Math.max(-1, Math.min(checkpoint.cursor(), tracks.size() - 1));
+        Edits log = null;
+        for (TrackTree.Edit edit : checkpoint.edits()) {
+            log = new Edits(edit, log, log == null ? 1 : log.count + 1);
+        }
+        Edits edits = log;
+        update(current -> new State(tracks, cursor, current.version + 1, checkpoint.base(), edits), this::reset);
+    }
+    
+    /**
+     * The current tracks and cursor, taken together in O(1)
+     */
+    public Checkpoint checkpoint() {
+        State current = state.get();
+        List<TrackTree.Edit> edits = current.edits == null ? List.of() : current.edits.toList();
+        return new Checkpoint(current.tracks, current.cursor, current.base, edits);
+    }
+    
+    /**
+     * Insert a track among the upcoming tracks, shifting later ones back
+     * @throws IndexOutOfBoundsException if the position is outside 0..upcoming size
+     */
+    public void insertAt(int position, Track track) {
+        update(current -> {
+            int index = current.upcomingIndex(position, current.upcomingSize() + 1);
+            return current.edited(current.tracks.insert(index, track), current.cursor,
+                new TrackTree.Insert(index, List.of(track)));
+        }, (before, after) -> QueueChange.insert(after.version, position, List.of(track)));
+    }
+    
+    /**
+     * Remove an upcoming track
+     * @return The removed track
+     * @throws IndexOutOfBoundsException if there is no upcoming track at that position
+     */
+    public Track removeAt(int position) {
+        while (true) {
+            State current = state.get();
+            int index = current.upcomingIndex(position, current.upcomingSize());
+            Track removed = current.tracks.get(index);
+            State next = current.edited(current.tracks.remove(index), current.cursor,
+                new TrackTree.Remove(index, index + 1));
+            if (state.compareAndSet(current, next)) {
+                publish(() -> QueueChange.remove(next.version, position, position + 1));
+                return removed;
+            }
+        }
+    }
+    
+    /**
+     * Move an upcoming track to another position; {@code to} is its position after the move
+     * @throws IndexOutOfBoundsException if either position is outside the upcoming tracks
+     */
+    public void move(int from, int to) {
+        update(current -> {
+            int fromIndex = current.upcomingIndex(from, current.upcomingSize());
+            int toIndex = current.upcomingIndex(to, current.upcomingSize());
+            return current.edited(current.tracks.move(fromIndex, toIndex), current.cursor,
+                new TrackTree.Move(fromIndex, toIndex));
+        }, (before, after) -> QueueChange.move(after.version, from, to));
+    }
+    
+    /**
+     * Upcoming track at a position
+     * @throws IndexOutOfBoundsException if there is no upcoming track at that position
+     */
+    public Track get(int position) {
+        State current = state.get();
+        return current.tracks.get(current.upcomingIndex(position, current.upcomingSize()));
+    }
+    
+    /**
+     * Advance the cursor to the next track, which is marked as played for {@link #advanceRandom}
+     * @param wrap Whether to start over from the first track after the last one
+     * @return The new current track, or null if the end was reached without wrapping
+     */
+    public Track advance(boolean wrap) {
+        while (true) {
+            State current = state.get();
+            int next = current.upcomingStart();
+            boolean wrapped = false;
+            if (next >= current.tracks.size()) {
+                if (!wrap || current.tracks.size() == 0) {
+                    return null;
+                }
+                next = 0;
+                wrapped = true;
+            }
+            State advanced = current.played(next, wrapped);
+            if (state.compareAndSet(current, advanced)) {
+                // The new current track leaves the upcoming tracks; wrapping brings them all back
+                publish(wrapped ? () -> reset(current, advanced) : () -> QueueChange.remove(advanced.version, 0, 1));
+                return current.tracks.get(next);
+            }
+        }
+    }
+    
+    /**
+     * Advance to a uniformly random track among those not played yet in this round, in
+     * O(log n). Every track that plays is marked in the tree, and a draw picks the k-th
+     * unmarked track and moves the cursor onto it; no track is moved, so the queue keeps
+     * its order and playing on without shuffle continues in that order from the cursor.
+     * Tracks added meanwhile are unmarked and simply join the draw.
+     * @param wrap Whether to start a new round over all tracks once every track has played
+     * @return The new current track, or null if the end was reached without wrapping
+     */
+    public Track advanceRandom(Random random, boolean wrap) {
+        while (true) {
+            State current = state.get();
+            int size = current.tracks.size();
+            int unplayed = size - current.tracks.markedCount();
+            boolean wrapped = false;
+            if (unplayed == 0) {
+                if (!wrap || size == 0) {
+                    return null;
+                }
+                unplayed = size;
+                wrapped = true;
+            }
+            int k = random.nextInt(unplayed);
+            int drawn = wrapped ? k : current.tracks.indexOfUnmarked(k);
+            State advanced = current.played(drawn, wrapped);
+            if (state.compareAndSet(current, advanced)) {
+                // The upcoming tracks start after the cursor, so a jump forward drops the ones skipped over
+                int skipped = drawn - current.cursor;
+                publish(skipped > 0 ? () -> QueueChange.remove(advanced.version, 0, skipped)
+                    : () -> reset(current, advanced));
+                return current.tracks.get(drawn);
+            }
+        }
+    }
+    
+    /**
+     * Remove all tracks and reset the cursor
+     */
+    public void clear() {
+        update(current -> current.next(TrackTree.EMPTY, -1), this::reset);
+    }
+    
+    /**
+     * Total number of tracks, including those already played
+     */
+    public int size() {
+        return state.get().tracks.size();
+    }
+    
+    public int upcomingSize() {
+        return state.get().upcomingSize();
+    }
+    
+    /**
+     * True when no track is left to play without wrapping
+     */
+    public boolean isExhausted() {
+        return state.get().upcomingSize() == 0;
+    }
+    
+    /**
+     * Number of tracks not played yet in this round, wherever they are, for shuffled play
+     */
+    public int unplayedCount() {
+        TrackTree tracks = state.get().tracks;
+        return tracks.size() - tracks.markedCount();
+    }
+    
+    /**
+     * Index of the current track among all tracks, or -1 before the first advance
+     */
+    public int getCursor() {
+        return state.get().cursor;
+    }
+    
+    /**
+     * Immutable view of all tracks at this instant; later changes are not reflected.
+     * Taking the snapshot is O(1) and copies nothing, and its {@code subList} ranges
+     * are O(1) views as well, so the UI can page through very large queues cheaply.
+     */
+    public List<Track> snapshot() {
+        return state.get().tracks.asList();
+    }
+    
+    /**
+     * Immutable O(1) view of the tracks after the cursor at this instant
+     */
+    public List<Track> upcoming() {
+        return state.get().upcoming();
+    }
+    
+    /**
+     * The upcoming tracks at this instant as a reset to the current version, to start or resync a view
+     */
+    public QueueChange currentState() {
+        State current = state.get();
+        return QueueChange.reset(current.version, current.upcoming());
+    }
+    
+    /**
+     * Apply a change with compare-and-set and report it
+     * @param describe Builds the reported change from the versions before and after
+     */
+    private void update(UnaryOperator<State> change, BiFunction<State, State, QueueChange> describe) {
+        while (true) {
+            State current = state.get();
+            State next = change.apply(current);
+            if (state.compareAndSet(current, next)) {
+                publish(() -> describe.apply(current, next));
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Describe a change that replaced the upcoming tracks wholesale
+     */
+    private QueueChange reset(State before, State after) {
+        return QueueChange.reset(after.version, after.upcoming());
+    }
+    
+    /**
+     * Report a change that has been made; nothing is built when no one listens
+     */
+    private void publish(Supplier<QueueChange> change) {
+        if (listener != null) {
+            listener.accept(change.get());
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.lavmusic.app.player;
+
+import com.google.gson.stream.JsonWriter;
+import com.lavmusic.app.model.Track;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalescing sender of player changes to Lavalink's
+ * PATCH /v4/sessions/{sessionId}/players/{guildId}.
+ * Changes are merged into one pending update in which the latest value of each field
+ * wins, and at most one request is in flight: whatever changed while it was running goes
+ * out in a single request once it completes. Dragging the volume slider through a hundred
+ * values therefore costs two requests, not a hundred. No method blocks.
+ * <p>
+ * Without a ready session, changes are held and sent when one becomes ready. A request
+ * that fails is not retried at once: its changes go back into the pending update, under
+ * any newer ones, and are sent with the next change or after a delay that doubles with
+ * each failure in a row, so a track change that failed does not wait for the user.
+ */
+public class PlayerUpdatePump {
+    private static final Logger logger = LoggerFactory.getLogger(PlayerUpdatePump.class);
+    
+    /** Delay before sending a failed update again, doubled after each further failure */
+    public static final long RETRY_MIN_MILLIS = 1000;
+    
+    /** Longest delay between attempts while the server keeps failing */
+    public static final long RETRY_MAX_MILLIS = 30_000;
+    
+    /**
+     * Fields of the player to change; null means unchanged
+     */
+    private static final class Pending {
+        boolean trackChanged;
+        Track track;
+        Long positionMillis;
+        Boolean paused;
+        Integer volume;
+        
+        boolean isEmpty() {
+            return !trackChanged && positionMillis == null && paused == null && volume == null;
+        }
+        
+        boolean movesPosition() {
+            return trackChanged || positionMillis != null;
+        }
+        
+        /**
+         * Take back the fields of an update that did not reach the server, keeping any
+         * value set since. A newer track change makes the old track and position moot.
+         */
+        void mergeUnsent(Pending unsent) {
+            if (!trackChanged) {
+                if (unsent.trackChanged) {
+                    trackChanged = true;
+                    track = unsent.track;
+                }
+                if (positionMillis == null) {
+                    positionMillis = unsent.positionMillis;
+                }
+            }
+            if (paused == null) {
+                paused = unsent.paused;
+            }
+            if (volume == null) {
+                volume = unsent.volume;
+            }
+        }
+    }
+    
+    private final String guildId;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicLong sentCount;
+    private Pending pending;
+    private LavalinkClient client;
+    private String sessionId;
+    private Pending inFlight;
+    private long retryDelayMillis;
+    private ScheduledFuture<?> retry;
+    
+    /**
+     * @param guildId The guild whose player is changed
+     * @param scheduler Runs the delayed attempts after a failed request
+     */
+    public PlayerUpdatePump(String guildId, ScheduledExecutorService scheduler) {
+        this.guildId = guildId;
+        this.scheduler = scheduler;
+        this.sentCount = new AtomicLong();
+        this.pending = new Pending();
+        this.retryDelayMillis = RETRY_MIN_MILLIS;
+    }
+    
+    /**
+     * Play a track from the beginning, dropping a pending seek made for the previous one
+     */
+    public void playTrack(Track track) {
+        playTrack(track, 0, false);
+    }
+    
+    /**
+     * Load a track at a position, playing or paused, in one update
+     */
+    public void playTrack(Track track, long positionMillis, boolean paused) {
+        synchronized (this) {
+            pending.trackChanged = true;
+            pending.track = track;
+            pending.positionMillis = positionMillis > 0 ? positionMillis : null;
+            pending.paused = paused;
+        }
+        flush();
+    }
+    
+    /**
+     * Stop the current track, leaving the player without one
+     */
+    public void stopTrack() {
+        synchronized (this) {
+            pending.trackChanged = true;
+            pending.track = null;
+            pending.positionMillis = null;
+        }
+        flush();
+    }
+    
+    public void setPaused(boolean paused) {
+        synchronized (this) {
+            pending.paused = paused;
+        }
+        flush();
+    }
+    
+    public void seek(long positionMillis) {
+        synchronized (this) {
+            pending.positionMillis = Math.max(0, positionMillis);
+        }
+        flush();
+    }
+    
+    /**
+     * Set the volume in percent; 100 leaves the audio unchanged
+     */
+    public void setVolume(int volume) {
+        synchronized (this) {
+            pending.volume = volume;
+        }
+        flush();
+    }
+    
+    /**
+     * Send held changes on a session that has become ready
+     * @param sessionClient The client of the server the session is on
+     */
+    public void sessionReady(LavalinkClient sessionClient, String readySessionId) {
+        synchronized (this) {
+            client = sessionClient;
+            sessionId = readySessionId;
+        }
+        flush();
+    }
+    
+    /**
+     * Hold changes until the next ready session
+     */
+    public synchronized void sessionLost() {
+        sessionId = null;
+    }
+    
+    /**
+     * Whether the server has taken every track change and seek made so far. Until it has,
+     * the positions it reports are those of the previous track or position.
+     */
+    public synchronized boolean isPositionSettled() {
+        return !pending.movesPosition() && (inFlight == null || !inFlight.movesPosition());
+    }
+    
+    /**
+     * Number of PATCH requests sent so far
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+    
+    private void flush() {
+        Pending update;
+        LavalinkClient target;
+        String targetSession;
+        synchronized (this) {
+            if (inFlight != null || sessionId == null || pending.isEmpty()) {
+                return;
+            }
+            update = pending;
+            target = client;
+            targetSession = sessionId;
+            pending = new Pending();
+            inFlight = update;
+        }
+        
+        sentCount.incrementAndGet();
+        target.updatePlayerAsync(targetSession, guildId, toJson(update)).whenComplete((result, error) -> {
+            long delay = 0;
+            synchronized (this) {
+                inFlight = null;
+                if (error == null) {
+                    retryDelayMillis = RETRY_MIN_MILLIS;
+                } else {
+                    pending.mergeUnsent(update);
+                    if (retry == null && !scheduler.isShutdown()) {
+                        delay = retryDelayMillis;
+                        retryDelayMillis = Math.min(retryDelayMillis * 2, RETRY_MAX_MILLIS);
+                        retry = scheduler.schedule(this::retry, delay, TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+            if (error != null) {
+                logger.warn("Failed to update Lavalink player, will send again in {} ms or with the next change: {}",
+                    delay, error.getMessage());
+                return;
+            }
+            flush();
+        });
+    }
+    
+    private void retry() {
+        synchronized (this) {
+            retry = null;
+        }
+        flush();
+    }
+    
+    private static String toJson(Pending update) {
+        StringWriter out = new StringWriter();
+        try (JsonWriter json = new JsonWriter(out)) {
+            // A null encoded track is how a track is stopped
+            json.setSerializeNulls(true);
+            json.beginObject();
+            if (update.trackChanged) {
+                json.name("track").beginObject();
+                Track track = update.track;
+                if (track == null) {
+                    json.name("encoded").nullValue();
+                } else if (track.hasEncoded()) {
+                    json.name("encoded").value(track.getEncoded());
+                } else {
+                    // Lavalink loads a URL or identifier itself, as it does for /v4/loadtracks
+                    json.name("identifier").value(track.getUri() != null ? track.getUri() : track.getIdentifier());
+                }
+                json.endObject();
+            }
+            if (update.positionMillis != null) {
+                json.name("position").value(update.positionMillis);
+            }
+            if (update.paused != null) {
+                json.name("paused").value(update.paused);
+            }
+            if (update.volume != null) {
+                json.name("volume").value(update.volume);
+            }
+            json.endObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,66 @@
+package com.lavmusic.app.player;
+
+import com.lavmusic.app.model.Track;
+import javafx.collections.ObservableList;
+
+import java.util.List;
+
+/**
+ * One edit to the upcoming tracks of a {@link PlaybackQueue}, as seen by a view of them.
+ * Positions count from the first upcoming track, like those of the queue's own methods.
+ * Every change to the queue gets the next version number, so a view that has applied
+ * version n can apply n + 1 directly; after a gap it resyncs from a {@link Type#RESET}.
+ * @param from Insert position, start of a removed range, or the position a track moved from
+ * @param to End of a removed range (exclusive), or the position a track moved to
+ * @param tracks Inserted tracks, or all upcoming tracks for a reset; empty otherwise
+ */
+public record QueueChange(Type type, long version, int from, int to, List<Track> tracks) {
+    
+    public enum Type {
+        /** {@code tracks} were inserted at {@code from} */
+        INSERT,
+        /** The tracks from {@code from} to {@code to} were removed */
+        REMOVE,
+        /** The track at {@code from} was moved to {@code to} */
+        MOVE,
+        /** The upcoming tracks were replaced by {@code tracks} */
+        RESET
+    }
+    
+    static QueueChange insert(long version, int position, List<Track> tracks) {
+        return new QueueChange(Type.INSERT, version, position, position + tracks.size(), tracks);
+    }
+    
+    static QueueChange remove(long version, int from, int to) {
+        return new QueueChange(Type.REMOVE, version, from, to, List.of());
+    }
+    
+    static QueueChange move(long version, int from, int to) {
+        return new QueueChange(Type.MOVE, version, from, to, List.of());
+    }
+    
+    static QueueChange reset(long version, List<Track> tracks) {
+        return new QueueChange(Type.RESET, version, 0, tracks.size(), tracks);
+    }
+    
+    /**
+     * Make the same edit to a list holding the upcoming tracks as of the previous version.
+     * Costs O(changed tracks) plus the list's own shifting, except for a reset; an
+     * observable list receives a single change for each edit but a move.
+     */
+    public void applyTo(List<Track> view) {
+        switch (type) {
+            case INSERT -> view.addAll(from, tracks);
+            case REMOVE -> view.subList(from, to).clear();
+            case MOVE -> view.add(to, view.remove(from));
+            case RESET -> {
+                if (view instanceof ObservableList<Track> observable) {
+                    observable.setAll(tracks);
+                } else {
+                    view.clear();
+                    view.addAll(tracks);
+                }
+            }
+        }
+    }
+}
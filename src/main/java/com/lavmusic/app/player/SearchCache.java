@@ -0,0 +1,129 @@
+package com.lavmusic.app.player;
+
+import com.lavmusic.app.model.Track;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded search result cache with per-entry TTL and LRU eviction.
+ * Cached result lists are immutable so they can be handed out to any caller.
+ */
+public class SearchCache {
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+    private final LinkedHashMap<String, Entry> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+    
+    /**
+     * A cached result list and the time it stops being valid
+     */
+    private record Entry(List<Track> tracks, long expiresAt) {
+    }
+    
+    public SearchCache(int maxEntries, Duration ttl) {
+        this(maxEntries, ttl, System::nanoTime);
+    }
+    
+    /**
+     * @param nanoClock Monotonic time source in nanoseconds, replaceable for tests
+     */
+    public SearchCache(int maxEntries, Duration ttl, LongSupplier nanoClock) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttl.toNanos();
+        this.nanoClock = nanoClock;
+        // Access order turns iteration order into least-recently-used first
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+    
+    /**
+     * Build the cache key for a query sent to the given search source
+     * @param source The Lavalink search prefix without the colon, e.g. "ytsearch"
+     * @param query The raw user query
+     */
+    public static String key(String source, String query) {
+        return source + ':' + normalize(query);
+    }
+    
+    /**
+     * Trim, collapse whitespace and lower-case a query so trivially different
+     * spellings of the same search share one entry
+     */
+    static String normalize(String query) {
+        return query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+    
+    /**
+     * Look up a cached result
+     * @return The cached tracks, or null when absent or expired
+     */
+    public synchronized List<Track> get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        if (nanoClock.getAsLong() - entry.expiresAt() >= 0) {
+            entries.remove(key);
+            evictions++;
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.tracks();
+    }
+    
+    /**
+     * Store a result, evicting the least recently used entries beyond the size bound
+     * @return The immutable copy that was cached
+     */
+    public synchronized List<Track> put(String key, List<Track> tracks) {
+        List<Track> immutable = List.copyOf(tracks);
+        entries.put(key, new Entry(immutable, nanoClock.getAsLong() + ttlNanos));
+        
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (entries.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+            evictions++;
+        }
+        return immutable;
+    }
+    
+    /**
+     * Drop all cached results
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+    
+    public synchronized int size() {
+        return entries.size();
+    }
+    
+    public synchronized long getHitCount() {
+        return hits;
+    }
+    
+    public synchronized long getMissCount() {
+        return misses;
+    }
+    
+    /**
+     * @return Number of entries dropped for exceeding the size bound or their TTL
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+}
@@ -0,0 +1,661 @@
+package com.lavmusic.app.storage;
+
+import com.lavmusic.app.model.Playlist;
+import com.lavmusic.app.model.Track;
+import com.lavmusic.app.model.TrackTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk store for playlists and favorites, kept as an append-only log.
+ * Every change is appended as one small checksummed record, so adding a track to a
+ * 100k-track playlist writes a few hundred bytes instead of rewriting the library.
+ * Opening the store checks every record but decodes only the record headers for playlist
+ * contents; a playlist's tracks are read from disk the first time the playlist is used.
+ * <p>
+ * When most of the log is history, or it holds a lot of track data, it is compacted on
+ * open: each changed playlist is written as a {@link TrackLibrary} snapshot next to the
+ * log, and the log is rewritten to point at the snapshots and swapped in atomically.
+ * A later open then only maps each snapshot instead of checking its tracks in the log.
+ * The log is cut off at the first incomplete or damaged record, such as one left by a crash.
+ * <p>
+ * Each record is: payload length (int), type (byte), playlist id (long), argument (int),
+ * payload, then a CRC32 of everything after the length.
+ */
+public class LibraryStore implements Playlist.Listener, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(LibraryStore.class);
+    
+    /** Name of the log file inside the store directory */
+    public static final String LOG_FILE = "library.log";
+    
+    /** Logs with fewer records than this are never compacted for their record count */
+    public static final int COMPACTION_MIN_RECORDS = 1024;
+    
+    /** Logs holding at least this many bytes of playlist tracks are compacted into snapshots */
+    public static final long SNAPSHOT_MIN_BYTES = 1024 * 1024;
+    
+    private static final String SNAPSHOT_PREFIX = "playlist-";
+    private static final String SNAPSHOT_SUFFIX = ".lib";
+    
+    private static final int HEADER_BYTES = 4 + 1 + 8 + 4;
+    private static final int CRC_BYTES = 4;
+    private static final int STREAM_BUFFER_BYTES = 64 * 1024;
+    
+    // Record types; the argument is noted where it is used
+    private static final byte CREATE_PLAYLIST = 1;
+    private static final byte RENAME_PLAYLIST = 2;
+    private static final byte DELETE_PLAYLIST = 3;
+    private static final byte ADD_TRACKS = 4;        // argument: number of tracks
+    private static final byte REMOVE_TRACK = 5;      // argument: index
+    private static final byte CLEAR_PLAYLIST = 6;
+    private static final byte ADD_FAVORITES = 7;     // argument: number of tracks
+    private static final byte REMOVE_FAVORITE = 8;
+    private static final byte SNAPSHOT = 9;          // argument: number of tracks; payload: snapshot generation
+    
+    private final Path file;
+    private FileChannel channel;
+    private long end;
+    private long recordCount;
+    private long nextId;
+    private long generation;
+    private final Map<Long, Entry> entries;
+    private final Map<Playlist, Entry> byPlaylist;
+    private final Set<Track> favorites;
+    
+    /**
+     * A stored playlist; until it is loaded, its mapped snapshot and the offsets of the
+     * records that changed it since
+     */
+    private static final class Entry {
+        final long id;
+        String name;
+        int size;
+        long snapshot = -1;
+        TrackLibrary library;
+        long[] trackRecords = new long[4];
+        int trackRecordCount;
+        long trackBytes;
+        Playlist playlist;
+        
+        Entry(long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+        
+        void addTrackRecord(long offset) {
+            if (trackRecordCount == trackRecords.length) {
+                trackRecords = Arrays.copyOf(trackRecords, trackRecordCount * 2);
+            }
+            trackRecords[trackRecordCount++] = offset;
+        }
+        
+        void unmap() {
+            if (library != null) {
+                try {
+                    library.close();
+                } catch (IOException e) {
+                    logger.warn("Failed to close snapshot of playlist {}", name, e);
+                }
+                library = null;
+            }
+        }
+    }
+    
+    /**
+     * One record read back from the log
+     */
+    private record Record(byte type, long id, int argument, byte[] payload) {
+        DataInputStream payloadStream() {
+            return new DataInputStream(new ByteArrayInputStream(payload));
+        }
+    }
+    
+    private LibraryStore(Path file) {
+        this.file = file;
+        this.entries = new LinkedHashMap<>();
+        this.byPlaylist = new IdentityHashMap<>();
+        this.favorites = new LinkedHashSet<>();
+        // Id 0 is left for records that belong to no playlist
+        this.nextId = 1;
+    }
+    
+    /**
+     * Open the store in a directory, creating it if needed
+     */
+    public static LibraryStore open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        LibraryStore store = new LibraryStore(directory.resolve(LOG_FILE));
+        store.openLog();
+        if (store.needsCompaction()) {
+            store.compact();
+        }
+        logger.info("Opened library with {} playlists and {} favorites", store.entries.size(), store.favorites.size());
+        return store;
+    }
+    
+    /**
+     * All stored playlists in creation order; their tracks are loaded on first use
+     */
+    public synchronized List<Playlist> getPlaylists() {
+        List<Playlist> playlists = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            if (entry.playlist == null) {
+                entry.playlist = new Playlist(entry.name, entry.size, () -> loadTracks(entry));
+                entry.playlist.addListener(this);
+                byPlaylist.put(entry.playlist, entry);
+            }
+            playlists.add(entry.playlist);
+        }
+        return playlists;
+    }
+    
+    /**
+     * Stored favorites in the order they were added
+     */
+    public synchronized List<Track> getFavorites() {
+        return new ArrayList<>(favorites);
+    }
+    
+    /**
+     * Start storing a playlist, including its current tracks, and follow its later changes
+     */
+    public synchronized void addPlaylist(Playlist playlist) {
+        if (byPlaylist.containsKey(playlist)) {
+            return;
+        }
+        Entry entry = new Entry(nextId++, playlist.getName());
+        entry.playlist = playlist;
+        entry.trackRecords = null;
+        entries.put(entry.id, entry);
+        byPlaylist.put(playlist, entry);
+        playlist.addListener(this);
+        
+        write(() -> {
+            append(CREATE_PLAYLIST, entry.id, 0, utf(playlist.getName()));
+            if (playlist.size() > 0) {
+                appendTracks(ADD_TRACKS, entry.id, playlist.getTrackTree().asList());
+            }
+        });
+    }
+    
+    public synchronized void removePlaylist(Playlist playlist) {
+        Entry entry = byPlaylist.remove(playlist);
+        if (entry == null) {
+            return;
+        }
+        entries.remove(entry.id);
+        entry.unmap();
+        playlist.removeListener(this);
+        write(() -> append(DELETE_PLAYLIST, entry.id, 0, new byte[0]));
+    }
+    
+    public synchronized void addFavorite(Track track) {
+        if (favorites.add(track)) {
+            write(() -> appendTracks(ADD_FAVORITES, 0, List.of(track)));
+        }
+    }
+    
+    public synchronized void removeFavorite(Track track) {
+        if (favorites.remove(track)) {
+            write(() -> appendTracks(REMOVE_FAVORITE, 0, List.of(track)));
+        }
+    }
+    
+    @Override
+    public synchronized void onRenamed(Playlist playlist, String name) {
+        Entry entry = byPlaylist.get(playlist);
+        if (entry != null) {
+            entry.name = name;
+            write(() -> append(RENAME_PLAYLIST, entry.id, 0, utf(name)));
+        }
+    }
+    
+    @Override
+    public synchronized void onTrackAdded(Playlist playlist, Track track) {
+        Entry entry = byPlaylist.get(playlist);
+        if (entry != null) {
+            write(() -> appendTracks(ADD_TRACKS, entry.id, List.of(track)));
+        }
+    }
+    
+    @Override
+    public synchronized void onTrackRemoved(Playlist playlist, int index, Track track) {
+        Entry entry = byPlaylist.get(playlist);
+        if (entry != null) {
+            write(() -> append(REMOVE_TRACK, entry.id, index, new byte[0]));
+        }
+    }
+    
+    @Override
+    public synchronized void onCleared(Playlist playlist, TrackTree removed) {
+        Entry entry = byPlaylist.get(playlist);
+        if (entry != null) {
+            write(() -> append(CLEAR_PLAYLIST, entry.id, 0, new byte[0]));
+        }
+    }
+    
+    /**
+     * Number of records in the log, which compaction brings back down
+     */
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+    
+    /**
+     * Size of the log file in bytes
+     */
+    public synchronized long getLogSize() {
+        return end;
+    }
+    
+    /**
+     * Flush the log to disk and close it, along with any snapshots still mapped
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        entries.values().forEach(Entry::unmap);
+        if (channel.isOpen()) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+    
+    @FunctionalInterface
+    private interface LogWrite {
+        void run() throws IOException;
+    }
+    
+    /**
+     * Run a log write; failures are logged and the in-memory library keeps working
+     */
+    private void write(LogWrite write) {
+        try {
+            write.run();
+        } catch (IOException e) {
+            logger.error("Failed to write library log {}", file, e);
+        }
+    }
+    
+    private void openLog() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        replay();
+    }
+    
+    /**
+     * Rebuild the library index from the log. Snapshots are mapped, and track records of
+     * playlists are only located and checksummed, not decoded; everything else is small
+     * and applied directly.
+     */
+    private void replay() throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        
+        while (position + HEADER_BYTES + CRC_BYTES <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            int length = header.getInt();
+            byte type = header.get();
+            long id = header.getLong();
+            int argument = header.getInt();
+            long recordEnd = position + HEADER_BYTES + length + CRC_BYTES;
+            if (length < 0 || recordEnd > size) {
+                break;
+            }
+            
+            Entry entry = entries.get(id);
+            if (type == ADD_TRACKS || type == REMOVE_TRACK || type == CLEAR_PLAYLIST) {
+                if (!checksumMatches(position, length)) {
+                    break;
+                }
+                if (entry != null) {
+                    applyTrackRecord(entry, type, argument, position, length);
+                }
+            } else {
+                Record record = readRecord(position);
+                if (record == null) {
+                    break;
+                }
+                applyRecord(record);
+            }
+            nextId = Math.max(nextId, id + 1);
+            recordCount++;
+            position = recordEnd;
+        }
+        
+        if (position < size) {
+            logger.warn("Dropping {} bytes of incomplete or damaged records at the end of {}", size - position, file);
+            channel.truncate(position);
+        }
+        end = position;
+    }
+    
+    private void applyTrackRecord(Entry entry, byte type, int argument, long position, int length) {
+        switch (type) {
+            case ADD_TRACKS -> {
+                entry.size += argument;
+                entry.addTrackRecord(position);
+                entry.trackBytes += length;
+            }
+            case REMOVE_TRACK -> {
+                entry.size--;
+                entry.addTrackRecord(position);
+            }
+            default -> clearTracks(entry);
+        }
+    }
+    
+    /**
+     * Forget a playlist's tracks, since nothing before a clear or a snapshot matters any more
+     */
+    private static void clearTracks(Entry entry) {
+        entry.unmap();
+        entry.snapshot = -1;
+        entry.size = 0;
+        entry.trackRecordCount = 0;
+        entry.trackBytes = 0;
+    }
+    
+    /**
+     * Map the snapshot a playlist's tracks start from. A snapshot that cannot be read
+     * leaves the playlist with only the changes logged after it.
+     */
+    private void applySnapshot(Entry entry, long snapshot) {
+        clearTracks(entry);
+        generation = Math.max(generation, snapshot);
+        Path path = snapshotFile(entry.id, snapshot);
+        try {
+            entry.library = TrackLibrary.open(path);
+            entry.snapshot = snapshot;
+            entry.size = entry.library.size();
+        } catch (IOException e) {
+            logger.error("Failed to map snapshot {} of playlist {}", path, entry.name, e);
+        }
+    }
+    
+    private void applyRecord(Record record) throws IOException {
+        switch (record.type()) {
+            case CREATE_PLAYLIST -> entries.put(record.id(), new Entry(record.id(), record.payloadStream().readUTF()));
+            case RENAME_PLAYLIST -> {
+                Entry entry = entries.get(record.id());
+                if (entry != null) {
+                    entry.name = record.payloadStream().readUTF();
+                }
+            }
+            case DELETE_PLAYLIST -> {
+                Entry entry = entries.remove(record.id());
+                if (entry != null) {
+                    entry.unmap();
+                }
+            }
+            case SNAPSHOT -> {
+                Entry entry = entries.get(record.id());
+                if (entry != null) {
+                    applySnapshot(entry, record.payloadStream().readLong());
+                }
+            }
+            case ADD_FAVORITES -> favorites.addAll(readTracks(record));
+            case REMOVE_FAVORITE -> readTracks(record).forEach(favorites::remove);
+            default -> logger.warn("Skipping unknown library record type {}", record.type());
+        }
+    }
+    
+    /**
+     * Load a playlist's tracks and release what they were read from
+     */
+    private synchronized TrackTree loadTracks(Entry entry) {
+        try {
+            List<Track> tracks = readTracks(entry);
+            entry.unmap();
+            entry.trackRecords = null;
+            entry.trackRecordCount = 0;
+            logger.debug("Loaded {} tracks of playlist {}", tracks.size(), entry.name);
+            return TrackTree.of(tracks);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load playlist " + entry.name, e);
+        }
+    }
+    
+    /**
+     * Read a playlist's tracks from its snapshot, then replay the track records logged after it
+     */
+    private List<Track> readTracks(Entry entry) throws IOException {
+        List<Track> tracks = new ArrayList<>(Math.max(entry.size, 0));
+        if (entry.library != null) {
+            for (int i = 0; i < entry.library.size(); i++) {
+                tracks.add(entry.library.getTrack(i));
+            }
+        }
+        for (int i = 0; i < entry.trackRecordCount; i++) {
+            Record record = readRecord(entry.trackRecords[i]);
+            if (record == null) {
+                throw new IOException("Corrupt track record at offset " + entry.trackRecords[i]);
+            }
+            if (record.type() == ADD_TRACKS) {
+                tracks.addAll(readTracks(record));
+            } else if (record.argument() < tracks.size()) {
+                tracks.remove(record.argument());
+            }
+        }
+        return tracks;
+    }
+    
+    private boolean needsCompaction() {
+        long liveRecords = 1;
+        long trackBytes = 0;
+        for (Entry entry : entries.values()) {
+            liveRecords += entry.size > 0 ? 2 : 1;
+            trackBytes += entry.trackBytes;
+        }
+        return trackBytes >= SNAPSHOT_MIN_BYTES
+            || recordCount >= COMPACTION_MIN_RECORDS && recordCount > 2 * liveRecords;
+    }
+    
+    /**
+     * Write a snapshot of every playlist changed since its last one, rewrite the log as
+     * each playlist's name and snapshot, then swap it in. Playlists are decoded one at a
+     * time, so compaction costs no more memory than loading the largest changed playlist.
+     * New snapshots get a generation of their own, so the old log's snapshots stay intact
+     * until the new log replaces it.
+     */
+    private void compact() throws IOException {
+        long before = end;
+        long snapshotGeneration = generation + 1;
+        for (Entry entry : entries.values()) {
+            if (entry.trackRecordCount > 0) {
+                List<Track> tracks = readTracks(entry);
+                entry.snapshot = tracks.isEmpty() ? -1 : snapshotGeneration;
+                if (!tracks.isEmpty()) {
+                    TrackLibrary.write(snapshotFile(entry.id, snapshotGeneration), tracks);
+                }
+            }
+        }
+        
+        Path temp = file.resolveSibling(LOG_FILE + ".tmp");
+        List<Track> liveFavorites = new ArrayList<>(favorites);
+        FileChannel source = channel;
+        channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        end = 0;
+        try {
+            for (Entry entry : entries.values()) {
+                append(CREATE_PLAYLIST, entry.id, 0, utf(entry.name));
+                if (entry.snapshot >= 0) {
+                    append(SNAPSHOT, entry.id, entry.size, ByteBuffer.allocate(Long.BYTES).putLong(0, entry.snapshot).array());
+                }
+            }
+            if (!liveFavorites.isEmpty()) {
+                appendTracks(ADD_FAVORITES, 0, liveFavorites);
+            }
+            channel.force(true);
+        } finally {
+            channel.close();
+            source.close();
+        }
+        
+        // The old log stays intact until the new one is complete
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        entries.values().forEach(Entry::unmap);
+        entries.clear();
+        favorites.clear();
+        recordCount = 0;
+        openLog();
+        deleteUnusedSnapshots();
+        logger.info("Compacted library log from {} to {} bytes", before, end);
+    }
+    
+    /**
+     * Delete snapshot files the log no longer points at, including ones left by a crash
+     */
+    private void deleteUnusedSnapshots() throws IOException {
+        Set<Path> live = new HashSet<>();
+        for (Entry entry : entries.values()) {
+            if (entry.snapshot >= 0) {
+                live.add(snapshotFile(entry.id, entry.snapshot));
+            }
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(file.getParent(), SNAPSHOT_PREFIX + "*")) {
+            for (Path path : files) {
+                if (!live.contains(path)) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+    
+    private Path snapshotFile(long id, long snapshot) {
+        return file.resolveSibling(SNAPSHOT_PREFIX + id + "-" + snapshot + SNAPSHOT_SUFFIX);
+    }
+    
+    private void appendTracks(byte type, long id, Collection<Track> tracks) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Track track : tracks) {
+            TrackCodec.write(out, track);
+        }
+        append(type, id, tracks.size(), bytes.toByteArray());
+    }
+    
+    private void append(byte type, long id, int argument, byte[] payload) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + payload.length + CRC_BYTES);
+        record.putInt(payload.length).put(type).putLong(id).putInt(argument).put(payload);
+        
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, record.position() - 4);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        
+        writeFully(record);
+        recordCount++;
+    }
+    
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            end += channel.write(buffer, end);
+        }
+    }
+    
+    /**
+     * Check the CRC of the record at an offset by streaming it, without holding its payload
+     */
+    private boolean checksumMatches(long position, int length) throws IOException {
+        CRC32 crc = new CRC32();
+        long crcPosition = position + HEADER_BYTES + length;
+        stream(channel, position + 4, crcPosition - position - 4, crc);
+        ByteBuffer stored = ByteBuffer.allocate(CRC_BYTES);
+        readFully(channel, stored, crcPosition);
+        return stored.getInt(0) == (int) crc.getValue();
+    }
+    
+    /**
+     * Run a range of a file through a CRC
+     */
+    private void stream(FileChannel source, long position, long length, CRC32 crc) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(length, STREAM_BUFFER_BYTES));
+        while (length > 0) {
+            buffer.clear().limit((int) Math.min(length, buffer.capacity()));
+            readFully(source, buffer, position);
+            crc.update(buffer.array(), 0, buffer.limit());
+            position += buffer.limit();
+            length -= buffer.limit();
+        }
+    }
+    
+    /**
+     * Read and verify the record at an offset
+     * @return The record, or null if its checksum does not match
+     */
+    private Record readRecord(long position) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(channel, header, position);
+        header.flip();
+        int length = header.getInt();
+        
+        ByteBuffer body = ByteBuffer.allocate(HEADER_BYTES - 4 + length + CRC_BYTES);
+        readFully(channel, body, position + 4);
+        CRC32 crc = new CRC32();
+        crc.update(body.array(), 0, body.capacity() - CRC_BYTES);
+        body.flip();
+        byte type = body.get();
+        long id = body.getLong();
+        int argument = body.getInt();
+        byte[] payload = new byte[length];
+        body.get(payload);
+        if (body.getInt() != (int) crc.getValue()) {
+            return null;
+        }
+        return new Record(type, id, argument, payload);
+    }
+    
+    private static List<Track> readTracks(Record record) throws IOException {
+        DataInputStream in = record.payloadStream();
+        List<Track> tracks = new ArrayList<>(record.argument());
+        for (int i = 0; i < record.argument(); i++) {
+            tracks.add(TrackCodec.read(in));
+        }
+        return tracks;
+    }
+    
+    private void readFully(FileChannel source, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = source.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of " + file);
+            }
+        }
+    }
+    
+    private static byte[] utf(String value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeUTF(value != null ? value : "");
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,458 @@
+package com.lavmusic.app.storage;
+
+import com.lavmusic.app.model.Track;
+import com.lavmusic.app.model.TrackTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-safe snapshots of the play queue and the current playback position.
+ * The queue and the position live in separate files so that the frequent position
+ * updates never rewrite a large queue; each file is only written when its contents
+ * changed since the last snapshot. Every write goes to a temporary file that is synced
+ * and then renamed over the old one, so a crash leaves either the old or the new
+ * snapshot, never a mix. Files carry a CRC32 and are ignored if it does not match.
+ * <p>
+ * Inserts, removals, moves and the marks of played tracks are appended to an edit log
+ * next to the queue file, so editing or playing a large queue costs a few bytes per edit; the queue file is only rewritten
+ * when the queue is replaced wholesale, {@link #MAX_PENDING_EDITS} have built up or the
+ * log outgrows it. The log and the position file both name the checksum of the queue
+ * file they belong to, so a crash between two renames cannot pair them with another
+ * queue. A log record cut short by a crash ends the log; the edits before it still count.
+ */
+public class SessionStore {
+    private static final Logger logger = LoggerFactory.getLogger(SessionStore.class);
+    
+    public static final String QUEUE_FILE = "queue.bin";
+    public static final String EDIT_LOG_FILE = "queue.log";
+    public static final String POSITION_FILE = "position.bin";
+    
+    private static final int QUEUE_MAGIC = 0x4C565132;
+    private static final int EDIT_LOG_MAGIC = 0x4C564531;
+    private static final int POSITION_MAGIC = 0x4C565033;
+    
+    private static final byte INSERT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte MOVE = 3;
+    private static final byte MARK = 4;
+    private static final byte CLEAR_MARKS = 5;
+    
+    /** Magic number and queue checksum */
+    private static final int LOG_HEADER_BYTES = 8;
+    
+    /** Edits kept in the log before the queue file is rewritten */
+    public static final int MAX_PENDING_EDITS = 256;
+    
+    private final Path directory;
+    private TrackTree savedBase;
+    private int savedEditCount;
+    private int savedQueueCrc;
+    private long savedQueueBytes;
+    private int loggedEdits;
+    private long logBytes;
+    private int savedCursor;
+    private Track savedCurrent;
+    private long savedPosition;
+    private boolean positionSaved;
+    private long queueWrites;
+    private long logAppends;
+    private long positionWrites;
+    
+    /**
+     * What was playing when a snapshot was taken
+     * @param cursor Index of the current track in the queue, or -1
+     * @param current The current track, which need not be in the queue; may be null
+     * @param base An earlier queue that {@code tracks} was derived from by {@code edits}
+     */
+    public record Session(TrackTree tracks, int cursor, Track current, long positionMillis,
+            TrackTree base, List<TrackTree.Edit> edits) {
+        public Session(TrackTree tracks, int cursor, Track current, long positionMillis) {
+            this(tracks, cursor, current, positionMillis, tracks, List.of());
+        }
+    }
+    
+    public SessionStore(Path directory) {
+        this.directory = directory;
+    }
+    
+    /**
+     * Write whatever changed since the last save or load.
+     * The queue base and current track are compared by identity, which is exact for the
+     * queue because track trees are immutable. Edits made since the last save are appended
+     * to the edit log; rewriting the queue empties the log and rewrites the position.
+     */
+    public synchronized void save(Session session) throws IOException {
+        Files.createDirectories(directory);
+        
+        int editCount = session.edits().size();
+        byte[] appended = null;
+        if (session.base() == savedBase && editCount >= savedEditCount
+                && loggedEdits + editCount - savedEditCount <= MAX_PENDING_EDITS) {
+            appended = encodeEdits(session.edits().subList(savedEditCount, editCount));
+            if (logBytes + appended.length > savedQueueBytes) {
+                // Replaying the log would cost more than reading the queue it describes
+                appended = null;
+            }
+        }
+        
+        if (appended == null) {
+            byte[] queue = encodeQueue(session.tracks());
+            savedQueueCrc = writeAtomically(QUEUE_FILE, queue);
+            savedQueueBytes = queue.length + 4;
+            // The old log names the old queue, so a crash right here leaves it ignored
+            logBytes = writeLogHeader(savedQueueCrc);
+            loggedEdits = 0;
+            savedBase = session.base();
+            savedEditCount = editCount;
+            positionSaved = false;
+            queueWrites++;
+        } else if (appended.length > 0) {
+            appendToLog(appended);
+            loggedEdits += editCount - savedEditCount;
+            logBytes += appended.length;
+            savedEditCount = editCount;
+            logAppends++;
+        }
+        
+        if (!positionSaved || session.cursor() != savedCursor
+                || session.positionMillis() != savedPosition || session.current() != savedCurrent) {
+            writeAtomically(POSITION_FILE, encodePosition(session, savedQueueCrc));
+            savedCursor = session.cursor();
+            savedCurrent = session.current();
+            savedPosition = session.positionMillis();
+            positionSaved = true;
+            positionWrites++;
+        }
+    }
+    
+    /**
+     * Read the last snapshot. Without a position that belongs to the queue, e.g. after a
+     * crash between writing the two, the queue is restored to start from its first track.
+     * @return The saved session, or null if there is none or the queue file is damaged
+     */
+    public synchronized Session load() throws IOException {
+        byte[] queueBytes = read(QUEUE_FILE, QUEUE_MAGIC);
+        if (queueBytes == null) {
+            return null;
+        }
+        int queueCrc = ByteBuffer.wrap(queueBytes, queueBytes.length - 4, 4).getInt();
+        DataInputStream queueIn = new DataInputStream(new ByteArrayInputStream(queueBytes, 4, queueBytes.length - 8));
+        int count = queueIn.readInt();
+        List<Track> tracks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tracks.add(TrackCodec.read(queueIn));
+        }
+        TrackTree tree = TrackTree.of(tracks);
+        int markedCount = queueIn.readInt();
+        for (int i = 0; i < markedCount; i++) {
+            tree = tree.mark(queueIn.readInt());
+        }
+        
+        List<TrackTree.Edit> edits = new ArrayList<>();
+        long logLength = readLog(queueCrc, edits);
+        TrackTree edited = tree;
+        for (int i = 0; i < edits.size(); i++) {
+            try {
+                edited = edits.get(i).applyTo(edited);
+            } catch (IndexOutOfBoundsException e) {
+                logger.warn("Ignoring the end of {} after {} edits: they do not fit the queue", EDIT_LOG_FILE, i);
+                edits.subList(i, edits.size()).clear();
+                logLength = -1;
+            }
+        }
+        
+        int cursor = -1;
+        Track current = null;
+        long positionMillis = 0;
+        byte[] positionBytes = read(POSITION_FILE, POSITION_MAGIC);
+        if (positionBytes != null) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(positionBytes, 4, positionBytes.length - 8));
+            if (in.readInt() == queueCrc) {
+                cursor = in.readInt();
+                positionMillis = in.readLong();
+                if (in.readBoolean()) {
+                    current = TrackCodec.read(in);
+                }
+            } else {
+                // A crash between writing the queue and writing the position
+                logger.warn("Ignoring {}: it does not belong to {}", POSITION_FILE, QUEUE_FILE);
+                positionBytes = null;
+            }
+        }
+        
+        // What was just read is on disk already and need not be written again; a log that
+        // is missing, stale or cut short cannot be appended to and is rewritten on the next save
+        savedBase = logLength >= 0 ? tree : null;
+        savedEditCount = edits.size();
+        savedQueueCrc = queueCrc;
+        savedQueueBytes = queueBytes.length;
+        loggedEdits = edits.size();
+        logBytes = logLength;
+        savedCursor = cursor;
+        savedCurrent = current;
+        savedPosition = positionMillis;
+        positionSaved = positionBytes != null;
+        return new Session(edited, cursor, current, positionMillis, tree, List.copyOf(edits));
+    }
+    
+    /**
+     * Number of times the queue file was written
+     */
+    public synchronized long getQueueWriteCount() {
+        return queueWrites;
+    }
+    
+    /**
+     * Number of times edits were appended to the edit log
+     */
+    public synchronized long getLogAppendCount() {
+        return logAppends;
+    }
+    
+    /**
+     * Number of times the position file was written
+     */
+    public synchronized long getPositionWriteCount() {
+        return positionWrites;
+    }
+    
+    private static byte[] encodeQueue(TrackTree tracks) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(QUEUE_MAGIC);
+        out.writeInt(tracks.size());
+        for (Track track : tracks.asList()) {
+            TrackCodec.write(out, track);
+        }
+        out.writeInt(tracks.markedCount());
+        for (int i = 0; i < tracks.size(); i++) {
+            if (tracks.isMarked(i)) {
+                out.writeInt(i);
+            }
+        }
+        return bytes.toByteArray();
+    }
+    
+    private static byte[] encodePosition(Session session, int queueCrc) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(POSITION_MAGIC);
+        out.writeInt(queueCrc);
+        out.writeInt(session.cursor());
+        out.writeLong(session.positionMillis());
+        out.writeBoolean(session.current() != null);
+        if (session.current() != null) {
+            TrackCodec.write(out, session.current());
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * Encode edits as log records: length, type and fields, then a checksum of type and fields
+     */
+    private static byte[] encodeEdits(List<TrackTree.Edit> edits) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream fields = new DataOutputStream(record);
+        for (TrackTree.Edit edit : edits) {
+            record.reset();
+            if (edit instanceof TrackTree.Insert insert) {
+                fields.writeByte(INSERT);
+                fields.writeInt(insert.index());
+                fields.writeInt(insert.tracks().size());
+                for (Track track : insert.tracks()) {
+                    TrackCodec.write(fields, track);
+                }
+            } else if (edit instanceof TrackTree.Remove remove) {
+                fields.writeByte(REMOVE);
+                fields.writeInt(remove.from());
+                fields.writeInt(remove.to());
+            } else if (edit instanceof TrackTree.Move move) {
+                fields.writeByte(MOVE);
+                fields.writeInt(move.from());
+                fields.writeInt(move.to());
+            } else if (edit instanceof TrackTree.Mark mark) {
+                fields.writeByte(MARK);
+                fields.writeInt(mark.index());
+            } else if (edit instanceof TrackTree.ClearMarks) {
+                fields.writeByte(CLEAR_MARKS);
+            } else {
+                throw new IllegalArgumentException("Unknown queue edit: " + edit);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(record.toByteArray());
+            out.writeInt(record.size());
+            record.writeTo(out);
+            out.writeInt((int) crc.getValue());
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * Read the edit log of a queue, stopping at the first record that is damaged or cut short
+     * @return The log length to append after, or -1 if the log cannot be appended to
+     */
+    private long readLog(int queueCrc, List<TrackTree.Edit> edits) throws IOException {
+        Path file = directory.resolve(EDIT_LOG_FILE);
+        if (!Files.exists(file)) {
+            return -1;
+        }
+        ByteBuffer log = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (log.remaining() < LOG_HEADER_BYTES || log.getInt() != EDIT_LOG_MAGIC || log.getInt() != queueCrc) {
+            // Left behind by a crash while the queue was rewritten, or not a log at all
+            logger.warn("Ignoring {}: it does not belong to {}", EDIT_LOG_FILE, QUEUE_FILE);
+            return -1;
+        }
+        
+        while (log.hasRemaining()) {
+            int start = log.position();
+            if (log.remaining() < 4) {
+                break;
+            }
+            int length = log.getInt();
+            if (length <= 0 || length > log.remaining() - 4) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(log.array(), start + 4, length);
+            if (log.getInt(start + 4 + length) != (int) crc.getValue()) {
+                break;
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(log.array(), start + 4, length));
+            try {
+                edits.add(readEdit(in));
+            } catch (IOException e) {
+                break;
+            }
+            log.position(start + 4 + length + 4);
+        }
+        if (log.hasRemaining()) {
+            logger.warn("Ignoring the end of {} after {} edits: it is damaged", EDIT_LOG_FILE, edits.size());
+            return -1;
+        }
+        return log.position();
+    }
+    
+    private static TrackTree.Edit readEdit(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case INSERT -> {
+                int index = in.readInt();
+                int count = in.readInt();
+                List<Track> tracks = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    tracks.add(TrackCodec.read(in));
+                }
+                return new TrackTree.Insert(index, tracks);
+            }
+            case REMOVE -> {
+                return new TrackTree.Remove(in.readInt(), in.readInt());
+            }
+            case MOVE -> {
+                return new TrackTree.Move(in.readInt(), in.readInt());
+            }
+            case MARK -> {
+                return new TrackTree.Mark(in.readInt());
+            }
+            case CLEAR_MARKS -> {
+                return new TrackTree.ClearMarks();
+            }
+            default -> throw new IOException("Unknown queue edit type: " + type);
+        }
+    }
+    
+    /**
+     * Start an empty edit log for a queue, atomically replacing the old one
+     * @return The length of the log
+     */
+    private long writeLogHeader(int queueCrc) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_BYTES).putInt(EDIT_LOG_MAGIC).putInt(queueCrc);
+        header.flip();
+        Path temp = directory.resolve(EDIT_LOG_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, directory.resolve(EDIT_LOG_FILE), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        return LOG_HEADER_BYTES;
+    }
+    
+    /**
+     * Append records to the edit log and sync them; a crash midway leaves a damaged last record
+     */
+    private void appendToLog(byte[] records) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(records);
+        try (FileChannel channel = FileChannel.open(directory.resolve(EDIT_LOG_FILE), StandardOpenOption.WRITE)) {
+            channel.position(logBytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+    }
+    
+    /**
+     * Write a file with a trailing checksum via a synced temporary file and an atomic rename
+     * @return The checksum
+     */
+    private int writeAtomically(String name, byte[] data) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteBuffer buffer = ByteBuffer.allocate(data.length + 4).put(data).putInt((int) crc.getValue());
+        buffer.flip();
+        
+        Path temp = directory.resolve(name + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return (int) crc.getValue();
+    }
+    
+    /**
+     * Read a whole file and check its magic number and checksum
+     * @return The contents including magic and checksum, or null if missing or damaged
+     */
+    private byte[] read(String name, int magic) throws IOException {
+        Path file = directory.resolve(name);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length < 8 || ByteBuffer.wrap(bytes).getInt() != magic) {
+            logger.warn("Ignoring unrecognised session file {}", file);
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 4);
+        if (ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt() != (int) crc.getValue()) {
+            logger.warn("Ignoring damaged session file {}", file);
+            return null;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,77 @@
+package com.lavmusic.app.storage;
+
+import com.lavmusic.app.model.Track;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Compact binary form of a {@link Track}.
+ * A flags byte records the booleans and which optional fields are present, so a
+ * missing field costs nothing; the encoded track is stored as its raw bytes.
+ */
+final class TrackCodec {
+    private static final int SEEKABLE = 1;
+    private static final int STREAM = 1 << 1;
+    private static final int HAS_TITLE = 1 << 2;
+    private static final int HAS_AUTHOR = 1 << 3;
+    private static final int HAS_URI = 1 << 4;
+    private static final int HAS_IDENTIFIER = 1 << 5;
+    private static final int HAS_SOURCE = 1 << 6;
+    private static final int HAS_ENCODED = 1 << 7;
+    
+    private TrackCodec() {
+    }
+    
+    static void write(DataOutput out, Track track) throws IOException {
+        byte[] encoded = track.getEncodedBytes();
+        int flags = (track.isSeekable() ? SEEKABLE : 0)
+            | (track.isStream() ? STREAM : 0)
+            | (track.getTitle() != null ? HAS_TITLE : 0)
+            | (track.getAuthor() != null ? HAS_AUTHOR : 0)
+            | (track.getUri() != null ? HAS_URI : 0)
+            | (track.getIdentifier() != null ? HAS_IDENTIFIER : 0)
+            | (track.getSourceName() != null ? HAS_SOURCE : 0)
+            | (encoded != null ? HAS_ENCODED : 0);
+        
+        out.writeByte(flags);
+        writeIf(out, flags, HAS_TITLE, track.getTitle());
+        writeIf(out, flags, HAS_AUTHOR, track.getAuthor());
+        writeIf(out, flags, HAS_URI, track.getUri());
+        writeIf(out, flags, HAS_IDENTIFIER, track.getIdentifier());
+        writeIf(out, flags, HAS_SOURCE, track.getSourceName());
+        out.writeLong(track.getDuration());
+        if (encoded != null) {
+            out.writeInt(encoded.length);
+            out.write(encoded);
+        }
+    }
+    
+    static Track read(DataInput in) throws IOException {
+        int flags = in.readUnsignedByte();
+        String title = readIf(in, flags, HAS_TITLE);
+        String author = readIf(in, flags, HAS_AUTHOR);
+        String uri = readIf(in, flags, HAS_URI);
+        String identifier = readIf(in, flags, HAS_IDENTIFIER);
+        String sourceName = readIf(in, flags, HAS_SOURCE);
+        long duration = in.readLong();
+        byte[] encoded = null;
+        if ((flags & HAS_ENCODED) != 0) {
+            encoded = new byte[in.readInt()];
+            in.readFully(encoded);
+        }
+        return new Track(title, author, uri, duration, identifier, sourceName,
+            (flags & SEEKABLE) != 0, (flags & STREAM) != 0, encoded);
+    }
+    
+    private static void writeIf(DataOutput out, int flags, int flag, String value) throws IOException {
+        if ((flags & flag) != 0) {
+            out.writeUTF(value);
+        }
+    }
+    
+    private static String readIf(DataInput in, int flags, int flag) throws IOException {
+        return (flags & flag) != 0 ? in.readUTF() : null;
+    }
+}
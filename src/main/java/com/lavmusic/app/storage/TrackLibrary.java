@@ -0,0 +1,422 @@
+package com.lavmusic.app.storage;
+
+import com.lavmusic.app.model.Track;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Read-only track library in a memory-mapped, columnar file.
+ * Opening a library only maps the file; nothing is decoded until it is read, so a library
+ * of hundreds of thousands of tracks costs almost no heap. Each field is a column:
+ * durations are fixed-width, titles, URIs, identifiers and encoded tracks are offsets into
+ * a shared byte heap, and authors and source names are ids into a table of distinct
+ * strings, each decoded at most once and then shared. Tracks are read through flyweight
+ * {@link View}s, and a whole library can be filtered with a single view.
+ * <p>
+ * Layout after the header: flags (byte per track), durations (long), author ids (int),
+ * source ids (int, -1 for none), title, URI, identifier and encoded offsets (int, one
+ * more than the track count each), symbol offsets (int), then the heap.
+ */
+public class TrackLibrary implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(TrackLibrary.class);
+    
+    private static final int MAGIC = 0x4C564D4C;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    
+    private static final int SEEKABLE = 1;
+    private static final int STREAM = 1 << 1;
+    private static final int HAS_TITLE = 1 << 2;
+    private static final int HAS_AUTHOR = 1 << 3;
+    private static final int HAS_URI = 1 << 4;
+    private static final int HAS_IDENTIFIER = 1 << 5;
+    private static final int HAS_ENCODED = 1 << 6;
+    
+    private final FileChannel channel;
+    private final int size;
+    private final ByteBuffer flags;
+    private final LongBuffer durations;
+    private final IntBuffer authors;
+    private final IntBuffer sources;
+    private final IntBuffer titles;
+    private final IntBuffer uris;
+    private final IntBuffer identifiers;
+    private final IntBuffer encoded;
+    private final IntBuffer symbolOffsets;
+    private final ByteBuffer heap;
+    private final String[] symbols;
+    
+    private TrackLibrary(FileChannel channel, MappedByteBuffer map) throws IOException {
+        this.channel = channel;
+        if (map.capacity() < HEADER_BYTES || map.getInt(0) != MAGIC) {
+            throw new IOException("Not a track library");
+        }
+        if (map.getInt(4) != VERSION) {
+            throw new IOException("Unsupported track library version: " + map.getInt(4));
+        }
+        this.size = map.getInt(8);
+        int symbolCount = map.getInt(12);
+        
+        int position = HEADER_BYTES;
+        this.flags = map.slice(position, size);
+        position = align(position + size);
+        this.durations = map.slice(position, size * Long.BYTES).asLongBuffer();
+        position += size * Long.BYTES;
+        this.authors = map.slice(position, size * Integer.BYTES).asIntBuffer();
+        position += size * Integer.BYTES;
+        this.sources = map.slice(position, size * Integer.BYTES).asIntBuffer();
+        position += size * Integer.BYTES;
+        int offsetBytes = (size + 1) * Integer.BYTES;
+        this.titles = map.slice(position, offsetBytes).asIntBuffer();
+        position += offsetBytes;
+        this.uris = map.slice(position, offsetBytes).asIntBuffer();
+        position += offsetBytes;
+        this.identifiers = map.slice(position, offsetBytes).asIntBuffer();
+        position += offsetBytes;
+        this.encoded = map.slice(position, offsetBytes).asIntBuffer();
+        position += offsetBytes;
+        this.symbolOffsets = map.slice(position, (symbolCount + 1) * Integer.BYTES).asIntBuffer();
+        position += (symbolCount + 1) * Integer.BYTES;
+        this.heap = map.slice(position, map.capacity() - position);
+        this.symbols = new String[symbolCount];
+    }
+    
+    /**
+     * Map a library file. The mapping is released once the library is closed and unreachable.
+     */
+    public static TrackLibrary open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            TrackLibrary library = new TrackLibrary(channel, map);
+            logger.debug("Mapped track library {} with {} tracks", file, library.size);
+            return library;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * Write tracks as a library file, replacing any existing one atomically
+     * @throws IllegalArgumentException if the strings and encoded tracks exceed 2 GB
+     */
+    public static void write(Path file, Collection<? extends Track> tracks) throws IOException {
+        int size = tracks.size();
+        byte[] flags = new byte[size];
+        long[] durations = new long[size];
+        int[] authors = new int[size];
+        int[] sources = new int[size];
+        int[] titles = new int[size + 1];
+        int[] uris = new int[size + 1];
+        int[] identifiers = new int[size + 1];
+        int[] encoded = new int[size + 1];
+        Map<String, Integer> symbolIds = new HashMap<>();
+        List<String> symbols = new ArrayList<>();
+        ByteArrayOutputStream heap = new ByteArrayOutputStream();
+        
+        // Each column is written in one pass so its bytes sit together in the heap
+        int i = 0;
+        for (Track track : tracks) {
+            flags[i] = (byte) ((track.isSeekable() ? SEEKABLE : 0)
+                | (track.isStream() ? STREAM : 0)
+                | (track.getTitle() != null ? HAS_TITLE : 0)
+                | (track.getAuthor() != null ? HAS_AUTHOR : 0)
+                | (track.getUri() != null ? HAS_URI : 0)
+                | (track.getIdentifier() != null ? HAS_IDENTIFIER : 0)
+                | (track.hasEncoded() ? HAS_ENCODED : 0));
+            durations[i] = track.getDuration();
+            authors[i] = track.getAuthor() != null ? symbolIds.computeIfAbsent(track.getAuthor(), s -> add(symbols, s)) : -1;
+            sources[i] = track.getSourceName() != null ? symbolIds.computeIfAbsent(track.getSourceName(), s -> add(symbols, s)) : -1;
+            i++;
+        }
+        writeColumn(heap, tracks, titles, track -> utf8(track.getTitle()));
+        writeColumn(heap, tracks, uris, track -> utf8(track.getUri()));
+        writeColumn(heap, tracks, identifiers, track -> utf8(track.getIdentifier()));
+        writeColumn(heap, tracks, encoded, Track::getEncodedBytes);
+        int[] symbolOffsets = new int[symbols.size() + 1];
+        writeColumn(heap, symbols, symbolOffsets, TrackLibrary::utf8);
+        
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            out.writeInt(symbols.size());
+            out.write(flags);
+            out.write(new byte[align(HEADER_BYTES + size) - HEADER_BYTES - size]);
+            for (long duration : durations) {
+                out.writeLong(duration);
+            }
+            writeInts(out, authors);
+            writeInts(out, sources);
+            writeInts(out, titles);
+            writeInts(out, uris);
+            writeInts(out, identifiers);
+            writeInts(out, encoded);
+            writeInts(out, symbolOffsets);
+            heap.writeTo(out);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Wrote track library {} with {} tracks and {} distinct authors and sources", file, size, symbols.size());
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public String getTitle(int index) {
+        return has(index, HAS_TITLE) ? string(titles, index) : null;
+    }
+    
+    /**
+     * Author of a track; every track by the same author returns the same instance
+     */
+    public String getAuthor(int index) {
+        int id = getAuthorId(index);
+        return id >= 0 ? symbol(id) : null;
+    }
+    
+    /**
+     * Id of a track's author, or -1 if it has none; compare with {@link #findSymbol} to filter without decoding
+     */
+    public int getAuthorId(int index) {
+        checkIndex(index);
+        return authors.get(index);
+    }
+    
+    public String getUri(int index) {
+        return has(index, HAS_URI) ? string(uris, index) : null;
+    }
+    
+    public long getDuration(int index) {
+        checkIndex(index);
+        return durations.get(index);
+    }
+    
+    public String getIdentifier(int index) {
+        return has(index, HAS_IDENTIFIER) ? string(identifiers, index) : null;
+    }
+    
+    public String getSourceName(int index) {
+        checkIndex(index);
+        int id = sources.get(index);
+        return id >= 0 ? symbol(id) : null;
+    }
+    
+    public boolean isSeekable(int index) {
+        return has(index, SEEKABLE);
+    }
+    
+    public boolean isStream(int index) {
+        return has(index, STREAM);
+    }
+    
+    /**
+     * Decode a whole track onto the heap, e.g. to queue it
+     */
+    public Track getTrack(int index) {
+        byte[] bytes = null;
+        if (has(index, HAS_ENCODED)) {
+            bytes = new byte[encoded.get(index + 1) - encoded.get(index)];
+            heap.get(encoded.get(index), bytes);
+        }
+        return new Track(getTitle(index), getAuthor(index), getUri(index), getDuration(index),
+            getIdentifier(index), getSourceName(index), isSeekable(index), isStream(index), bytes);
+    }
+    
+    /**
+     * Id of an author or source name in this library
+     * @return The id, or -1 if no track uses that string
+     */
+    public int findSymbol(String value) {
+        byte[] wanted = value.getBytes(StandardCharsets.UTF_8);
+        for (int id = 0; id < symbols.length; id++) {
+            int start = symbolOffsets.get(id);
+            int length = symbolOffsets.get(id + 1) - start;
+            if (length == wanted.length && heap.slice(start, length).equals(ByteBuffer.wrap(wanted))) {
+                return id;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * A flyweight view of a track
+     */
+    public View view(int index) {
+        return new View().moveTo(index);
+    }
+    
+    /**
+     * Indices of the tracks matching a predicate, in library order.
+     * One view is moved across the library, so only what the predicate reads is decoded.
+     */
+    public int[] filter(Predicate<View> predicate) {
+        View view = new View();
+        int[] matches = new int[16];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (predicate.test(view.moveTo(i))) {
+                if (count == matches.length) {
+                    matches = Arrays.copyOf(matches, count * 2);
+                }
+                matches[count++] = i;
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+    
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+    
+    /**
+     * A movable window onto one track of the library. It holds only an index, so the
+     * same view can walk the whole library; fields are read from the mapping on access.
+     */
+    public final class View {
+        private int index;
+        
+        private View() {
+        }
+        
+        /**
+         * Point this view at another track
+         */
+        public View moveTo(int index) {
+            checkIndex(index);
+            this.index = index;
+            return this;
+        }
+        
+        public int getIndex() {
+            return index;
+        }
+        
+        public String getTitle() {
+            return TrackLibrary.this.getTitle(index);
+        }
+        
+        public String getAuthor() {
+            return TrackLibrary.this.getAuthor(index);
+        }
+        
+        public int getAuthorId() {
+            return TrackLibrary.this.getAuthorId(index);
+        }
+        
+        public String getUri() {
+            return TrackLibrary.this.getUri(index);
+        }
+        
+        public long getDuration() {
+            return TrackLibrary.this.getDuration(index);
+        }
+        
+        public String getIdentifier() {
+            return TrackLibrary.this.getIdentifier(index);
+        }
+        
+        public String getSourceName() {
+            return TrackLibrary.this.getSourceName(index);
+        }
+        
+        public Track toTrack() {
+            return getTrack(index);
+        }
+    }
+    
+    private boolean has(int index, int flag) {
+        checkIndex(index);
+        return (flags.get(index) & flag) != 0;
+    }
+    
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+    
+    private String string(IntBuffer offsets, int index) {
+        int start = offsets.get(index);
+        byte[] bytes = new byte[offsets.get(index + 1) - start];
+        heap.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private String symbol(int id) {
+        String value = symbols[id];
+        if (value == null) {
+            // Races only decode the same string twice, which is harmless
+            value = string(symbolOffsets, id);
+            symbols[id] = value;
+        }
+        return value;
+    }
+    
+    private static int add(List<String> symbols, String value) {
+        symbols.add(value);
+        return symbols.size() - 1;
+    }
+    
+    private static int align(int position) {
+        return (position + Long.BYTES - 1) & -Long.BYTES;
+    }
+    
+    private static byte[] utf8(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+    
+    @FunctionalInterface
+    private interface Bytes<T> {
+        byte[] of(T value);
+    }
+    
+    private static <T> void writeColumn(ByteArrayOutputStream heap, Collection<? extends T> values, int[] offsets,
+                                        Bytes<T> bytes) {
+        int i = 0;
+        for (T value : values) {
+            offsets[i++] = heap.size();
+            byte[] data = bytes.of(value);
+            if (data != null) {
+                if (data.length > Integer.MAX_VALUE - heap.size()) {
+                    throw new IllegalArgumentException("Track library heap exceeds 2 GB");
+                }
+                heap.write(data, 0, data.length);
+            }
+        }
+        offsets[i] = heap.size();
+    }
+    
+    private static void writeInts(OutputStream out, int[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * Integer.BYTES);
+        buffer.asIntBuffer().put(values);
+        out.write(buffer.array());
+    }
+}
@@ -1,7 +1,9 @@
 package com.lavmusic.app.ui;
 
+import com.lavmusic.app.concurrent.AppExecutors;
 import com.lavmusic.app.model.Track;
 import com.lavmusic.app.player.MusicPlayerManager;
+import com.lavmusic.app.player.QueueChange;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
@@ -15,7 +17,15 @@ import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.stage.Stage;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main UI for the Ticly Lavamusic application with Material Expressive design
@@ -40,6 +50,15 @@ public class MainUI {
     private TextField searchField;
     private ListView<Track> searchResultsView;
     private Label statusLabel;
+    private LiveSearch liveSearch;
+    private ScheduledFuture<?> searchDebounce;
+    private ScheduledFuture<?> statusReset;
+    private UiUpdatePump<PlayerSnapshot> playerStatePump;
+    private UiUpdatePump<QueueChange> queuePump;
+    private final Queue<QueueChange> queueChanges = new ConcurrentLinkedQueue<>();
+    private long queueVersion = -1;
+    private UiUpdatePump<LiveSearch> searchPump;
+    private PlayerSnapshot appliedState;
     
     // Material Design Colors
     private static final String PRIMARY_COLOR = "#6200EE";
@@ -51,6 +70,64 @@ public class MainUI {
     private static final String ON_PRIMARY = "#FFFFFF";
     private static final String ON_BACKGROUND = "#000000";
     
+    /** Beyond this many queue edits in one frame, the queue view is reloaded instead */
+    private static final int MAX_QUEUE_CHANGES_PER_FRAME = 256;
+    
+    /**
+     * Player state as last published by the player, applied to the UI once per frame
+     */
+    private record PlayerSnapshot(Track track, boolean playing, double position) {
+    }
+    
+    /**
+     * One query's results: local matches first, then Lavalink results as they are decoded.
+     * Remote tracks arrive on HTTP threads and are collected until the search pump appends
+     * them to the results list, once per frame.
+     */
+    private final class LiveSearch {
+        private final String query;
+        private final Set<Track> shown;
+        private List<Track> arrived;
+        private CompletableFuture<List<Track>> request;
+        // Set on the FX thread; tracks still streaming in for a cancelled search are dropped
+        private volatile boolean cancelled;
+        
+        LiveSearch(String query, List<Track> local) {
+            this.query = query;
+            this.shown = new HashSet<>(local);
+            this.arrived = new ArrayList<>();
+        }
+        
+        /**
+         * Queue a track to be appended unless it is already listed, e.g. as a local match
+         */
+        void add(Track track) {
+            if (cancelled) {
+                return;
+            }
+            synchronized (this) {
+                if (!shown.add(track)) {
+                    return;
+                }
+                arrived.add(track);
+            }
+            searchPump.publish(this);
+        }
+        
+        /**
+         * The tracks that arrived since the last call
+         */
+        synchronized List<Track> takeArrived() {
+            List<Track> taken = arrived;
+            arrived = new ArrayList<>();
+            return taken;
+        }
+        
+        synchronized boolean isEmpty() {
+            return shown.isEmpty();
+        }
+    }
+    
     public MainUI(MusicPlayerManager playerManager, Stage stage) {
         this.playerManager = playerManager;
         this.stage = stage;
@@ -131,6 +208,7 @@ public class MainUI {
         searchField.setPromptText("Enter song name or artist...");
         searchField.setStyle("-fx-background-radius: 8; -fx-padding: 10;");
         searchField.setOnAction(e -> performSearch()); // Support Enter key
+        searchField.textProperty().addListener((obs, old, text) -> onSearchTextChanged(text));
         HBox.setHgrow(searchField, Priority.ALWAYS);
         
         Button searchButton = createMaterialButton("Search");
@@ -144,7 +222,7 @@ public class MainUI {
         
         searchResultsView = new ListView<>();
         searchResultsView.setStyle("-fx-background-radius: 8;");
-        searchResultsView.setCellFactory(lv -> new TrackCell(true));
+        searchResultsView.setCellFactory(lv -> new TrackCell(playerManager, true));
         VBox.setVgrow(searchResultsView, Priority.ALWAYS);
         
         panel.getChildren().addAll(searchHeader, searchBox, resultsHeader, searchResultsView);
@@ -179,7 +257,7 @@ public class MainUI {
         // Queue list
         queueListView = new ListView<>();
         queueListView.setStyle("-fx-background-radius: 8;");
-        queueListView.setCellFactory(lv -> new TrackCell(false));
+        queueListView.setCellFactory(lv -> new TrackCell(playerManager, false));
         VBox.setVgrow(queueListView, Priority.ALWAYS);
         
         panel.getChildren().addAll(queueHeader, queueListView);
@@ -337,7 +415,7 @@ public class MainUI {
         return button;
     }
     
-    private Button createTextButton(String text, String color) {
+    private static Button createTextButton(String text, String color) {
         Button button = new Button(text);
         button.setFont(Font.font(18));
         button.setTextFill(Color.web(color));
@@ -359,30 +437,40 @@ public class MainUI {
     }
     
     private void setupBindings() {
-        // Update UI when current track changes - using runLater for thread safety
-        playerManager.currentTrackProperty().addListener((obs, old, track) -> {
-            if (!Platform.isFxApplicationThread()) {
-                Platform.runLater(() -> updateCurrentTrackUI(track));
-            } else {
-                updateCurrentTrackUI(track);
-            }
+        // Player threads only publish the latest state; the FX thread picks it up once per frame
+        playerStatePump = new UiUpdatePump<>(this::applyPlayerState);
+        playerManager.currentTrackProperty().addListener((obs, old, track) -> publishPlayerState());
+        playerManager.playingProperty().addListener((obs, old, playing) -> publishPlayerState());
+        playerManager.positionProperty().addListener((obs, old, position) -> publishPlayerState());
+        publishPlayerState();
+        playerStatePump.start();
+        
+        // Queue edits arrive from any thread and are applied to the list view once per frame,
+        // each as a small edit so that the view keeps its scroll position
+        queuePump = new UiUpdatePump<>(latest -> applyQueueChanges());
+        playerManager.addQueueChangeListener(change -> {
+            queueChanges.add(change);
+            queuePump.publish(change);
         });
-        
-        // Update play/pause button - using runLater for thread safety
-        playerManager.playingProperty().addListener((obs, old, playing) -> {
-            if (!Platform.isFxApplicationThread()) {
-                Platform.runLater(() -> updatePlayPauseButton(playing));
+        queueChanges.add(playerManager.getQueueState());
+        applyQueueChanges();
+        queuePump.start();
+        
+        // Search results stream in from HTTP threads and are shown at most once per frame
+        searchPump = new UiUpdatePump<>(this::applySearchResults);
+        searchPump.start();
+        
+        // Slow down progress ticks and skip frame updates while minimized
+        stage.iconifiedProperty().addListener((obs, old, iconified) -> {
+            playerManager.setBackgroundPlayback(iconified);
+            if (iconified) {
+                playerStatePump.stop();
+                queuePump.stop();
+                searchPump.stop();
             } else {
-                updatePlayPauseButton(playing);
-            }
-        });
-        
-        // Update progress slider - using runLater for thread safety
-        playerManager.positionProperty().addListener((obs, old, position) -> {
-            if (!Platform.isFxApplicationThread()) {
-                Platform.runLater(() -> updateProgressUI(position.doubleValue()));
-            } else {
-                updateProgressUI(position.doubleValue());
+                playerStatePump.start();
+                queuePump.start();
+                searchPump.start();
             }
         });
         
@@ -474,6 +562,31 @@ public class MainUI {
         });
     }
     
+    private void publishPlayerState() {
+        playerStatePump.publish(new PlayerSnapshot(
+            playerManager.currentTrackProperty().get(),
+            playerManager.playingProperty().get(),
+            playerManager.positionProperty().get()));
+    }
+    
+    /**
+     * Apply a player snapshot, touching only the controls whose state changed
+     */
+    private void applyPlayerState(PlayerSnapshot state) {
+        PlayerSnapshot previous = appliedState;
+        appliedState = state;
+        
+        if (previous == null || previous.track() != state.track()) {
+            updateCurrentTrackUI(state.track());
+        }
+        if (previous == null || previous.playing() != state.playing()) {
+            updatePlayPauseButton(state.playing());
+        }
+        if (previous == null || previous.position() != state.position() || previous.track() != state.track()) {
+            updateProgressUI(state.position());
+        }
+    }
+    
     private void updateCurrentTrackUI(Track track) {
         if (track != null) {
             currentTrackLabel.setText(track.getTitle());
@@ -591,44 +704,99 @@ public class MainUI {
         alert.showAndWait();
     }
     
+    /**
+     * Search right away, e.g. on Enter, without waiting for typing to pause
+     */
     private void performSearch() {
         String query = searchField.getText().trim();
         if (query.isEmpty()) {
             showError("Empty Search", "Please enter a search query.");
             return;
         }
+        if (searchDebounce != null) {
+            searchDebounce.cancel(false);
+        }
+        if (liveSearch != null && liveSearch.query.equals(query) && liveSearch.request != null) {
+            // Already searching for exactly this
+            return;
+        }
+        searchRemote(beginSearch(query));
+    }
+    
+    /**
+     * Show local matches on every keystroke and search Lavalink once typing pauses
+     */
+    private void onSearchTextChanged(String text) {
+        if (searchDebounce != null) {
+            searchDebounce.cancel(false);
+        }
+        String query = text.trim();
+        if (query.isEmpty()) {
+            cancelSearch();
+            searchResultsView.getItems().clear();
+            return;
+        }
+        if (liveSearch != null && liveSearch.query.equals(query)) {
+            // Only whitespace changed
+            return;
+        }
         
-        searchResultsView.getItems().clear();
-        
-        // Show loading indicator
-        Label loadingLabel = new Label("Searching...");
-        loadingLabel.setFont(Font.font("System", 14));
-        loadingLabel.setTextFill(Color.GRAY);
-        
-        // Disable search button temporarily
-        searchField.setDisable(true);
-        
-        // Run search in background to avoid blocking UI
-        new Thread(() -> {
-            try {
-                List<Track> results = playerManager.search(query);
-                
-                Platform.runLater(() -> {
-                    searchField.setDisable(false);
-                    
-                    if (results.isEmpty()) {
-                        showInfo("No Results", "No tracks found for: " + query);
-                    } else {
-                        searchResultsView.getItems().addAll(results);
-                    }
-                });
-            } catch (Exception e) {
-                Platform.runLater(() -> {
-                    searchField.setDisable(false);
-                    showError("Search Error", "Failed to search: " + e.getMessage());
-                });
+        LiveSearch search = beginSearch(query);
+        searchDebounce = AppExecutors.shared().scheduler().schedule(() -> Platform.runLater(() -> {
+            if (search == liveSearch) {
+                searchRemote(search);
             }
-        }).start();
+        }), playerManager.getConfig().getSearchDebounceMillis(), TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Replace the current search, cancelling its Lavalink request, and show the local matches
+     */
+    private LiveSearch beginSearch(String query) {
+        cancelSearch();
+        // The user's own tracks are found locally at once; Lavalink results follow below them
+        List<Track> local = playerManager.searchLocal(query);
+        liveSearch = new LiveSearch(query, local);
+        searchResultsView.getItems().setAll(local);
+        return liveSearch;
+    }
+    
+    private void cancelSearch() {
+        if (liveSearch != null) {
+            liveSearch.cancelled = true;
+            if (liveSearch.request != null) {
+                // Its HTTP call is cancelled too, unless another search is waiting on the same query
+                liveSearch.request.cancel(true);
+            }
+        }
+        liveSearch = null;
+    }
+    
+    private void searchRemote(LiveSearch search) {
+        // The search runs on the HTTP client's dispatcher, so no thread is needed here
+        CompletableFuture<List<Track>> request = playerManager.searchAsync(search.query, search::add);
+        search.request = request;
+        request.whenComplete((results, error) -> Platform.runLater(() -> {
+            if (request.isCancelled() || search != liveSearch) {
+                // Superseded by a newer search
+                return;
+            }
+            if (error != null) {
+                updateStatus("Search failed: " + error.getMessage());
+                return;
+            }
+            // The demo fallback is not streamed, so add whatever did not arrive yet
+            results.forEach(search::add);
+            if (search.isEmpty()) {
+                updateStatus("No tracks found for: " + search.query);
+            }
+        }));
+    }
+    
+    private void applySearchResults(LiveSearch search) {
+        if (search == liveSearch) {
+            searchResultsView.getItems().addAll(search.takeArrived());
+        }
     }
     
     private void togglePlayPause() {
@@ -643,13 +811,11 @@ public class MainUI {
     
     private void skipNext() {
         playerManager.skipNext();
-        updateQueueView();
         updateStatus("Skipped to next track");
     }
     
     private void clearQueue() {
         playerManager.clearQueue();
-        updateQueueView();
         updateStatus("Queue cleared");
     }
     
@@ -657,35 +823,114 @@ public class MainUI {
         if (statusLabel != null) {
             statusLabel.setText(message);
             
-            // Clear status after 3 seconds
-            new Thread(() -> {
-                try {
-                    Thread.sleep(3000);
-                    Platform.runLater(() -> {
-                        if (statusLabel.getText().equals(message)) {
-                            statusLabel.setText("Ready");
-                        }
-                    });
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
+            // Clear status after 3 seconds; a newer message replaces the pending reset
+            if (statusReset != null) {
+                statusReset.cancel(false);
+            }
+            statusReset = AppExecutors.shared().scheduler().schedule(() -> Platform.runLater(() -> {
+                if (statusLabel.getText().equals(message)) {
+                    statusLabel.setText("Ready");
                 }
-            }).start();
+            }), 3, TimeUnit.SECONDS);
         }
     }
     
-    private void updateQueueView() {
-        queueListView.getItems().clear();
-        queueListView.getItems().addAll(playerManager.getQueue());
+    /**
+     * Apply pending queue edits in version order. A missing or late edit, or a backlog too
+     * long to be worth replaying, is replaced by a resync to the queue's current state.
+     */
+    private void applyQueueChanges() {
+        if (queueChanges.size() > MAX_QUEUE_CHANGES_PER_FRAME) {
+            queueChanges.clear();
+            queueChanges.add(playerManager.getQueueState());
+        }
+        QueueChange change;
+        while ((change = queueChanges.poll()) != null) {
+            if (change.version() <= queueVersion) {
+                // Already covered by a resync
+                continue;
+            }
+            if (change.version() != queueVersion + 1 && change.type() != QueueChange.Type.RESET) {
+                change = playerManager.getQueueState();
+            }
+            change.applyTo(queueListView.getItems());
+            queueVersion = change.version();
+        }
     }
     
     /**
-     * Custom cell for displaying tracks
+     * Custom cell for displaying tracks.
+     * The node graph is built once per cell and {@link #updateItem} only rebinds text and
+     * favorite state, so scrolling reuses the same few dozen cells without creating nodes.
+     * Fonts and tooltips are shared by all cells.
      */
-    private class TrackCell extends ListCell<Track> {
-        private final boolean showAddButton;
-        
-        public TrackCell(boolean showAddButton) {
-            this.showAddButton = showAddButton;
+    public static class TrackCell extends ListCell<Track> {
+        private static final Font TITLE_FONT = Font.font("System", FontWeight.BOLD, 13);
+        private static final Font DETAIL_FONT = Font.font("System", 11);
+        private static final Tooltip ADD_FAVORITE_TOOLTIP = new Tooltip("Add to favorites");
+        private static final Tooltip REMOVE_FAVORITE_TOOLTIP = new Tooltip("Remove from favorites");
+        private static final Tooltip ADD_TO_QUEUE_TOOLTIP = new Tooltip("Add to queue");
+        
+        private final MusicPlayerManager playerManager;
+        private final HBox content;
+        private final Label titleLabel;
+        private final Label detailLabel;
+        private final Button favButton;
+        private final Label favLabel;
+        private Track boundTrack;
+        
+        public TrackCell(MusicPlayerManager playerManager, boolean showAddButton) {
+            this.playerManager = playerManager;
+            
+            content = new HBox(10);
+            content.setAlignment(Pos.CENTER_LEFT);
+            content.setPadding(new Insets(8));
+            
+            VBox trackInfo = new VBox(2);
+            titleLabel = new Label();
+            titleLabel.setFont(TITLE_FONT);
+            detailLabel = new Label();
+            detailLabel.setFont(DETAIL_FONT);
+            detailLabel.setTextFill(Color.GRAY);
+            trackInfo.getChildren().addAll(titleLabel, detailLabel);
+            HBox.setHgrow(trackInfo, Priority.ALWAYS);
+            content.getChildren().add(trackInfo);
+            
+            if (showAddButton) {
+                // Favorite button
+                favButton = createTextButton("♡", ERROR_COLOR);
+                favButton.setOnAction(e -> {
+                    Track track = getItem();
+                    if (track == null) {
+                        return;
+                    }
+                    if (playerManager.isFavorite(track)) {
+                        playerManager.removeFromFavorites(track);
+                    } else {
+                        playerManager.addToFavorites(track);
+                    }
+                    showFavorite(playerManager.isFavorite(track));
+                });
+                
+                // Add to queue button
+                Button addButton = createTextButton("+", SECONDARY_COLOR);
+                addButton.setTooltip(ADD_TO_QUEUE_TOOLTIP);
+                addButton.setOnAction(e -> {
+                    Track track = getItem();
+                    if (track != null) {
+                        playerManager.addToQueue(track);
+                    }
+                });
+                
+                content.getChildren().addAll(favButton, addButton);
+                favLabel = null;
+            } else {
+                // In queue view, show favorite indicator
+                favLabel = new Label("❤");
+                favLabel.setTextFill(Color.web(ERROR_COLOR));
+                content.getChildren().add(favLabel);
+                favButton = null;
+            }
         }
         
         @Override
@@ -693,62 +938,28 @@ public class MainUI {
             super.updateItem(track, empty);
             
             if (empty || track == null) {
-                setText(null);
+                boundTrack = null;
                 setGraphic(null);
+                return;
+            }
+            
+            // Cells are refreshed far more often than their track changes
+            if (track != boundTrack) {
+                boundTrack = track;
+                titleLabel.setText(track.getTitle());
+                detailLabel.setText(track.getAuthor() + " • " + track.getFormattedDuration());
+            }
+            showFavorite(playerManager.isFavorite(track));
+            setGraphic(content);
+        }
+        
+        private void showFavorite(boolean favorite) {
+            if (favButton != null) {
+                favButton.setText(favorite ? "❤" : "♡");
+                favButton.setTooltip(favorite ? REMOVE_FAVORITE_TOOLTIP : ADD_FAVORITE_TOOLTIP);
             } else {
-                HBox cell = new HBox(10);
-                cell.setAlignment(Pos.CENTER_LEFT);
-                cell.setPadding(new Insets(8));
-                
-                VBox trackInfo = new VBox(2);
-                Label titleLabel = new Label(track.getTitle());
-                titleLabel.setFont(Font.font("System", FontWeight.BOLD, 13));
-                
-                Label artistLabel = new Label(track.getAuthor() + " • " + track.getFormattedDuration());
-                artistLabel.setFont(Font.font("System", 11));
-                artistLabel.setTextFill(Color.GRAY);
-                
-                trackInfo.getChildren().addAll(titleLabel, artistLabel);
-                HBox.setHgrow(trackInfo, Priority.ALWAYS);
-                
-                cell.getChildren().add(trackInfo);
-                
-                if (showAddButton) {
-                    // Favorite button
-                    Button favButton = createTextButton(
-                        playerManager.isFavorite(track) ? "❤" : "♡", 
-                        ERROR_COLOR
-                    );
-                    favButton.setTooltip(new Tooltip("Add to favorites"));
-                    favButton.setOnAction(e -> {
-                        if (playerManager.isFavorite(track)) {
-                            playerManager.removeFromFavorites(track);
-                            favButton.setText("♡");
-                        } else {
-                            playerManager.addToFavorites(track);
-                            favButton.setText("❤");
-                        }
-                    });
-                    
-                    // Add to queue button
-                    Button addButton = createTextButton("+", SECONDARY_COLOR);
-                    addButton.setTooltip(new Tooltip("Add to queue"));
-                    addButton.setOnAction(e -> {
-                        playerManager.addToQueue(track);
-                        updateQueueView();
-                    });
-                    
-                    cell.getChildren().addAll(favButton, addButton);
-                } else {
-                    // In queue view, show favorite indicator
-                    if (playerManager.isFavorite(track)) {
-                        Label favLabel = new Label("❤");
-                        favLabel.setTextFill(Color.web(ERROR_COLOR));
-                        cell.getChildren().add(favLabel);
-                    }
-                }
-                
-                setGraphic(cell);
+                favLabel.setVisible(favorite);
+                favLabel.setManaged(favorite);
             }
         }
     }
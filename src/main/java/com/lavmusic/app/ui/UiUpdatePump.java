@@ -0,0 +1,82 @@
+package com.lavmusic.app.ui;
+
+import javafx.animation.AnimationTimer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Coalescing bridge from background threads to the JavaFX thread.
+ * Producers overwrite a single pending value from any thread; an AnimationTimer
+ * applies the latest one at most once per frame. However often state changes,
+ * nothing is queued on the FX event queue and intermediate values are dropped.
+ * @param <T> Immutable state snapshot type; null is not allowed
+ */
+public class UiUpdatePump<T> {
+    private final AtomicReference<T> pending;
+    private final Consumer<T> consumer;
+    private final AnimationTimer timer;
+    private final AtomicLong publishedCount;
+    private final AtomicLong appliedCount;
+    
+    /**
+     * @param consumer Applies a snapshot to the UI; called on the FX thread
+     */
+    public UiUpdatePump(Consumer<T> consumer) {
+        this.pending = new AtomicReference<>();
+        this.consumer = consumer;
+        this.publishedCount = new AtomicLong();
+        this.appliedCount = new AtomicLong();
+        this.timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                drain();
+            }
+        };
+    }
+    
+    /**
+     * Replace the pending snapshot; safe to call from any thread
+     */
+    public void publish(T snapshot) {
+        pending.set(snapshot);
+        publishedCount.incrementAndGet();
+    }
+    
+    /**
+     * Apply the pending snapshot, if any. Called once per frame by the timer.
+     * @return true if a snapshot was applied
+     */
+    public boolean drain() {
+        T snapshot = pending.getAndSet(null);
+        if (snapshot == null) {
+            return false;
+        }
+        consumer.accept(snapshot);
+        appliedCount.incrementAndGet();
+        return true;
+    }
+    
+    /**
+     * Start applying snapshots on every frame; must be called on the FX thread
+     */
+    public void start() {
+        timer.start();
+    }
+    
+    /**
+     * Stop the frame timer; snapshots published meanwhile are kept until the next start
+     */
+    public void stop() {
+        timer.stop();
+    }
+    
+    public long getPublishedCount() {
+        return publishedCount.get();
+    }
+    
+    public long getAppliedCount() {
+        return appliedCount.get();
+    }
+}
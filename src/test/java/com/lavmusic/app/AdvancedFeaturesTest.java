@@ -4,9 +4,16 @@ import com.lavmusic.app.config.ConfigManager;
 import com.lavmusic.app.model.Playlist;
 import com.lavmusic.app.model.Track;
 import com.lavmusic.app.player.MusicPlayerManager;
+import com.lavmusic.app.player.QueueChange;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -107,6 +114,47 @@ class AdvancedFeaturesTest {
         assertEquals(0, player.getFavorites().size());
     }
     
+    @Test
+    void testFavoritesMatchSameSongFromAnotherSearch() {
+        Track first = new Track("Song", "Artist", "https://youtube.com/watch?v=abc", 180000, "abc");
+        Track again = new Track("Song (Official)", "Artist", "https://youtu.be/abc", 180000, "abc");
+        Track other = new Track("Song", "Artist", "https://youtube.com/watch?v=xyz", 180000, "xyz");
+        
+        player.addToFavorites(first);
+        player.addToFavorites(again);
+        
+        assertTrue(player.isFavorite(again));
+        assertFalse(player.isFavorite(other));
+        assertEquals(List.of(first), player.getFavorites());
+        
+        player.addToFavorites(other);
+        player.removeFromFavorites(again);
+        assertEquals(List.of(other), player.getFavorites());
+    }
+    
+    @Test
+    void testTrackIdentity() {
+        Track byIdentifier = new Track("A", "Artist", "https://example.com/a", 1000, "id-1");
+        Track sameIdentifier = new Track("B", "Other", "https://example.com/b", 2000, "id-1");
+        Track byUri = new Track("A", "Artist", "https://example.com/a", 1000);
+        Track sameUri = new Track("A (Live)", "Artist", "https://example.com/a", 3000);
+        
+        assertEquals(byIdentifier, sameIdentifier);
+        assertEquals(byIdentifier.hashCode(), sameIdentifier.hashCode());
+        assertEquals(byUri, sameUri);
+        assertEquals(byUri.hashCode(), sameUri.hashCode());
+        assertNotEquals(byIdentifier, byUri);
+        assertEquals(new Track("T", "A", null, 0), new Track("T", "A", null, 5));
+        assertNotEquals(new Track("T", "A", null, 0), new Track("T", "B", null, 0));
+        
+        Track youtube = new Track("A", "Artist", null, 1000, "id-1", "youtube", true, false, new byte[] {1, 2, 3});
+        Track soundcloud = new Track("A", "Artist", null, 1000, "id-1", "soundcloud", true, false, null);
+        assertNotEquals(youtube, soundcloud);
+        assertEquals(youtube, new Track("A", "Artist", null, 1000, "id-1", "youtube", true, false, null));
+        assertEquals("AQID", youtube.getEncoded());
+        assertNull(soundcloud.getEncoded());
+    }
+    
     @Test
     void testFavoritesNoDuplicates() {
         Track track = new Track("Song", "Artist", "https://example.com/song", 180000);
@@ -128,6 +176,136 @@ class AdvancedFeaturesTest {
         assertFalse(player.isShuffleEnabled());
     }
     
+    @Test
+    void testShuffleKeepsQueueOrderAndRestoresIt() {
+        player.play(new Track("Now Playing", "Artist", "https://example.com/now", 180000));
+        for (int i = 0; i < 20; i++) {
+            player.addToQueue(new Track("Song " + i, "Artist", "https://example.com/" + i, 180000));
+        }
+        List<Track> original = player.getQueue();
+        
+        player.toggleShuffle();
+        assertEquals(original, player.getQueue());
+        
+        Set<Track> played = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            player.skipNext();
+            played.add(player.currentTrackProperty().get());
+        }
+        assertEquals(10, played.size());
+        
+        // Draws never reorder the queue, so turning shuffle off continues in the original order
+        player.toggleShuffle();
+        int current = original.indexOf(player.currentTrackProperty().get());
+        assertEquals(original.subList(current + 1, original.size()), player.getQueue());
+        if (current + 1 < original.size()) {
+            player.skipNext();
+            assertSame(original.get(current + 1), player.currentTrackProperty().get());
+        }
+    }
+    
+    @Test
+    void testRepeatAllWrapsAroundQueue() {
+        Playlist playlist = player.createPlaylist("Loop");
+        for (int i = 0; i < 3; i++) {
+            playlist.addTrack(new Track("Song " + i, "Artist", "https://example.com/" + i, 180000));
+        }
+        player.cycleRepeatMode();
+        player.cycleRepeatMode();
+        assertEquals(MusicPlayerManager.RepeatMode.ALL, player.getRepeatMode());
+        
+        player.loadPlaylist(playlist);
+        assertEquals("Song 0", player.currentTrackProperty().get().getTitle());
+        player.skipNext();
+        player.skipNext();
+        assertEquals("Song 2", player.currentTrackProperty().get().getTitle());
+        
+        player.skipNext();
+        assertEquals("Song 0", player.currentTrackProperty().get().getTitle());
+        assertTrue(player.playingProperty().get());
+        assertEquals(2, player.getQueue().size());
+    }
+    
+    @Test
+    void testLoadPlaylistIsUnaffectedByLaterPlaylistEdits() {
+        Playlist playlist = player.createPlaylist("Shared");
+        playlist.addTrack(new Track("Song 1", "Artist", "https://example.com/1", 180000));
+        playlist.addTrack(new Track("Song 2", "Artist", "https://example.com/2", 180000));
+        
+        player.loadPlaylist(playlist);
+        playlist.addTrack(new Track("Song 3", "Artist", "https://example.com/3", 180000));
+        playlist.removeTrack(1);
+        
+        assertEquals("Song 1", player.currentTrackProperty().get().getTitle());
+        assertEquals(1, player.getQueue().size());
+        assertEquals("Song 2", player.getQueue().get(0).getTitle());
+    }
+    
+    @Test
+    void testQueueChangesMirrorTheQueue() {
+        List<Track> view = new ArrayList<>();
+        List<QueueChange> changes = new ArrayList<>();
+        player.getQueueState().applyTo(view);
+        player.addQueueChangeListener(changes::add);
+        
+        player.addAllToQueue(List.of(
+            new Track("Song 1", "Artist", "https://example.com/1", 180000),
+            new Track("Song 2", "Artist", "https://example.com/2", 180000),
+            new Track("Song 3", "Artist", "https://example.com/3", 180000)));
+        player.insertIntoQueue(0, new Track("Song 0", "Artist", "https://example.com/0", 180000));
+        player.moveInQueue(0, 2);
+        player.removeFromQueue(1);
+        player.skipNext();
+        
+        for (QueueChange change : changes) {
+            change.applyTo(view);
+        }
+        assertEquals(player.getQueue(), view);
+        assertEquals(player.getQueueState().version(), changes.get(changes.size() - 1).version());
+        // Adding to an idle player also starts the first track, which leaves the upcoming tracks
+        assertEquals(QueueChange.Type.INSERT, changes.get(0).type());
+        assertEquals(3, changes.get(0).tracks().size());
+        assertEquals(QueueChange.Type.REMOVE, changes.get(1).type());
+    }
+    
+    @Test
+    void testBulkQueueOperationsFireOneEvent() {
+        player.play(new Track("Now Playing", "Artist", "https://example.com/now", 180000));
+        AtomicInteger events = new AtomicInteger();
+        player.addQueueListener(events::incrementAndGet);
+        List<Track> batch = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            batch.add(new Track("Song " + i, "Artist", "https://example.com/" + i, 180000));
+        }
+        
+        player.addAllToQueue(batch);
+        assertEquals(1, events.get());
+        assertEquals(1_000, player.getQueue().size());
+        
+        List<Track> next = List.of(
+            new Track("Next 1", "Artist", "https://example.com/n1", 180000),
+            new Track("Next 2", "Artist", "https://example.com/n2", 180000));
+        player.enqueueNext(next);
+        assertEquals(2, events.get());
+        assertEquals(next, player.getQueue().subList(0, 2));
+        assertEquals("Song 0", player.getQueue().get(2).getTitle());
+        
+        player.replaceQueue(batch.subList(0, 10));
+        assertEquals(3, events.get());
+        assertEquals(batch.subList(0, 10), player.getQueue());
+        assertEquals("Now Playing", player.currentTrackProperty().get().getTitle());
+    }
+    
+    @Test
+    void testBulkAddStartsPlaybackWhenIdle() {
+        player.addAllToQueue(List.of(
+            new Track("Song 1", "Artist", "https://example.com/1", 180000),
+            new Track("Song 2", "Artist", "https://example.com/2", 180000)));
+        
+        assertEquals("Song 1", player.currentTrackProperty().get().getTitle());
+        assertEquals(1, player.getQueue().size());
+    }
+    
     @Test
     void testRepeatModeCycle() {
         assertEquals(MusicPlayerManager.RepeatMode.OFF, player.getRepeatMode());
@@ -0,0 +1,76 @@
+package com.lavmusic.app;
+
+import com.lavmusic.app.concurrent.AppExecutors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for AppExecutors thread bounds and shutdown
+ */
+class AppExecutorsTest {
+    private final AppExecutors executors = new AppExecutors(4);
+    
+    @AfterEach
+    void tearDown() {
+        executors.shutdown();
+    }
+    
+    @Test
+    void testManyTasksUseBoundedThreads() throws Exception {
+        AtomicInteger completed = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            futures.add(executors.io().submit(() -> {
+                completed.incrementAndGet();
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        
+        assertEquals(1000, completed.get());
+        assertTrue(executors.getThreadsCreated() <= 4);
+    }
+    
+    @Test
+    void testTimersShareOneSchedulerThread() throws Exception {
+        CountDownLatch fired = new CountDownLatch(100);
+        for (int i = 0; i < 100; i++) {
+            executors.scheduler().schedule(fired::countDown, 1, TimeUnit.MILLISECONDS);
+        }
+        
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+        assertEquals(1, executors.getThreadsCreated());
+    }
+    
+    @Test
+    void testCancelledTimerDoesNotRun() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        ScheduledFuture<?> timer = executors.scheduler().schedule(runs::incrementAndGet, 200, TimeUnit.MILLISECONDS);
+        
+        assertTrue(timer.cancel(false));
+        Thread.sleep(300);
+        
+        assertEquals(0, runs.get());
+    }
+    
+    @Test
+    void testShutdownStopsExecutors() {
+        executors.io().submit(() -> { });
+        
+        executors.shutdown();
+        
+        assertTrue(executors.isShutdown());
+        assertTrue(executors.scheduler().isShutdown());
+    }
+}
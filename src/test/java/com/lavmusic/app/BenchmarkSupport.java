@@ -0,0 +1,53 @@
+package com.lavmusic.app;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+
+/**
+ * Minimal timing and allocation harness shared by the benchmark tests.
+ * Run with: ./gradlew benchmark
+ */
+final class BenchmarkSupport {
+    private static final com.sun.management.ThreadMXBean THREADS =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    
+    /** Keeps results reachable so the JIT cannot discard the measured work */
+    static volatile Object sink;
+    
+    private BenchmarkSupport() {
+    }
+    
+    /**
+     * Result of a measured operation
+     */
+    record Result(String name, double nanosPerOp, double bytesPerOp) {
+        double millisPerOp() {
+            return nanosPerOp / 1_000_000.0;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%-40s %12.3f ms/op %14.0f B/op", name, millisPerOp(), bytesPerOp);
+        }
+    }
+    
+    /**
+     * Run {@code operation} for the given warmup and measured iterations
+     */
+    static Result measure(String name, int warmup, int iterations, Callable<?> operation) throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            sink = operation.call();
+        }
+        
+        long threadId = Thread.currentThread().getId();
+        long bytesBefore = THREADS.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink = operation.call();
+        }
+        long elapsed = System.nanoTime() - start;
+        long bytes = THREADS.getThreadAllocatedBytes(threadId) - bytesBefore;
+        
+        return new Result(name, (double) elapsed / iterations, (double) bytes / iterations);
+    }
+}
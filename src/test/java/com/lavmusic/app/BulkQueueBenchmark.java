@@ -0,0 +1,82 @@
+package com.lavmusic.app;
+
+import com.lavmusic.app.config.ConfigManager;
+import com.lavmusic.app.model.Playlist;
+import com.lavmusic.app.model.Track;
+import com.lavmusic.app.player.MusicPlayerManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares loading large playlists into the queue one track at a time
+ * against the bulk queue operations
+ */
+@Tag("benchmark")
+class BulkQueueBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(BulkQueueBenchmark.class);
+    
+    private final MusicPlayerManager player = new MusicPlayerManager(new ConfigManager());
+    
+    @AfterEach
+    void tearDown() {
+        player.shutdown();
+    }
+    
+    @Test
+    void benchmarkPlaylistLoad() throws Exception {
+        AtomicInteger events = new AtomicInteger();
+        player.addQueueListener(events::incrementAndGet);
+        // Keep something playing so every call takes the same path
+        player.play(PlaybackQueueTest.track(-1));
+        
+        for (int size : new int[] {1_000, 10_000, 100_000}) {
+            List<Track> tracks = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                tracks.add(PlaybackQueueTest.track(i));
+            }
+            Playlist playlist = new Playlist("Benchmark", tracks);
+            int iterations = Math.max(5, 100_000 / size);
+            
+            events.set(0);
+            BenchmarkSupport.Result perTrack = BenchmarkSupport.measure(
+                "addToQueue per track (" + size + ")", iterations, iterations, () -> {
+                    player.clearQueue();
+                    for (Track track : tracks) {
+                        player.addToQueue(track);
+                    }
+                    return player.getQueue();
+                });
+            int perTrackEvents = events.getAndSet(0) / (2 * iterations);
+            
+            BenchmarkSupport.Result bulk = BenchmarkSupport.measure(
+                "addAllToQueue (" + size + ")", iterations, iterations, () -> {
+                    player.clearQueue();
+                    player.addAllToQueue(tracks);
+                    return player.getQueue();
+                });
+            int bulkEvents = events.getAndSet(0) / (2 * iterations);
+            
+            BenchmarkSupport.Result load = BenchmarkSupport.measure(
+                "loadPlaylist (" + size + ")", iterations, iterations, () -> {
+                    player.loadPlaylist(playlist);
+                    return player.getQueue();
+                });
+            
+            assertEquals(size, player.getQueue().size());
+            logger.info("{}", perTrack);
+            logger.info("{}", bulk);
+            logger.info("{}", load);
+            logger.info("Queue events per load: {} per track, {} bulk", perTrackEvents, bulkEvents);
+            logger.info("Bulk speedup: {}x", String.format("%.1f", perTrack.nanosPerOp() / bulk.nanosPerOp()));
+        }
+    }
+}
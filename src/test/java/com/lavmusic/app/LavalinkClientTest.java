@@ -0,0 +1,328 @@
+package com.lavmusic.app;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+import com.lavmusic.app.model.Track;
+import com.lavmusic.app.player.LavalinkClient;
+import okhttp3.Call;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for LavalinkClient request handling, using an interceptor in place of a server
+ */
+class LavalinkClientTest {
+    private static final MediaType JSON = MediaType.get("application/json");
+    
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private LavalinkClient client;
+    
+    /**
+     * Build a client whose HTTP calls are answered by the given interceptor
+     */
+    private LavalinkClient clientFor(Interceptor server) {
+        OkHttpClient http = new OkHttpClient.Builder()
+            .addInterceptor(chain -> {
+                requestCount.incrementAndGet();
+                return server.intercept(chain);
+            })
+            .build();
+        client = new LavalinkClient("localhost", 2333, "youshallnotpass", 20, http);
+        return client;
+    }
+    
+    static Response json(Interceptor.Chain chain, String body) {
+        return new Response.Builder()
+            .request(chain.request())
+            .protocol(Protocol.HTTP_1_1)
+            .code(200)
+            .message("OK")
+            .body(ResponseBody.create(body, JSON))
+            .build();
+    }
+    
+    static String searchResult(int count) {
+        return "{\"loadType\":\"search\",\"data\":" + LoadResultParserTest.tracksJson(count) + "}";
+    }
+    
+    @AfterEach
+    void tearDown() {
+        if (client != null) {
+            client.shutdown();
+        }
+    }
+    
+    @Test
+    void testSearchTracks() {
+        clientFor(chain -> json(chain, searchResult(3)));
+        
+        List<Track> tracks = client.searchTracks("song");
+        
+        assertEquals(3, tracks.size());
+        assertEquals("Song 0", tracks.get(0).getTitle());
+        assertEquals(1, requestCount.get());
+    }
+    
+    @Test
+    void testConcurrentIdenticalSearchesShareOneCall() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        clientFor(chain -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            return json(chain, searchResult(5));
+        });
+        
+        int callers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<List<Track>>> futures = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                futures.add(executor.submit(() -> client.searchTracks("same query")));
+            }
+            
+            // Release the leader only once every other caller has joined it
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (client.getCoalescedSearchCount() < callers - 1 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            
+            List<Track> first = futures.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<List<Track>> future : futures) {
+                assertSame(first, future.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(5, first.size());
+            assertEquals(1, requestCount.get());
+            assertEquals(callers - 1, client.getCoalescedSearchCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    void testSequentialSearchesAreNotCoalesced() {
+        clientFor(chain -> json(chain, searchResult(1)));
+        
+        client.searchTracks("song");
+        client.searchTracks("song");
+        
+        assertEquals(2, requestCount.get());
+        assertEquals(0, client.getCoalescedSearchCount());
+    }
+    
+    @Test
+    void testFailedSearchReturnsEmpty() {
+        clientFor(chain -> {
+            throw new IOException("connection reset");
+        });
+        
+        assertTrue(client.searchTracks("song").isEmpty());
+    }
+    
+    @Test
+    void testSearchTracksAsync() throws Exception {
+        clientFor(chain -> json(chain, searchResult(2)));
+        
+        List<Track> tracks = client.searchTracksAsync("song").get(5, TimeUnit.SECONDS);
+        
+        assertEquals(2, tracks.size());
+    }
+    
+    @Test
+    void testAsyncSearchFailureCompletesExceptionally() {
+        clientFor(chain -> {
+            throw new IOException("connection reset");
+        });
+        
+        CompletableFuture<List<Track>> future = client.searchTracksAsync("song");
+        
+        assertThrows(Exception.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertTrue(future.isCompletedExceptionally());
+    }
+    
+    @Test
+    void testCancelAbortsHttpCall() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicReference<Call> httpCall = new AtomicReference<>();
+        clientFor(chain -> {
+            httpCall.set(chain.call());
+            started.countDown();
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            return json(chain, searchResult(1));
+        });
+        
+        CompletableFuture<List<Track>> future = client.searchTracksAsync("stale query");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        
+        future.cancel(true);
+        
+        assertTrue(httpCall.get().isCanceled());
+        assertThrows(CancellationException.class, future::join);
+    }
+    
+    @Test
+    void testCancelOneOfSharedSearchesKeepsCall() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Call> httpCall = new AtomicReference<>();
+        clientFor(chain -> {
+            httpCall.set(chain.call());
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            return json(chain, searchResult(3));
+        });
+        
+        CompletableFuture<List<Track>> first = client.searchTracksAsync("shared");
+        CompletableFuture<List<Track>> second = client.searchTracksAsync("shared");
+        
+        first.cancel(true);
+        release.countDown();
+        
+        assertEquals(3, second.get(5, TimeUnit.SECONDS).size());
+        assertFalse(httpCall.get().isCanceled());
+        assertEquals(1, requestCount.get());
+    }
+    
+    @Test
+    void testStreamingSearchDeliversEachTrack() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        clientFor(chain -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            return json(chain, searchResult(4));
+        });
+        
+        List<Track> streamed = new CopyOnWriteArrayList<>();
+        List<Track> joined = new CopyOnWriteArrayList<>();
+        List<Track> cancelled = new CopyOnWriteArrayList<>();
+        CompletableFuture<List<Track>> first = client.searchTracksAsync("live", streamed::add);
+        CompletableFuture<List<Track>> second = client.searchTracksAsync("live", joined::add);
+        CompletableFuture<List<Track>> third = client.searchTracksAsync("live", cancelled::add);
+        third.cancel(true);
+        release.countDown();
+        
+        List<Track> tracks = first.get(5, TimeUnit.SECONDS);
+        assertEquals(4, tracks.size());
+        assertEquals(tracks, streamed);
+        assertEquals(tracks, second.get(5, TimeUnit.SECONDS));
+        assertEquals(tracks, joined);
+        assertTrue(cancelled.isEmpty());
+        assertEquals(1, requestCount.get());
+    }
+    
+    @Test
+    void testLoadTracksAsyncIsNotCapped() throws Exception {
+        clientFor(chain -> json(chain, LoadResultParserTest.playlistJson(50)));
+        
+        List<Track> tracks = client.loadTracksAsync("https://example.com/playlist").get(5, TimeUnit.SECONDS);
+        
+        assertEquals(50, tracks.size());
+    }
+    
+    @Test
+    void testDecodeTracksAsync() throws Exception {
+        AtomicReference<String> endpoint = new AtomicReference<>();
+        clientFor(chain -> {
+            endpoint.set(chain.request().method() + " " + chain.request().url().encodedPath());
+            return json(chain, LoadResultParserTest.tracksJson(2));
+        });
+        
+        List<Track> tracks = client.decodeTracksAsync(List.of("QAAA1", "QAAA2")).get(5, TimeUnit.SECONDS);
+        
+        assertEquals("POST /v4/decodetracks", endpoint.get());
+        assertEquals(2, tracks.size());
+        assertEquals("Song 1", tracks.get(1).getTitle());
+    }
+    
+    /**
+     * Answer decodetracks requests with one track per encoded value, titled after it
+     */
+    private static Response decodeEcho(Interceptor.Chain chain) throws IOException {
+        Buffer buffer = new Buffer();
+        chain.request().body().writeTo(buffer);
+        JsonArray encoded = JsonParser.parseString(buffer.readUtf8()).getAsJsonArray();
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < encoded.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"encoded\":\"").append(encoded.get(i).getAsString())
+                .append("\",\"info\":{\"title\":\"").append(encoded.get(i).getAsString())
+                .append("\",\"author\":\"Artist\",\"length\":1000}}");
+        }
+        return json(chain, sb.append(']').toString());
+    }
+    
+    @Test
+    void testDecodeTracksAsyncChunksLargeLists() throws Exception {
+        clientFor(LavalinkClientTest::decodeEcho);
+        List<String> encoded = new ArrayList<>();
+        for (int i = 0; i < 2 * LavalinkClient.DECODE_CHUNK_SIZE + 7; i++) {
+            encoded.add("QAAA" + i);
+        }
+        
+        List<Track> tracks = client.decodeTracksAsync(encoded).get(5, TimeUnit.SECONDS);
+        
+        assertEquals(3, requestCount.get());
+        assertEquals(encoded.size(), tracks.size());
+        for (int i = 0; i < encoded.size(); i++) {
+            assertEquals(encoded.get(i), tracks.get(i).getTitle());
+        }
+    }
+    
+    @Test
+    void testDecodeTracksAsyncFailsWhenAChunkFails() {
+        AtomicInteger calls = new AtomicInteger();
+        clientFor(chain -> {
+            if (calls.incrementAndGet() == 2) {
+                throw new IOException("Chunk failed");
+            }
+            return decodeEcho(chain);
+        });
+        List<String> encoded = new ArrayList<>();
+        for (int i = 0; i < 3 * LavalinkClient.DECODE_CHUNK_SIZE; i++) {
+            encoded.add("QAAA" + i);
+        }
+        
+        CompletableFuture<List<Track>> future = client.decodeTracksAsync(encoded);
+        
+        Exception e = assertThrows(Exception.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, e.getCause());
+    }
+}
@@ -0,0 +1,499 @@
+package com.lavmusic.app;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.lavmusic.app.config.ConfigManager;
+import com.lavmusic.app.model.Track;
+import com.lavmusic.app.player.LavalinkClient;
+import com.lavmusic.app.player.LavalinkMessageParser;
+import com.lavmusic.app.player.LavalinkSession;
+import com.lavmusic.app.player.LavalinkSession.EndReason;
+import com.lavmusic.app.player.MusicPlayerManager;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okio.Buffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the Lavalink web socket session, using in-memory sockets in place of a server
+ */
+class LavalinkSessionTest {
+    
+    /**
+     * Hands out sockets that record what is done to them and keep their listener
+     */
+    private static class FakeSockets implements WebSocket.Factory {
+        final List<Request> requests = new ArrayList<>();
+        final List<WebSocketListener> listeners = new ArrayList<>();
+        final List<FakeSocket> sockets = new ArrayList<>();
+        
+        @Override
+        public WebSocket newWebSocket(Request request, WebSocketListener listener) {
+            FakeSocket socket = new FakeSocket(request);
+            requests.add(request);
+            listeners.add(listener);
+            sockets.add(socket);
+            return socket;
+        }
+        
+        /**
+         * Deliver a server message on the most recent socket
+         */
+        void push(String message) {
+            int last = sockets.size() - 1;
+            listeners.get(last).onMessage(sockets.get(last), message);
+        }
+        
+        void fail() {
+            int last = sockets.size() - 1;
+            listeners.get(last).onFailure(sockets.get(last), new IOException("Connection reset"), null);
+        }
+    }
+    
+    private static class FakeSocket implements WebSocket {
+        private final Request request;
+        boolean closed;
+        
+        FakeSocket(Request request) {
+            this.request = request;
+        }
+        
+        @Override
+        public boolean send(String text) {
+            return !closed;
+        }
+        
+        @Override
+        public boolean close(int code, String reason) {
+            closed = true;
+            return true;
+        }
+        
+        @Override
+        public void cancel() {
+            closed = true;
+        }
+        
+        @Override
+        public Request request() {
+            return request;
+        }
+        
+        @Override
+        public long queueSize() {
+            return 0;
+        }
+    }
+    
+    private final List<Request> httpRequests = new CopyOnWriteArrayList<>();
+    private final CountDownLatch requested = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private volatile boolean holdPlayerUpdates;
+    private volatile boolean failPlayerUpdates;
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+    private final FakeSockets sockets = new FakeSockets();
+    private LavalinkClient client;
+    
+    private LavalinkSession newSession() {
+        OkHttpClient http = new OkHttpClient.Builder()
+            .addInterceptor(chain -> {
+                httpRequests.add(chain.request());
+                requested.countDown();
+                if (holdPlayerUpdates && chain.request().url().encodedPath().contains("/players/")) {
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (failPlayerUpdates && chain.request().url().encodedPath().contains("/players/")) {
+                    throw new IOException("Connection reset");
+                }
+                return LavalinkClientTest.json(chain, "{}");
+            })
+            .build();
+        client = new LavalinkClient("localhost", 2333, "youshallnotpass", 20, http);
+        return new LavalinkSession(client, sockets, "42", scheduler);
+    }
+    
+    /**
+     * Run the pending reconnect now instead of waiting for its backoff
+     */
+    private void runReconnect() {
+        assertEquals(1, scheduler.getQueue().size());
+        Runnable reconnect = scheduler.getQueue().peek();
+        scheduler.getQueue().remove(reconnect);
+        reconnect.run();
+    }
+    
+    /**
+     * Wait until the player has sent at least {@code count} updates, and return their bodies
+     */
+    private List<JsonObject> awaitPlayerUpdates(int count) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (true) {
+            List<JsonObject> updates = new ArrayList<>();
+            for (Request request : httpRequests) {
+                if (request.url().encodedPath().contains("/players/")) {
+                    Buffer body = new Buffer();
+                    request.body().writeTo(body);
+                    updates.add(JsonParser.parseString(body.readUtf8()).getAsJsonObject());
+                }
+            }
+            if (updates.size() >= count || System.nanoTime() > deadline) {
+                return updates;
+            }
+            Thread.sleep(10);
+        }
+    }
+    
+    private static String ready(String sessionId, boolean resumed) {
+        return "{\"op\":\"ready\",\"resumed\":" + resumed + ",\"sessionId\":\"" + sessionId + "\"}";
+    }
+    
+    private static String playerUpdate(String guildId, long position) {
+        return "{\"op\":\"playerUpdate\",\"guildId\":\"" + guildId + "\","
+            + "\"state\":{\"time\":1500467109,\"position\":" + position + ",\"connected\":true,\"ping\":50}}";
+    }
+    
+    private static String trackEnd(String guildId, String uri, String reason) {
+        return "{\"op\":\"event\",\"type\":\"TrackEndEvent\",\"guildId\":\"" + guildId + "\","
+            + "\"track\":{\"encoded\":\"QAAAjQIAJVJpY2sg\",\"info\":{\"identifier\":\"" + uri + "\","
+            + "\"title\":\"Song\",\"length\":212000,\"uri\":\"" + uri + "\"},"
+            + "\"pluginInfo\":{},\"userData\":{}},\"reason\":\"" + reason + "\"}";
+    }
+    
+    /**
+     * Wait until the player's changes have all reached the server
+     */
+    private static void awaitSettled(MusicPlayerManager player) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!player.getPlayerUpdates().isPositionSettled()) {
+            assertTrue(System.nanoTime() < deadline, "Player updates did not complete");
+            Thread.sleep(10);
+        }
+    }
+    
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        scheduler.shutdownNow();
+        if (client != null) {
+            client.shutdown();
+        }
+    }
+    
+    @Test
+    void testParsesEveryMessage() throws IOException {
+        List<String> received = new ArrayList<>();
+        LavalinkSession.Listener recorder = new LavalinkSession.Listener() {
+            @Override
+            public void onReady(String sessionId, boolean resumed) {
+                received.add("ready " + sessionId + " " + resumed);
+            }
+            
+            @Override
+            public void onPlayerUpdate(LavalinkSession.PlayerState state) {
+                received.add("update " + state.guildId() + " " + state.positionMillis() + " " + state.connected());
+            }
+            
+            @Override
+            public void onTrackEnd(String guildId, LavalinkSession.EventTrack track, EndReason reason) {
+                received.add("end " + guildId + " " + track.identifier() + " " + reason);
+            }
+            
+            @Override
+            public void onTrackException(String guildId, LavalinkSession.EventTrack track, String message,
+                    String severity) {
+                received.add("exception " + guildId + " " + track.encoded() + " " + severity + " " + message);
+            }
+            
+            @Override
+            public void onTrackStuck(String guildId, LavalinkSession.EventTrack track, long thresholdMillis) {
+                received.add("stuck " + guildId + " " + track + " " + thresholdMillis);
+            }
+            
+            @Override
+            public void onStats(LavalinkSession.NodeStats stats) {
+                received.add("stats " + stats.players() + " " + stats.playingPlayers() + " " + stats.memoryUsed()
+                    + " " + stats.lavalinkLoad());
+            }
+        };
+        
+        List<String> messages = List.of(
+            ready("la3kfsdf5eafe848", false),
+            playerUpdate("817327181659111454", 60000),
+            trackEnd("817327181659111454", "dQw4w9WgXcQ", "finished"),
+            "{\"op\":\"event\",\"type\":\"TrackExceptionEvent\",\"guildId\":\"1\",\"track\":{\"encoded\":\"x\"},"
+                + "\"exception\":{\"message\":\"Video unavailable\",\"severity\":\"common\",\"cause\":\"...\"}}",
+            // The op may come last
+            "{\"type\":\"TrackStuckEvent\",\"guildId\":\"1\",\"thresholdMs\":10000,\"op\":\"event\"}",
+            "{\"op\":\"stats\",\"players\":3,\"playingPlayers\":1,\"uptime\":123456789,"
+                + "\"memory\":{\"free\":1,\"used\":2048,\"allocated\":4096,\"reservable\":8192},"
+                + "\"cpu\":{\"cores\":4,\"systemLoad\":0.5,\"lavalinkLoad\":0.25},"
+                + "\"frameStats\":{\"sent\":6000,\"nulled\":10,\"deficit\":-3010}}",
+            "{\"op\":\"event\",\"type\":\"WebSocketClosedEvent\",\"guildId\":\"1\",\"code\":4006}",
+            "{\"op\":\"somethingNew\",\"data\":[1,2,3]}");
+        for (String message : messages) {
+            LavalinkMessageParser.parse(new StringReader(message), recorder);
+        }
+        
+        assertEquals(List.of(
+            "ready la3kfsdf5eafe848 false",
+            "update 817327181659111454 60000 true",
+            "end 817327181659111454 dQw4w9WgXcQ FINISHED",
+            "exception 1 x common Video unavailable",
+            "stuck 1 null 10000",
+            "stats 3 1 2048 0.25"), received);
+    }
+    
+    @Test
+    void testEndReasons() {
+        assertTrue(EndReason.FINISHED.mayStartNext());
+        assertTrue(EndReason.LOAD_FAILED.mayStartNext());
+        assertFalse(EndReason.REPLACED.mayStartNext());
+        assertFalse(EndReason.STOPPED.mayStartNext());
+        assertFalse(EndReason.CLEANUP.mayStartNext());
+    }
+    
+    @Test
+    void testResumesAfterReconnect() throws Exception {
+        LavalinkSession session = newSession();
+        List<String> events = new CopyOnWriteArrayList<>();
+        session.addListener(new LavalinkSession.Listener() {
+            @Override
+            public void onReady(String sessionId, boolean resumed) {
+                events.add("ready " + resumed);
+            }
+            
+            @Override
+            public void onDisconnected() {
+                events.add("disconnected");
+            }
+        });
+        
+        session.start();
+        Request first = sockets.requests.get(0);
+        assertEquals("youshallnotpass", first.header("Authorization"));
+        assertEquals("42", first.header("User-Id"));
+        assertNull(first.header("Session-Id"));
+        
+        sockets.push(ready("abc", false));
+        assertTrue(session.isReady());
+        assertEquals("abc", session.getSessionId());
+        
+        // A fresh session is made resumable
+        assertTrue(requested.await(5, TimeUnit.SECONDS));
+        Request patch = httpRequests.get(0);
+        assertEquals("PATCH", patch.method());
+        assertTrue(patch.url().toString().endsWith("/v4/sessions/abc"));
+        Buffer body = new Buffer();
+        patch.body().writeTo(body);
+        JsonObject update = JsonParser.parseString(body.readUtf8()).getAsJsonObject();
+        assertTrue(update.get("resuming").getAsBoolean());
+        assertEquals(LavalinkSession.RESUME_TIMEOUT_SECONDS, update.get("timeout").getAsInt());
+        
+        sockets.fail();
+        assertFalse(session.isReady());
+        runReconnect();
+        assertEquals(2, sockets.requests.size());
+        assertEquals("abc", sockets.requests.get(1).header("Session-Id"));
+        
+        // Messages from the dropped socket are ignored
+        sockets.listeners.get(0).onMessage(sockets.sockets.get(0), ready("stale", false));
+        assertEquals("abc", session.getSessionId());
+        
+        sockets.push(ready("abc", true));
+        assertTrue(session.isReady());
+        assertEquals(List.of("ready false", "disconnected", "ready true"), events);
+        assertEquals(1, httpRequests.size());
+        
+        // Closing lets the server drop the players rather than keep them for a resume
+        session.close();
+        assertEquals(2, httpRequests.size());
+        Buffer closing = new Buffer();
+        httpRequests.get(1).body().writeTo(closing);
+        assertTrue(httpRequests.get(1).url().toString().endsWith("/v4/sessions/abc"));
+        assertFalse(JsonParser.parseString(closing.readUtf8()).getAsJsonObject().get("resuming").getAsBoolean());
+        assertTrue(sockets.sockets.get(1).closed);
+        assertFalse(session.isReady());
+        sockets.fail();
+        assertTrue(scheduler.getQueue().isEmpty(), "A closed session must not reconnect");
+    }
+    
+    @Test
+    void testPlayerFollowsServer() throws Exception {
+        MusicPlayerManager player = new MusicPlayerManager(new ConfigManager());
+        try {
+            String guildId = player.getConfig().getLavalinkGuildId();
+            LavalinkSession session = newSession();
+            player.followSession(session);
+            session.start();
+            sockets.push(ready("abc", false));
+            
+            Track first = new Track("First", "Artist", "https://example.com/1", 180000);
+            Track second = new Track("Second", "Artist", "https://example.com/2", 180000);
+            player.addToQueue(first);
+            player.addToQueue(second);
+            assertEquals(first, player.currentTrackProperty().get());
+            assertFalse(player.isFollowingServer());
+            
+            // Once it has the track, the server's position wins over the local clock
+            awaitSettled(player);
+            sockets.push(playerUpdate(guildId, 90000));
+            assertTrue(player.isFollowingServer());
+            assertTrue(Math.abs(player.getPlaybackClock().getPositionMillis() - 90000) < 1000);
+            assertEquals(0.5, player.positionProperty().get(), 0.01);
+            
+            // Other guilds and ends that do not move on are ignored
+            sockets.push(trackEnd(guildId + "1", first.getUri(), "finished"));
+            sockets.push(trackEnd(guildId, first.getUri(), "replaced"));
+            assertEquals(first, player.currentTrackProperty().get());
+            
+            sockets.push(trackEnd(guildId, first.getUri(), "finished"));
+            assertEquals(second, player.currentTrackProperty().get());
+            
+            // Without the server the local clock is in charge again
+            sockets.fail();
+            assertFalse(player.isFollowingServer());
+        } finally {
+            player.shutdown();
+        }
+    }
+    
+    @Test
+    void testPlaybackReachesTheServerPlayer() throws Exception {
+        MusicPlayerManager player = new MusicPlayerManager(new ConfigManager());
+        try {
+            Track track = new Track("Song", "Artist", "https://example.com/song", 180000);
+            // Played before the session is ready, so the server's player is created once it is
+            player.addToQueue(track);
+            player.setVolume(70);
+            
+            LavalinkSession session = newSession();
+            player.followSession(session);
+            session.start();
+            sockets.push(ready("abc", false));
+            
+            JsonObject created = awaitPlayerUpdates(1).get(0);
+            assertEquals("https://example.com/song", created.getAsJsonObject("track").get("identifier").getAsString());
+            assertFalse(created.get("paused").getAsBoolean());
+            assertEquals(70, created.get("volume").getAsInt());
+            
+            player.pause();
+            JsonObject paused = awaitPlayerUpdates(2).get(1);
+            assertTrue(paused.get("paused").getAsBoolean());
+            assertFalse(paused.has("track"));
+        } finally {
+            player.shutdown();
+        }
+    }
+    
+    @Test
+    void testEndOfASkippedTrackDoesNotSkipAgain() {
+        MusicPlayerManager player = new MusicPlayerManager(new ConfigManager());
+        try {
+            String guildId = player.getConfig().getLavalinkGuildId();
+            LavalinkSession session = newSession();
+            player.followSession(session);
+            session.start();
+            sockets.push(ready("abc", false));
+            
+            Track first = new Track("First", "Artist", "https://example.com/1", 180000);
+            Track second = new Track("Second", "Artist", "https://example.com/2", 180000);
+            Track third = new Track("Third", "Artist", "https://example.com/3", 180000);
+            player.addAllToQueue(List.of(first, second, third));
+            
+            // Next is pressed as the first track finishes on the server
+            player.skipNext();
+            sockets.push(trackEnd(guildId, first.getUri(), "finished"));
+            assertEquals(second, player.currentTrackProperty().get());
+            
+            sockets.push(trackEnd(guildId, second.getUri(), "finished"));
+            assertEquals(third, player.currentTrackProperty().get());
+        } finally {
+            player.shutdown();
+        }
+    }
+    
+    @Test
+    void testPositionsWaitForTheTrackToLoad() throws Exception {
+        MusicPlayerManager player = new MusicPlayerManager(new ConfigManager());
+        try {
+            String guildId = player.getConfig().getLavalinkGuildId();
+            LavalinkSession session = newSession();
+            player.followSession(session);
+            session.start();
+            sockets.push(ready("abc", false));
+            
+            Track first = new Track("First", "Artist", "https://example.com/1", 180000);
+            Track second = new Track("Second", "Artist", "https://example.com/2", 60000);
+            player.addAllToQueue(List.of(first, second));
+            awaitSettled(player);
+            
+            // The server reports the first track's position while the second is still loading
+            holdPlayerUpdates = true;
+            player.skipNext();
+            sockets.push(playerUpdate(guildId, 170000));
+            assertEquals(second, player.currentTrackProperty().get());
+            assertFalse(player.isFollowingServer());
+            assertTrue(player.getPlaybackClock().getPositionMillis() < 1000);
+            assertTrue(player.getPlaybackClock().isRunning());
+            
+            release.countDown();
+            awaitSettled(player);
+            sockets.push(playerUpdate(guildId, 5000));
+            assertTrue(player.isFollowingServer());
+            assertTrue(Math.abs(player.getPlaybackClock().getPositionMillis() - 5000) < 1000);
+        } finally {
+            player.shutdown();
+        }
+    }
+    
+    @Test
+    void testTrackTheServerNeverTookStillEnds() throws Exception {
+        MusicPlayerManager player = new MusicPlayerManager(new ConfigManager());
+        try {
+            String guildId = player.getConfig().getLavalinkGuildId();
+            LavalinkSession session = newSession();
+            player.followSession(session);
+            session.start();
+            sockets.push(ready("abc", false));
+            
+            Track first = new Track("First", "Artist", "https://example.com/1", 180000);
+            Track second = new Track("Second", "Artist", "https://example.com/2", 300);
+            Track third = new Track("Third", "Artist", "https://example.com/3", 180000);
+            player.addAllToQueue(List.of(first, second, third));
+            awaitSettled(player);
+            sockets.push(playerUpdate(guildId, 179000));
+            assertTrue(player.isFollowingServer());
+            
+            // Loading the second track fails while the socket stays up, so no event will end it
+            failPlayerUpdates = true;
+            sockets.push(trackEnd(guildId, first.getUri(), "finished"));
+            assertEquals(second, player.currentTrackProperty().get());
+            
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (player.currentTrackProperty().get() != third) {
+                assertTrue(System.nanoTime() < deadline, "Playback stalled on the track the server never took");
+                Thread.sleep(10);
+            }
+        } finally {
+            player.shutdown();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.lavmusic.app;
+
+import com.lavmusic.app.config.ConfigManager;
+import com.lavmusic.app.model.Playlist;
+import com.lavmusic.app.model.Track;
+import com.lavmusic.app.player.MusicPlayerManager;
+import com.lavmusic.app.storage.LibraryStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the append-only playlist and favorites store
+ */
+class LibraryStoreTest {
+    
+    @TempDir
+    Path directory;
+    
+    private LibraryStore store;
+    
+    @AfterEach
+    void tearDown() throws IOException {
+        if (store != null) {
+            store.close();
+        }
+    }
+    
+    private LibraryStore reopen() throws IOException {
+        if (store != null) {
+            store.close();
+        }
+        store = LibraryStore.open(directory);
+        return store;
+    }
+    
+    static Track fullTrack(int i) {
+        return new Track("Song " + i, "Artist " + (i % 7), "https://example.com/" + i, 180000 + i,
+            "id" + i, "youtube", i % 2 == 0, i % 5 == 0, new byte[] {(byte) i, 1, 2, 3});
+    }
+    
+    static List<Track> tracks(int count) {
+        return tracks(0, count);
+    }
+    
+    private static List<Track> tracks(int from, int to) {
+        List<Track> tracks = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            tracks.add(fullTrack(i));
+        }
+        return tracks;
+    }
+    
+    @Test
+    void testPlaylistsAndFavoritesSurviveReopen() throws IOException {
+        reopen();
+        Playlist mix = new Playlist("Mix", tracks(0, 10));
+        Playlist gone = new Playlist("Gone", tracks(10, 12));
+        store.addPlaylist(mix);
+        store.addPlaylist(gone);
+        mix.addTrack(fullTrack(10));
+        mix.removeTrack(0);
+        mix.setName("Daily Mix");
+        store.removePlaylist(gone);
+        store.addFavorite(fullTrack(3));
+        store.addFavorite(fullTrack(4));
+        store.removeFavorite(fullTrack(3));
+        
+        reopen();
+        
+        List<Playlist> playlists = store.getPlaylists();
+        assertEquals(1, playlists.size());
+        Playlist loaded = playlists.get(0);
+        assertEquals("Daily Mix", loaded.getName());
+        assertEquals(10, loaded.size());
+        assertFalse(loaded.isLoaded());
+        assertEquals(tracks(1, 11), loaded.getTracks());
+        assertTrue(loaded.isLoaded());
+        assertEquals(List.of(fullTrack(4)), store.getFavorites());
+    }
+    
+    @Test
+    void testTrackFieldsRoundTrip() throws IOException {
+        reopen();
+        Track bare = new Track(null, null, null, 0);
+        store.addPlaylist(new Playlist("All", List.of(fullTrack(5), fullTrack(6), bare)));
+        
+        reopen();
+        
+        List<Track> tracks = store.getPlaylists().get(0).getTracks();
+        Track stream = tracks.get(0);
+        assertEquals("Song 5", stream.getTitle());
+        assertEquals("Artist 5", stream.getAuthor());
+        assertEquals("https://example.com/5", stream.getUri());
+        assertEquals(180005, stream.getDuration());
+        assertEquals("id5", stream.getIdentifier());
+        assertEquals("youtube", stream.getSourceName());
+        assertFalse(stream.isSeekable());
+        assertTrue(stream.isStream());
+        assertEquals(fullTrack(5).getEncoded(), stream.getEncoded());
+        assertTrue(tracks.get(1).isSeekable());
+        assertFalse(tracks.get(1).isStream());
+        assertNull(tracks.get(2).getTitle());
+        assertFalse(tracks.get(2).hasEncoded());
+    }
+    
+    @Test
+    void testAddingATrackDoesNotRewriteTheLibrary() throws IOException {
+        reopen();
+        Playlist big = new Playlist("Big", tracks(0, 100_000));
+        store.addPlaylist(big);
+        long before = store.getLogSize();
+        
+        big.addTrack(fullTrack(100_000));
+        
+        assertTrue(before > 1_000_000);
+        assertTrue(store.getLogSize() - before < 200, "Grew by " + (store.getLogSize() - before));
+        assertEquals(100_001, reopen().getPlaylists().get(0).size());
+    }
+    
+    @Test
+    void testCompactionOnOpen() throws IOException {
+        reopen();
+        Playlist playlist = new Playlist("Growing");
+        store.addPlaylist(playlist);
+        for (int i = 0; i < LibraryStore.COMPACTION_MIN_RECORDS; i++) {
+            playlist.addTrack(fullTrack(i));
+        }
+        playlist.removeTrack(0);
+        store.addFavorite(fullTrack(1));
+        assertTrue(store.getRecordCount() > LibraryStore.COMPACTION_MIN_RECORDS);
+        
+        reopen();
+        
+        // Create, the snapshot of the tracks, and the favorites
+        assertEquals(3, store.getRecordCount());
+        assertFalse(store.getPlaylists().get(0).isLoaded());
+        assertEquals(tracks(1, LibraryStore.COMPACTION_MIN_RECORDS), store.getPlaylists().get(0).getTracks());
+        assertEquals(List.of(fullTrack(1)), store.getFavorites());
+        
+        // Ids survive compaction, so later changes still reach the right playlist
+        Playlist another = new Playlist("Another");
+        store.addPlaylist(another);
+        store.getPlaylists().get(0).setName("Grown");
+        reopen();
+        assertEquals("Grown", store.getPlaylists().get(0).getName());
+        assertEquals("Another", store.getPlaylists().get(1).getName());
+    }
+    
+    @Test
+    void testLargePlaylistIsMappedFromASnapshot() throws IOException {
+        reopen();
+        store.addPlaylist(new Playlist("Big", tracks(0, 20_000)));
+        assertTrue(store.getLogSize() > LibraryStore.SNAPSHOT_MIN_BYTES);
+        
+        // The tracks move out of the log into a snapshot
+        reopen();
+        assertTrue(store.getLogSize() < 1_000, "Log is " + store.getLogSize() + " bytes");
+        assertEquals(List.of("playlist-1-1.lib"), snapshots());
+        Playlist big = store.getPlaylists().get(0);
+        assertEquals(20_000, big.size());
+        assertFalse(big.isLoaded());
+        
+        // Changes after the snapshot are logged on top of it
+        big.removeTrack(0);
+        big.addTrack(fullTrack(20_000));
+        reopen();
+        assertEquals(tracks(1, 20_001), store.getPlaylists().get(0).getTracks());
+        
+        // A new snapshot replaces the old one
+        tracks(20_001, 40_000).forEach(store.getPlaylists().get(0)::addTrack);
+        reopen();
+        assertEquals(List.of("playlist-1-2.lib"), snapshots());
+        assertEquals(tracks(1, 40_000), store.getPlaylists().get(0).getTracks());
+    }
+    
+    private List<String> snapshots() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                .filter(name -> name.endsWith(".lib"))
+                .sorted()
+                .toList();
+        }
+    }
+    
+    @Test
+    void testIncompleteRecordIsDropped() throws IOException {
+        reopen();
+        Playlist playlist = new Playlist("Crash", tracks(0, 3));
+        store.addPlaylist(playlist);
+        playlist.addTrack(fullTrack(3));
+        long size = store.getLogSize();
+        store.close();
+        
+        // Simulate a crash in the middle of writing the last record
+        try (FileChannel channel = FileChannel.open(directory.resolve(LibraryStore.LOG_FILE), StandardOpenOption.WRITE)) {
+            channel.truncate(size - 5);
+        }
+        store = null;
+        reopen();
+        
+        assertEquals(tracks(0, 3), store.getPlaylists().get(0).getTracks());
+        store.getPlaylists().get(0).addTrack(fullTrack(9));
+        assertEquals(4, reopen().getPlaylists().get(0).size());
+    }
+    
+    @Test
+    void testDamagedTrackRecordEndsTheLog() throws IOException {
+        reopen();
+        Playlist playlist = new Playlist("Damaged", tracks(0, 3));
+        store.addPlaylist(playlist);
+        long damaged = store.getLogSize();
+        playlist.addTrack(fullTrack(3));
+        playlist.addTrack(fullTrack(4));
+        store.close();
+        
+        // Flip a bit inside the payload of the first added track
+        try (FileChannel channel = FileChannel.open(directory.resolve(LibraryStore.LOG_FILE),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer value = ByteBuffer.allocate(1);
+            channel.read(value, damaged + 30);
+            value.put(0, (byte) (value.get(0) ^ 1)).rewind();
+            channel.write(value, damaged + 30);
+        }
+        store = null;
+        reopen();
+        
+        assertEquals(damaged, store.getLogSize());
+        assertEquals(tracks(0, 3), store.getPlaylists().get(0).getTracks());
+    }
+    
+    @Test
+    void testPlayerSavesToLibrary() throws IOException {
+        MusicPlayerManager player = new MusicPlayerManager(new ConfigManager(), reopen());
+        Playlist playlist = player.createPlaylist("Road Trip");
+        playlist.addTrack(fullTrack(1));
+        player.addToFavorites(fullTrack(2));
+        player.shutdown();
+        store = null;
+        
+        player = new MusicPlayerManager(new ConfigManager(), reopen());
+        try {
+            assertEquals(1, player.getPlaylists().size());
+            assertEquals(List.of(fullTrack(1)), player.getPlaylists().get(0).getTracks());
+            assertTrue(player.isFavorite(fullTrack(2)));
+            
+            player.deletePlaylist(player.getPlaylists().get(0));
+        } finally {
+            player.shutdown();
+            store = null;
+        }
+        assertTrue(reopen().getPlaylists().isEmpty());
+    }
+}
@@ -0,0 +1,79 @@
+package com.lavmusic.app;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.lavmusic.app.model.Track;
+import com.lavmusic.app.player.LoadResultParser;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares the streaming loadtracks decoder against a full Gson tree parse
+ * on large playlist responses
+ */
+@Tag("benchmark")
+class LoadResultParserBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(LoadResultParserBenchmark.class);
+    private static final int LIMIT = 20;
+    
+    private final Gson gson = new Gson();
+    
+    /**
+     * The pre-streaming approach: read the whole body, build the tree, keep the first tracks
+     */
+    private List<Track> parseTree(byte[] body) {
+        String responseBody = new String(body, StandardCharsets.UTF_8);
+        JsonObject json = gson.fromJson(responseBody, JsonObject.class);
+        List<Track> tracks = new ArrayList<>();
+        for (JsonElement element : json.getAsJsonObject("data").getAsJsonArray("tracks")) {
+            JsonObject info = element.getAsJsonObject().getAsJsonObject("info");
+            tracks.add(new Track(
+                info.get("title").getAsString(),
+                info.get("author").getAsString(),
+                info.get("uri").getAsString(),
+                info.get("length").getAsLong()));
+            if (tracks.size() >= LIMIT) {
+                break;
+            }
+        }
+        return tracks;
+    }
+    
+    private List<Track> parseStreaming(byte[] body) throws Exception {
+        return LoadResultParser.parseTracks(
+            new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8), LIMIT);
+    }
+    
+    @Test
+    void benchmarkPlaylistDecode() throws Exception {
+        for (int size : new int[] {100, 1_000, 5_000}) {
+            byte[] body = LoadResultParserTest.playlistJson(size).getBytes(StandardCharsets.UTF_8);
+            
+            assertEquals(parseTree(body).size(), parseStreaming(body).size());
+            
+            int iterations = Math.max(20, 20_000 / size);
+            BenchmarkSupport.Result tree = BenchmarkSupport.measure(
+                "tree parse (" + size + " tracks)", iterations, iterations, () -> parseTree(body));
+            BenchmarkSupport.Result streaming = BenchmarkSupport.measure(
+                "streaming parse (" + size + " tracks)", iterations, iterations, () -> parseStreaming(body));
+            
+            logger.info("Body size: {} KiB", body.length / 1024);
+            logger.info("{}", tree);
+            logger.info("{}", streaming);
+            logger.info("Speedup: {}x, allocation ratio: {}x",
+                String.format("%.1f", tree.nanosPerOp() / streaming.nanosPerOp()),
+                String.format("%.1f", tree.bytesPerOp() / streaming.bytesPerOp()));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.lavmusic.app;
+
+import com.lavmusic.app.model.Track;
+import com.lavmusic.app.player.LoadResultParser;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the streaming Lavalink loadtracks decoder
+ */
+class LoadResultParserTest {
+    
+    static String trackJson(int i) {
+        return "{\"encoded\":\"" + encoded(i) + "\","
+            + "\"info\":{\"identifier\":\"id" + i + "\",\"isSeekable\":true,\"author\":\"Artist " + i + "\","
+            + "\"length\":" + (180000 + i) + ",\"isStream\":false,\"position\":0,"
+            + "\"title\":\"Song " + i + "\",\"uri\":\"https://example.com/" + i + "\","
+            + "\"artworkUrl\":\"https://img.example.com/" + i + ".jpg\",\"isrc\":\"USRC1700000" + i + "\","
+            + "\"sourceName\":\"youtube\"},"
+            + "\"pluginInfo\":{\"albumName\":\"Album\",\"previewUrl\":null,\"nested\":{\"a\":[1,2,3]}},"
+            + "\"userData\":{}}";
+    }
+    
+    static String encoded(int i) {
+        return Base64.getEncoder().encodeToString(("QAAAjQIAJVJpY2sgQXN0bGV5IC0gTmV2ZXIgR29ubmEgR2l2ZSBZb3UgVXA" + i)
+            .getBytes(StandardCharsets.UTF_8));
+    }
+    
+    static String tracksJson(int count) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(trackJson(i));
+        }
+        return sb.append(']').toString();
+    }
+    
+    static String playlistJson(int count) {
+        return "{\"loadType\":\"playlist\",\"data\":{\"info\":{\"name\":\"Big Playlist\",\"selectedTrack\":-1},"
+            + "\"pluginInfo\":{},\"tracks\":" + tracksJson(count) + "}}";
+    }
+    
+    @Test
+    void testParseSearchResult() throws IOException {
+        String json = "{\"loadType\":\"search\",\"data\":" + tracksJson(3) + "}";
+        
+        List<Track> tracks = LoadResultParser.parseTracks(new StringReader(json), 20);
+        
+        assertEquals(3, tracks.size());
+        assertEquals("Song 0", tracks.get(0).getTitle());
+        assertEquals("Artist 0", tracks.get(0).getAuthor());
+        assertEquals("https://example.com/0", tracks.get(0).getUri());
+        assertEquals(180000, tracks.get(0).getDuration());
+        assertEquals("id0", tracks.get(0).getIdentifier());
+        assertEquals("youtube", tracks.get(0).getSourceName());
+        assertTrue(tracks.get(0).isSeekable());
+        assertFalse(tracks.get(0).isStream());
+        assertEquals(encoded(0), tracks.get(0).getEncoded());
+        assertEquals("Song 2", tracks.get(2).getTitle());
+    }
+    
+    @Test
+    void testParseSingleTrack() throws IOException {
+        String json = "{\"loadType\":\"track\",\"data\":" + trackJson(7) + "}";
+        
+        List<Track> tracks = LoadResultParser.parseTracks(new StringReader(json), 20);
+        
+        assertEquals(1, tracks.size());
+        assertEquals("Song 7", tracks.get(0).getTitle());
+    }
+    
+    @Test
+    void testParsePlaylistStopsAtLimit() throws IOException {
+        List<Track> tracks = LoadResultParser.parseTracks(new StringReader(playlistJson(500)), 20);
+        
+        assertEquals(20, tracks.size());
+        assertEquals("Song 0", tracks.get(0).getTitle());
+        assertEquals("Song 19", tracks.get(19).getTitle());
+    }
+    
+    @Test
+    void testParseStopsBeforeMalformedTail() throws IOException {
+        // Everything after the limit is never read, so a truncated body still decodes
+        String json = "{\"loadType\":\"search\",\"data\":[" + trackJson(0) + "," + trackJson(1) + ",{\"info\":{\"tit";
+        
+        List<Track> tracks = LoadResultParser.parseTracks(new StringReader(json), 2);
+        
+        assertEquals(2, tracks.size());
+    }
+    
+    @Test
+    void testTracksAreHandedOverWhileReading() {
+        // The body breaks off after two tracks; both were passed on before the failure
+        String json = "{\"loadType\":\"search\",\"data\":[" + trackJson(0) + "," + trackJson(1) + ",{\"info\":{\"tit";
+        List<Track> streamed = new ArrayList<>();
+        
+        assertThrows(IOException.class, () -> LoadResultParser.parseTracks(new StringReader(json), 5, streamed::add));
+        
+        assertEquals(2, streamed.size());
+        assertEquals("Song 1", streamed.get(1).getTitle());
+    }
+    
+    @Test
+    void testParseEmptyAndErrorResults() throws IOException {
+        String empty = "{\"loadType\":\"empty\",\"data\":{}}";
+        String error = "{\"loadType\":\"error\",\"data\":{\"message\":\"Video unavailable\","
+            + "\"severity\":\"common\",\"cause\":\"...\"}}";
+        
+        assertTrue(LoadResultParser.parseTracks(new StringReader(empty), 20).isEmpty());
+        assertTrue(LoadResultParser.parseTracks(new StringReader(error), 20).isEmpty());
+    }
+    
+    @Test
+    void testParseNullUri() throws IOException {
+        String json = "{\"loadType\":\"search\",\"data\":[{\"encoded\":\"x\",\"info\":"
+            + "{\"title\":\"Live\",\"author\":\"Radio\",\"uri\":null,\"length\":0}}]}";
+        
+        List<Track> tracks = LoadResultParser.parseTracks(new StringReader(json), 20);
+        
+        assertEquals(1, tracks.size());
+        assertNull(tracks.get(0).getUri());
+    }
+}
@@ -0,0 +1,64 @@
+package com.lavmusic.app;
+
+import com.lavmusic.app.model.Track;
+import com.lavmusic.app.player.LocalSearchIndex;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Query latency of the local search index over a large library, compared with a linear scan
+ */
+@Tag("benchmark")
+class LocalSearchBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(LocalSearchBenchmark.class);
+    private static final int TRACKS = 100_000;
+    private static final String[] WORDS = {"love", "night", "dance", "heart", "fire", "dream", "summer", "rain"};
+    
+    private static List<Track> library() {
+        List<Track> tracks = new ArrayList<>(TRACKS);
+        for (int i = 0; i < TRACKS; i++) {
+            String title = WORDS[i % WORDS.length] + " " + WORDS[(i / 8) % WORDS.length] + " " + i;
+            tracks.add(new Track(title, "Artist " + (i % 1000), "https://example.com/" + i, 180000));
+        }
+        return tracks;
+    }
+    
+    @Test
+    void benchmarkSearch() throws Exception {
+        List<Track> tracks = library();
+        LocalSearchIndex index = new LocalSearchIndex();
+        long start = System.nanoTime();
+        index.addAll(tracks, LocalSearchIndex.Source.PLAYLIST);
+        logger.info("Indexed {} tracks in {} ms", TRACKS, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        
+        BenchmarkSupport.Result selective = BenchmarkSupport.measure("index: 'artist 42'", 200, 2_000,
+            () -> index.search("artist 42", 25));
+        BenchmarkSupport.Result broad = BenchmarkSupport.measure("index: 'love ni'", 200, 2_000,
+            () -> index.search("love ni", 25));
+        BenchmarkSupport.Result scan = BenchmarkSupport.measure("linear scan: 'love ni'", 5, 20, () -> {
+            List<Track> found = new ArrayList<>();
+            for (Track track : tracks) {
+                List<String> words = LocalSearchIndex.tokenize(track.getTitle());
+                if (words.contains("love") && words.stream().anyMatch(w -> w.startsWith("ni"))) {
+                    found.add(track);
+                }
+            }
+            return found;
+        });
+        
+        assertEquals(25, index.search("love ni", 25).size());
+        assertTrue(selective.nanosPerOp() < 1_000_000, "Selective query took " + selective.nanosPerOp() + " ns");
+        assertTrue(broad.nanosPerOp() < scan.nanosPerOp());
+        logger.info("{}", selective);
+        logger.info("{}", broad);
+        logger.info("{}", scan);
+    }
+}
@@ -0,0 +1,147 @@
+package com.lavmusic.app;
+
+import com.lavmusic.app.config.ConfigManager;
+import com.lavmusic.app.model.Playlist;
+import com.lavmusic.app.model.Track;
+import com.lavmusic.app.player.LocalSearchIndex;
+import com.lavmusic.app.player.LocalSearchIndex.Source;
+import com.lavmusic.app.player.MusicPlayerManager;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the local title and author search index
+ */
+class LocalSearchIndexTest {
+    
+    private static Track track(String title, String author) {
+        return new Track(title, author, "https://example.com/" + title.hashCode(), 180000);
+    }
+    
+    @Test
+    void testTokenizeFoldsCaseAndDiacritics() {
+        assertEquals(List.of("beyonce", "halo"), LocalSearchIndex.tokenize("Beyoncé - HALO"));
+        assertEquals(List.of("sigur", "ros", "hoppipolla"), LocalSearchIndex.tokenize("Sigur Rós: Hoppípolla"));
+        assertEquals(List.of("mo", "strasse", "2"), LocalSearchIndex.tokenize("Mø  Straße #2"));
+        assertTrue(LocalSearchIndex.tokenize("  ...  ").isEmpty());
+    }
+    
+    @Test
+    void testPrefixMatchOnEveryWord() {
+        LocalSearchIndex index = new LocalSearchIndex();
+        Track halo = track("Halo", "Beyoncé");
+        Track hello = track("Hello", "Adele");
+        index.add(halo, Source.FAVORITE);
+        index.add(hello, Source.FAVORITE);
+        
+        assertEquals(List.of(halo), index.search("beyon", 10));
+        assertEquals(List.of(halo), index.search("HAL BEY", 10));
+        assertEquals(2, index.search("h", 10).size());
+        assertTrue(index.search("halo adele", 10).isEmpty());
+        assertTrue(index.search("", 10).isEmpty());
+    }
+    
+    @Test
+    void testRanking() {
+        LocalSearchIndex index = new LocalSearchIndex();
+        Track byAuthor = track("Something Else", "Queen");
+        Track prefix = track("Queens of the Night", "Someone");
+        Track exact = track("Queen", "Someone");
+        index.add(byAuthor, Source.PLAYLIST);
+        index.add(prefix, Source.PLAYLIST);
+        index.add(exact, Source.PLAYLIST);
+        
+        // Whole words beat prefixes, and titles beat authors
+        assertEquals(List.of(exact, byAuthor, prefix), index.search("queen", 10));
+        assertEquals(List.of(exact), index.search("queen", 1));
+        
+        // Favorites rank above otherwise equal matches
+        Track favorite = track("Queen", "Anyone");
+        index.add(favorite, Source.FAVORITE);
+        assertEquals(favorite, index.search("queen", 10).get(0));
+    }
+    
+    @Test
+    void testSourcesAreCountedSeparately() {
+        LocalSearchIndex index = new LocalSearchIndex();
+        Track song = track("Song", "Artist");
+        index.add(song, Source.FAVORITE);
+        index.add(song, Source.PLAYLIST);
+        index.add(song, Source.PLAYLIST);
+        assertEquals(1, index.size());
+        
+        index.remove(song, Source.FAVORITE);
+        index.remove(song, Source.PLAYLIST);
+        assertEquals(List.of(song), index.search("song", 10));
+        
+        index.remove(song, Source.PLAYLIST);
+        assertTrue(index.search("song", 10).isEmpty());
+        assertEquals(0, index.size());
+        
+        // A track removed and added again is found once
+        index.add(song, Source.HISTORY);
+        assertEquals(List.of(song), index.search("song", 10));
+    }
+    
+    @Test
+    void testRemovedTrackTakesItsWordsAlong() {
+        LocalSearchIndex index = new LocalSearchIndex();
+        Track old = track("Yesterday", "Beatles");
+        Track fresh = track("Today", "Smashing Pumpkins");
+        index.add(old, Source.HISTORY);
+        index.remove(old, Source.HISTORY);
+        
+        // The new track takes over the freed doc id without inheriting the old words
+        index.add(fresh, Source.HISTORY);
+        assertTrue(index.search("yesterday", 10).isEmpty());
+        assertTrue(index.search("beatles", 10).isEmpty());
+        assertEquals(List.of(fresh), index.search("today", 10));
+        assertEquals(1, index.size());
+    }
+    
+    @Test
+    void testReplaceSource() {
+        LocalSearchIndex index = new LocalSearchIndex();
+        Track first = track("First", "Artist");
+        Track second = track("Second", "Artist");
+        index.add(first, Source.HISTORY);
+        index.add(first, Source.FAVORITE);
+        
+        index.replace(Source.HISTORY, List.of(second));
+        assertEquals(2, index.search("artist", 10).size());
+        
+        index.replace(Source.HISTORY, List.of());
+        assertEquals(List.of(first), index.search("artist", 10));
+    }
+    
+    @Test
+    void testPlayerSearchesFavoritesPlaylistsAndHistory() {
+        MusicPlayerManager player = new MusicPlayerManager(new ConfigManager());
+        try {
+            Track favorite = track("Bohemian Rhapsody", "Queen");
+            Track listed = track("Radio Ga Ga", "Queen");
+            Track played = track("Under Pressure", "Queen & David Bowie");
+            player.addToFavorites(favorite);
+            Playlist playlist = player.createPlaylist("Queen");
+            playlist.addTrack(listed);
+            player.play(played);
+            
+            assertEquals(3, player.searchLocal("queen").size());
+            assertEquals(List.of(played), player.searchLocal("bowie"));
+            
+            playlist.removeTrack(0);
+            player.removeFromFavorites(favorite);
+            assertEquals(List.of(played), player.searchLocal("queen"));
+            
+            Playlist saved = player.saveQueueAsPlaylist("Saved");
+            assertEquals(List.of(played), player.searchLocal("pressure"));
+            player.deletePlaylist(saved);
+            assertEquals(List.of(played), player.searchLocal("pressure"));
+        } finally {
+            player.shutdown();
+        }
+    }
+}
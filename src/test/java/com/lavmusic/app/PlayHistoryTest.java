@@ -0,0 +1,155 @@
+package com.lavmusic.app;
+
+import com.lavmusic.app.config.ConfigManager;
+import com.lavmusic.app.model.Track;
+import com.lavmusic.app.player.MusicPlayerManager;
+import com.lavmusic.app.player.PlayHistory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for PlayHistory navigation and the player's previous/next behaviour
+ */
+class PlayHistoryTest {
+    private MusicPlayerManager player;
+    
+    @AfterEach
+    void tearDown() {
+        if (player != null) {
+            player.shutdown();
+        }
+    }
+    
+    private static Track track(int i) {
+        return PlaybackQueueTest.track(i);
+    }
+    
+    @Test
+    void testBackAndForward() {
+        PlayHistory history = new PlayHistory(10);
+        for (int i = 0; i < 3; i++) {
+            history.record(track(i));
+        }
+        
+        assertEquals("Song 1", history.back().getTitle());
+        assertEquals("Song 0", history.back().getTitle());
+        assertNull(history.back());
+        assertEquals("Song 1", history.forward().getTitle());
+        assertEquals("Song 2", history.forward().getTitle());
+        assertNull(history.forward());
+    }
+    
+    @Test
+    void testRecordAfterGoingBackDropsForwardEntries() {
+        PlayHistory history = new PlayHistory(10);
+        for (int i = 0; i < 3; i++) {
+            history.record(track(i));
+        }
+        
+        history.back();
+        history.back();
+        history.record(track(9));
+        
+        assertFalse(history.canGoForward());
+        assertEquals(2, history.size());
+        assertEquals("Song 0", history.getTracks().get(0).getTitle());
+        assertEquals("Song 9", history.current().getTitle());
+    }
+    
+    @Test
+    void testRecordReportsDroppedEntries() {
+        PlayHistory history = new PlayHistory(3);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(history.record(track(i)).isEmpty());
+        }
+        
+        assertEquals(List.of(track(0)), history.record(track(3)));
+        history.back();
+        history.back();
+        assertEquals(List.of(track(2), track(3)), history.record(track(4)));
+    }
+    
+    @Test
+    void testOnlyRememberedTracksAreSearchable() {
+        ConfigManager config = new ConfigManager();
+        player = new MusicPlayerManager(config);
+        int size = config.getHistorySize();
+        for (int i = 0; i <= size; i++) {
+            player.play(track(i));
+        }
+        
+        assertTrue(player.searchLocal("song 0").isEmpty());
+        assertEquals(track(1), player.searchLocal("song 1").get(0));
+        assertEquals(track(size), player.searchLocal("song " + size).get(0));
+    }
+    
+    @Test
+    void testCapacityIsBounded() {
+        PlayHistory history = new PlayHistory(5);
+        for (int i = 0; i < 1_000; i++) {
+            history.record(track(i));
+        }
+        
+        assertEquals(5, history.size());
+        assertEquals("Song 995", history.getTracks().get(0).getTitle());
+        assertEquals("Song 999", history.current().getTitle());
+        for (int i = 0; i < 4; i++) {
+            assertNotNull(history.back());
+        }
+        assertNull(history.back());
+        assertEquals("Song 995", history.current().getTitle());
+    }
+    
+    @Test
+    void testSkipPreviousWalksBackAndSkipNextWalksForward() {
+        player = new MusicPlayerManager(new ConfigManager());
+        player.play(track(0));
+        player.play(track(1));
+        player.play(track(2));
+        
+        player.skipPrevious();
+        assertEquals("Song 1", player.currentTrackProperty().get().getTitle());
+        player.skipPrevious();
+        assertEquals("Song 0", player.currentTrackProperty().get().getTitle());
+        
+        // Nothing before the first track: restart it
+        player.skipPrevious();
+        assertEquals("Song 0", player.currentTrackProperty().get().getTitle());
+        
+        player.skipNext();
+        assertEquals("Song 1", player.currentTrackProperty().get().getTitle());
+        player.skipNext();
+        assertEquals("Song 2", player.currentTrackProperty().get().getTitle());
+    }
+    
+    @Test
+    void testSkipPreviousAfterStopReturnsToTheLastTrack() {
+        player = new MusicPlayerManager(new ConfigManager());
+        player.play(track(0));
+        player.play(track(1));
+        player.stop();
+        
+        player.skipPrevious();
+        assertEquals("Song 1", player.currentTrackProperty().get().getTitle());
+        player.skipPrevious();
+        assertEquals("Song 0", player.currentTrackProperty().get().getTitle());
+    }
+    
+    @Test
+    void testSkipNextFallsBackToQueue() {
+        player = new MusicPlayerManager(new ConfigManager());
+        player.addToQueue(track(0));
+        player.addToQueue(track(1));
+        
+        player.skipNext();
+        assertEquals("Song 1", player.currentTrackProperty().get().getTitle());
+        player.skipPrevious();
+        assertEquals("Song 0", player.currentTrackProperty().get().getTitle());
+        player.skipNext();
+        assertEquals("Song 1", player.currentTrackProperty().get().getTitle());
+    }
+}
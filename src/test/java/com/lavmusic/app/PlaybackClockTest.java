@@ -0,0 +1,183 @@
+package com.lavmusic.app;
+
+import com.lavmusic.app.player.PlaybackClock;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for PlaybackClock position tracking, tick scheduling and track end detection
+ */
+class PlaybackClockTest {
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+    private final AtomicLong now = new AtomicLong();
+    
+    PlaybackClockTest() {
+        // Same policy as the application scheduler
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+    
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdownNow();
+    }
+    
+    private static long millis(long value) {
+        return TimeUnit.MILLISECONDS.toNanos(value);
+    }
+    
+    @Test
+    void testPositionFollowsMonotonicClock() {
+        PlaybackClock clock = new PlaybackClock(scheduler, now::get);
+        
+        clock.start(60_000);
+        now.addAndGet(millis(1500));
+        assertEquals(1500, clock.getPositionMillis());
+        
+        clock.pause();
+        now.addAndGet(millis(5000));
+        assertEquals(1500, clock.getPositionMillis());
+        
+        clock.resume();
+        now.addAndGet(millis(500));
+        assertEquals(2000, clock.getPositionMillis());
+        
+        clock.seek(30_000);
+        now.addAndGet(millis(250));
+        assertEquals(30_250, clock.getPositionMillis());
+        
+        clock.stop();
+    }
+    
+    @Test
+    void testPositionNeverExceedsDuration() {
+        PlaybackClock clock = new PlaybackClock(scheduler, now::get);
+        
+        clock.start(1000);
+        now.addAndGet(millis(5000));
+        
+        assertEquals(1000, clock.getPositionMillis());
+        clock.stop();
+    }
+    
+    @Test
+    void testTickRateAdaptsToState() {
+        PlaybackClock clock = new PlaybackClock(scheduler, now::get);
+        
+        clock.start(60_000);
+        assertEquals(PlaybackClock.FOREGROUND_TICK_MILLIS, clock.getTickPeriodMillis());
+        
+        clock.setBackground(true);
+        assertEquals(PlaybackClock.BACKGROUND_TICK_MILLIS, clock.getTickPeriodMillis());
+        
+        clock.pause();
+        assertEquals(0, clock.getTickPeriodMillis());
+        
+        clock.stop();
+    }
+    
+    @Test
+    void testTrackChangesReuseScheduledTicker() throws InterruptedException {
+        PlaybackClock clock = new PlaybackClock(scheduler, now::get);
+        // Occupy the only scheduler thread so no task runs and leaves the queue meanwhile
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.execute(() -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        
+        for (int i = 0; i < 100; i++) {
+            clock.start(60_000);
+        }
+        
+        // One ticker plus the end timer, however many tracks were started
+        assertEquals(2, scheduler.getQueue().size());
+        assertEquals(1, scheduler.getPoolSize());
+        clock.stop();
+        assertEquals(0, scheduler.getQueue().size());
+        release.countDown();
+    }
+    
+    @Test
+    void testOneTickerServesAllListeners() throws Exception {
+        PlaybackClock clock = new PlaybackClock(scheduler);
+        CountDownLatch first = new CountDownLatch(3);
+        CountDownLatch second = new CountDownLatch(3);
+        clock.addListener((position, duration) -> first.countDown());
+        clock.addListener((position, duration) -> second.countDown());
+        
+        clock.start(60_000);
+        
+        assertTrue(first.await(5, TimeUnit.SECONDS));
+        assertTrue(second.await(5, TimeUnit.SECONDS));
+        clock.stop();
+    }
+    
+    @Test
+    void testTrackEndFiresOnceAtDuration() throws Exception {
+        PlaybackClock clock = new PlaybackClock(scheduler);
+        CountDownLatch ended = new CountDownLatch(1);
+        AtomicInteger endCount = new AtomicInteger();
+        AtomicLong lastPosition = new AtomicLong();
+        clock.addListener(new PlaybackClock.Listener() {
+            @Override
+            public void onTick(long positionMillis, long durationMillis) {
+                lastPosition.set(positionMillis);
+            }
+            
+            @Override
+            public void onTrackEnd() {
+                endCount.incrementAndGet();
+                ended.countDown();
+            }
+        });
+        
+        long started = System.nanoTime();
+        clock.start(150);
+        
+        assertTrue(ended.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - started >= millis(150));
+        Thread.sleep(200);
+        
+        assertEquals(1, endCount.get());
+        assertEquals(150, lastPosition.get());
+        assertFalse(clock.isRunning());
+        assertEquals(0, clock.getTickPeriodMillis());
+    }
+    
+    @Test
+    void testPausedTrackDoesNotEnd() throws Exception {
+        PlaybackClock clock = new PlaybackClock(scheduler);
+        AtomicInteger endCount = new AtomicInteger();
+        clock.addListener(new PlaybackClock.Listener() {
+            @Override
+            public void onTick(long positionMillis, long durationMillis) {
+            }
+            
+            @Override
+            public void onTrackEnd() {
+                endCount.incrementAndGet();
+            }
+        });
+        
+        clock.start(100);
+        clock.pause();
+        Thread.sleep(250);
+        
+        assertEquals(0, endCount.get());
+        clock.stop();
+    }
+}
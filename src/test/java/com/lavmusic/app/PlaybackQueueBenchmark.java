@@ -0,0 +1,85 @@
+package com.lavmusic.app;
+
+import com.lavmusic.app.model.Track;
+import com.lavmusic.app.player.PlaybackQueue;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/**
+ * Compares positional queue edits on PlaybackQueue against an ArrayList
+ * at 10k, 100k and 1M tracks
+ */
+@Tag("benchmark")
+class PlaybackQueueBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(PlaybackQueueBenchmark.class);
+    private static final int OPERATIONS = 1_000;
+    
+    @Test
+    void benchmarkPositionalEdits() throws Exception {
+        for (int size : new int[] {10_000, 100_000, 1_000_000}) {
+            List<Track> list = new ArrayList<>(size);
+            PlaybackQueue queue = new PlaybackQueue();
+            for (int i = 0; i < size; i++) {
+                Track track = PlaybackQueueTest.track(i);
+                list.add(track);
+                queue.add(track);
+            }
+            
+            logger.info("Queue of {} tracks, {} operations per run", size, OPERATIONS);
+            report("move", size,
+                () -> {
+                    Random random = new Random(1);
+                    for (int i = 0; i < OPERATIONS; i++) {
+                        list.add(random.nextInt(size), list.remove(random.nextInt(size)));
+                    }
+                    return list;
+                },
+                () -> {
+                    Random random = new Random(1);
+                    for (int i = 0; i < OPERATIONS; i++) {
+                        int from = random.nextInt(size);
+                        queue.move(from, random.nextInt(size));
+                    }
+                    return queue;
+                });
+            report("insert+remove at", size,
+                () -> {
+                    Random random = new Random(2);
+                    for (int i = 0; i < OPERATIONS; i++) {
+                        list.add(random.nextInt(size), list.remove(0));
+                    }
+                    return list;
+                },
+                () -> {
+                    Random random = new Random(2);
+                    for (int i = 0; i < OPERATIONS; i++) {
+                        queue.insertAt(random.nextInt(size), queue.removeAt(0));
+                    }
+                    return queue;
+                });
+            report("snapshot", size,
+                () -> new ArrayList<>(list),
+                queue::snapshot);
+        }
+    }
+    
+    private void report(String name, int size, Callable<?> arrayList,
+                        Callable<?> indexed) throws Exception {
+        int iterations = size >= 1_000_000 ? 3 : 10;
+        BenchmarkSupport.Result baseline = BenchmarkSupport.measure(
+            "ArrayList " + name + " (" + size + ")", 2, iterations, arrayList);
+        BenchmarkSupport.Result result = BenchmarkSupport.measure(
+            "PlaybackQueue " + name + " (" + size + ")", 2, iterations, indexed);
+        
+        logger.info("{}", baseline);
+        logger.info("{}", result);
+        logger.info("Speedup: {}x", String.format("%.1f", baseline.nanosPerOp() / result.nanosPerOp()));
+    }
+}
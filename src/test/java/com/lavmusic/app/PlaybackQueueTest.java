@@ -0,0 +1,506 @@
+package com.lavmusic.app;
+
+import com.lavmusic.app.model.Track;
+import com.lavmusic.app.model.TrackTree;
+import com.lavmusic.app.player.PlaybackQueue;
+import com.lavmusic.app.player.QueueChange;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for PlaybackQueue ordering, snapshots and thread safety
+ */
+class PlaybackQueueTest {
+    
+    static Track track(int i) {
+        return new Track("Song " + i, "Artist", "https://example.com/" + i, 180000);
+    }
+    
+    @Test
+    void testAdvanceMovesCursorWithoutRemoving() {
+        PlaybackQueue queue = new PlaybackQueue();
+        for (int i = 0; i < 5; i++) {
+            queue.add(track(i));
+        }
+        
+        assertEquals(-1, queue.getCursor());
+        assertEquals("Song 0", queue.advance(false).getTitle());
+        queue.add(track(5));
+        for (int i = 1; i <= 5; i++) {
+            assertEquals("Song " + i, queue.advance(false).getTitle());
+        }
+        assertNull(queue.advance(false));
+        assertTrue(queue.isExhausted());
+        assertEquals(6, queue.size());
+        assertEquals(5, queue.getCursor());
+    }
+    
+    @Test
+    void testAdvanceWrapsForRepeatAll() {
+        PlaybackQueue queue = new PlaybackQueue();
+        queue.add(track(0));
+        queue.add(track(1));
+        
+        assertEquals("Song 0", queue.advance(true).getTitle());
+        assertEquals("Song 1", queue.advance(true).getTitle());
+        assertEquals("Song 0", queue.advance(true).getTitle());
+        assertEquals(1, queue.upcomingSize());
+        
+        queue.clear();
+        assertNull(queue.advance(true));
+    }
+    
+    @Test
+    void testLoadSharesTreeAndResetsCursor() {
+        List<Track> tracks = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            tracks.add(track(i));
+        }
+        TrackTree tree = TrackTree.of(tracks);
+        PlaybackQueue queue = new PlaybackQueue();
+        queue.add(track(999));
+        queue.advance(false);
+        
+        queue.load(tree);
+        
+        assertEquals(-1, queue.getCursor());
+        assertEquals(tracks, queue.upcoming());
+        assertEquals("Song 0", queue.advance(false).getTitle());
+        assertEquals(99, queue.upcomingSize());
+        assertEquals(100, queue.size());
+    }
+    
+    @Test
+    void testSnapshotIsUnaffectedByLaterChanges() {
+        PlaybackQueue queue = new PlaybackQueue();
+        queue.add(track(0));
+        queue.add(track(1));
+        queue.advance(false);
+        queue.add(track(2));
+        
+        List<Track> snapshot = queue.upcoming();
+        queue.add(track(3));
+        queue.advance(false);
+        queue.clear();
+        
+        assertEquals(2, snapshot.size());
+        assertEquals("Song 1", snapshot.get(0).getTitle());
+        assertEquals("Song 2", snapshot.get(1).getTitle());
+        assertEquals(List.of(snapshot.get(0), snapshot.get(1)), new ArrayList<>(snapshot));
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.add(track(9)));
+    }
+    
+    @Test
+    void testAdvanceRandomDrawsEachTrackOnceAndKeepsOrder() {
+        PlaybackQueue queue = new PlaybackQueue();
+        List<Track> tracks = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            tracks.add(track(i));
+            queue.add(tracks.get(i));
+        }
+        
+        Random random = new Random(42);
+        List<Track> drawn = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            drawn.add(queue.advanceRandom(random, false));
+        }
+        
+        // Draws only move the cursor; the queue itself is untouched
+        assertEquals(tracks, queue.snapshot());
+        assertEquals(drawn.get(19), queue.snapshot().get(queue.getCursor()));
+        assertEquals(20, new HashSet<>(drawn).size());
+        assertNotEquals(tracks.subList(0, 20), drawn);
+        assertEquals(30, queue.unplayedCount());
+        
+        while (queue.advanceRandom(random, false) != null) {
+            // Drain
+        }
+        assertEquals(0, queue.unplayedCount());
+        assertEquals(50, queue.size());
+        assertNotNull(queue.advanceRandom(random, true));
+        assertEquals(49, queue.unplayedCount());
+    }
+    
+    @Test
+    void testOriginalOrderReturnsAfterShuffle() {
+        PlaybackQueue queue = new PlaybackQueue();
+        List<Track> tracks = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            tracks.add(track(i));
+        }
+        queue.addAll(tracks);
+        
+        Random random = new Random(7);
+        List<Track> drawn = new ArrayList<>();
+        Track next;
+        while ((next = queue.advanceRandom(random, false)) != null) {
+            drawn.add(next);
+        }
+        assertNotEquals(tracks, drawn);
+        assertEquals(new HashSet<>(tracks), new HashSet<>(drawn));
+        
+        // With shuffle off, the queue is played on in its original order and wraps into it again
+        assertEquals(tracks, queue.snapshot());
+        for (int i = queue.getCursor() + 1; i < tracks.size(); i++) {
+            assertEquals(tracks.get(i), queue.advance(true));
+        }
+        List<Track> replayed = new ArrayList<>();
+        for (int i = 0; i < tracks.size(); i++) {
+            replayed.add(queue.advance(true));
+        }
+        assertEquals(tracks, replayed);
+    }
+    
+    @Test
+    void testShuffleOffContinuesFromTheCurrentTrack() {
+        PlaybackQueue queue = new PlaybackQueue();
+        List<Track> tracks = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            tracks.add(track(i));
+        }
+        queue.addAll(tracks);
+        
+        Track drawn = queue.advanceRandom(new Random(3), false);
+        int index = tracks.indexOf(drawn);
+        assertEquals(index, queue.getCursor());
+        assertEquals(tracks.subList(index + 1, 100), queue.upcoming());
+        if (index < 99) {
+            assertEquals(tracks.get(index + 1), queue.advance(false));
+        }
+    }
+    
+    @Test
+    void testPositionalOperationsMatchList() {
+        PlaybackQueue queue = new PlaybackQueue();
+        List<Track> expected = new ArrayList<>();
+        Random random = new Random(7);
+        
+        // Positions count from the first upcoming track, after the ones already played
+        queue.add(track(-1));
+        queue.add(track(-2));
+        queue.advance(false);
+        queue.advance(false);
+        
+        for (int step = 0; step < 5_000; step++) {
+            int op = random.nextInt(4);
+            if (op == 0 || expected.isEmpty()) {
+                int index = random.nextInt(expected.size() + 1);
+                Track track = track(step);
+                queue.insertAt(index, track);
+                expected.add(index, track);
+            } else if (op == 1) {
+                int index = random.nextInt(expected.size());
+                assertSame(expected.remove(index), queue.removeAt(index));
+            } else if (op == 2) {
+                int from = random.nextInt(expected.size());
+                int to = random.nextInt(expected.size());
+                queue.move(from, to);
+                expected.add(to, expected.remove(from));
+            } else {
+                int index = random.nextInt(expected.size());
+                assertSame(expected.get(index), queue.get(index));
+            }
+        }
+        
+        assertEquals(expected, queue.upcoming());
+        assertEquals(expected.size() + 2, queue.size());
+    }
+    
+    @Test
+    void testChangesKeepAViewInStep() {
+        List<QueueChange> changes = new ArrayList<>();
+        PlaybackQueue queue = new PlaybackQueue(changes::add);
+        List<Track> view = new ArrayList<>();
+        queue.currentState().applyTo(view);
+        long version = queue.currentState().version();
+        Random random = new Random(11);
+        
+        for (int step = 0; step < 5_000; step++) {
+            int size = queue.upcomingSize();
+            int op = random.nextInt(100);
+            if (op < 30 || size == 0) {
+                queue.insertAt(random.nextInt(size + 1), track(step));
+            } else if (op < 40) {
+                queue.addAll(List.of(track(step), track(-step)));
+            } else if (op < 55) {
+                queue.removeAt(random.nextInt(size));
+            } else if (op < 70) {
+                queue.move(random.nextInt(size), random.nextInt(size));
+            } else if (op < 80) {
+                queue.advance(true);
+            } else if (op < 90) {
+                queue.advanceRandom(random, true);
+            } else if (op < 99) {
+                queue.insertAll(random.nextInt(size + 1), List.of(track(step), track(step + 1)));
+            } else {
+                queue.load(TrackTree.of(List.of(track(step))));
+            }
+            
+            for (QueueChange change : changes) {
+                assertEquals(++version, change.version());
+                change.applyTo(view);
+            }
+            changes.clear();
+            assertEquals(queue.upcoming(), view);
+        }
+        
+        // Clearing drops everything at once
+        queue.clear();
+        assertEquals(QueueChange.Type.RESET, changes.get(0).type());
+    }
+    
+    @Test
+    void testSingleEditsAreSmallChanges() {
+        List<QueueChange> changes = new ArrayList<>();
+        PlaybackQueue queue = new PlaybackQueue(changes::add);
+        List<Track> tracks = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            tracks.add(track(i));
+        }
+        queue.load(TrackTree.of(tracks));
+        changes.clear();
+        
+        queue.add(track(-1));
+        queue.advance(false);
+        queue.move(5, 10);
+        queue.removeAt(3);
+        
+        assertEquals(List.of(QueueChange.Type.INSERT, QueueChange.Type.REMOVE, QueueChange.Type.MOVE,
+            QueueChange.Type.REMOVE), changes.stream().map(QueueChange::type).toList());
+        assertEquals(List.of(track(-1)), changes.get(0).tracks());
+        assertEquals(100_000, changes.get(0).from());
+        assertEquals(0, changes.get(1).from());
+        assertEquals(3, changes.get(3).from());
+    }
+    
+    @Test
+    void testBulkInsertMatchesList() {
+        PlaybackQueue queue = new PlaybackQueue();
+        List<Track> expected = new ArrayList<>();
+        Random random = new Random(11);
+        int next = 0;
+        
+        for (int step = 0; step < 300; step++) {
+            List<Track> batch = new ArrayList<>();
+            for (int i = random.nextInt(200); i > 0; i--) {
+                batch.add(track(next++));
+            }
+            if (random.nextBoolean()) {
+                queue.addAll(batch);
+                expected.addAll(batch);
+            } else {
+                int position = random.nextInt(expected.size() + 1);
+                queue.insertAll(position, batch);
+                expected.addAll(position, batch);
+            }
+        }
+        
+        assertEquals(expected.size(), queue.size());
+        assertEquals(expected, queue.snapshot());
+        for (int i = 0; i < 1_000; i++) {
+            int index = random.nextInt(expected.size());
+            assertSame(expected.get(index), queue.get(index));
+        }
+    }
+    
+    @Test
+    void testTreeRemoveRange() {
+        List<Track> tracks = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            tracks.add(track(i));
+        }
+        TrackTree tree = TrackTree.of(tracks);
+        
+        TrackTree trimmed = tree.removeRange(100, 400);
+        
+        assertEquals(200, trimmed.size());
+        assertEquals("Song 99", trimmed.get(99).getTitle());
+        assertEquals("Song 400", trimmed.get(100).getTitle());
+        assertEquals(500, tree.size());
+        assertSame(tree, tree.removeRange(3, 3));
+        assertEquals(0, tree.removeRange(0, 500).size());
+    }
+    
+    @Test
+    void testTreeMarksStayWithTheirTracks() {
+        List<Track> tracks = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            tracks.add(track(i));
+        }
+        TrackTree tree = TrackTree.of(tracks).mark(10).mark(200).mark(499);
+        assertEquals(3, tree.markedCount());
+        assertEquals(11, tree.indexOfUnmarked(10));
+        assertEquals(498, tree.indexOfUnmarked(496));
+        
+        // Marks follow their tracks through edits and rebalancing
+        TrackTree edited = tree.move(200, 0).insertAll(5, List.of(track(-1), track(-2))).removeRange(100, 150);
+        for (int i = 0; i < 300; i++) {
+            edited = edited.insert(edited.size() / 2, track(1_000 + i));
+        }
+        assertEquals(3, edited.markedCount());
+        List<Track> list = edited.asList();
+        for (int i = 0; i < edited.size(); i++) {
+            Track track = list.get(i);
+            boolean marked = track.equals(track(10)) || track.equals(track(200)) || track.equals(track(499));
+            assertEquals(marked, edited.isMarked(i), "Mark of " + track);
+        }
+        
+        assertEquals(0, edited.clearMarks().markedCount());
+        assertEquals(list, edited.clearMarks().asList());
+        assertEquals(3, tree.markedCount());
+    }
+    
+    @Test
+    void testRangeViews() {
+        PlaybackQueue queue = new PlaybackQueue();
+        for (int i = 0; i < 1_000; i++) {
+            queue.add(track(i));
+        }
+        
+        List<Track> page = queue.snapshot().subList(100, 150);
+        List<Track> inner = page.subList(10, 20);
+        
+        assertEquals(50, page.size());
+        assertEquals("Song 100", page.get(0).getTitle());
+        assertEquals("Song 149", page.get(49).getTitle());
+        assertEquals("Song 110", inner.get(0).getTitle());
+        int i = 110;
+        for (Track track : inner) {
+            assertEquals("Song " + i++, track.getTitle());
+        }
+        assertEquals(120, i);
+    }
+    
+    @Test
+    void testOutOfRangePositionsAreRejected() {
+        PlaybackQueue queue = new PlaybackQueue();
+        queue.add(track(0));
+        
+        assertThrows(IndexOutOfBoundsException.class, () -> queue.get(1));
+        assertThrows(IndexOutOfBoundsException.class, () -> queue.removeAt(-1));
+        assertThrows(IndexOutOfBoundsException.class, () -> queue.insertAt(2, track(1)));
+        assertThrows(IndexOutOfBoundsException.class, () -> queue.move(0, 1));
+        assertEquals(1, queue.size());
+    }
+    
+    @Test
+    void testConcurrentEnqueueAndDequeueLosesNothing() throws Exception {
+        PlaybackQueue queue = new PlaybackQueue();
+        int producers = 4;
+        int consumers = 4;
+        int perProducer = 20_000;
+        ExecutorService executor = Executors.newFixedThreadPool(producers + consumers);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch produced = new CountDownLatch(producers);
+        Set<Track> consumed = ConcurrentHashMap.newKeySet();
+        AtomicBoolean duplicate = new AtomicBoolean();
+        
+        try {
+            for (int p = 0; p < producers; p++) {
+                int base = p * perProducer;
+                executor.execute(() -> {
+                    await(start);
+                    for (int i = 0; i < perProducer; i++) {
+                        queue.add(track(base + i));
+                    }
+                    produced.countDown();
+                });
+            }
+            List<Future<?>> consumerTasks = new ArrayList<>();
+            for (int c = 0; c < consumers; c++) {
+                consumerTasks.add(executor.submit(() -> {
+                    await(start);
+                    while (produced.getCount() > 0 || !queue.isExhausted()) {
+                        Track track = queue.advance(false);
+                        if (track != null && !consumed.add(track)) {
+                            duplicate.set(true);
+                        }
+                    }
+                }));
+            }
+            
+            start.countDown();
+            for (Future<?> task : consumerTasks) {
+                task.get(30, TimeUnit.SECONDS);
+            }
+            
+            assertFalse(duplicate.get());
+            assertEquals(producers * perProducer, consumed.size());
+            assertTrue(queue.isExhausted());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    void testConcurrentClearAndSnapshotsStayConsistent() throws Exception {
+        PlaybackQueue queue = new PlaybackQueue();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicBoolean inconsistent = new AtomicBoolean();
+        
+        try {
+            executor.execute(() -> {
+                int i = 0;
+                while (running.get()) {
+                    queue.add(track(i++));
+                }
+            });
+            executor.execute(() -> {
+                while (running.get()) {
+                    queue.advance(false);
+                }
+            });
+            executor.execute(() -> {
+                while (running.get()) {
+                    queue.clear();
+                    Thread.yield();
+                }
+            });
+            Future<?> reader = executor.submit(() -> {
+                for (int n = 0; n < 2_000; n++) {
+                    List<Track> snapshot = queue.snapshot();
+                    int counted = 0;
+                    for (Track track : snapshot) {
+                        if (track == null) {
+                            inconsistent.set(true);
+                        }
+                        counted++;
+                    }
+                    if (counted != snapshot.size()) {
+                        inconsistent.set(true);
+                    }
+                }
+            });
+            
+            reader.get(30, TimeUnit.SECONDS);
+        } finally {
+            running.set(false);
+            executor.shutdownNow();
+        }
+        
+        assertFalse(inconsistent.get());
+    }
+    
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
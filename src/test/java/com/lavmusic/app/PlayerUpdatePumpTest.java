@@ -0,0 +1,183 @@
+package com.lavmusic.app;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.lavmusic.app.model.Track;
+import com.lavmusic.app.player.LavalinkClient;
+import com.lavmusic.app.player.PlayerUpdatePump;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okio.Buffer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for merging player changes into Lavalink PATCH requests
+ */
+class PlayerUpdatePumpTest {
+    
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger failures = new AtomicInteger();
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+    private LavalinkClient client;
+    
+    /**
+     * A pump whose requests are recorded and, if asked, held until {@link #release} opens.
+     * The first {@link #failures} requests fail once they are let through.
+     */
+    private PlayerUpdatePump pump(boolean holdRequests) {
+        OkHttpClient http = new OkHttpClient.Builder()
+            .addInterceptor(chain -> {
+                requests.add(chain.request());
+                if (holdRequests) {
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (failures.getAndUpdate(left -> Math.max(0, left - 1)) > 0) {
+                    throw new IOException("Connection refused");
+                }
+                return LavalinkClientTest.json(chain, "{}");
+            })
+            .build();
+        client = new LavalinkClient("localhost", 2333, "youshallnotpass", 20, http);
+        return new PlayerUpdatePump("7", scheduler);
+    }
+    
+    private JsonObject nextUpdate() throws Exception {
+        Request request = requests.poll(5, TimeUnit.SECONDS);
+        assertNotNull(request, "Expected a player update");
+        assertEquals("PATCH", request.method());
+        assertEquals("/v4/sessions/abc/players/7", request.url().encodedPath());
+        return body(request);
+    }
+    
+    private static JsonObject body(Request request) throws IOException {
+        Buffer buffer = new Buffer();
+        request.body().writeTo(buffer);
+        return JsonParser.parseString(buffer.readUtf8()).getAsJsonObject();
+    }
+    
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        scheduler.shutdownNow();
+        if (client != null) {
+            client.shutdown();
+        }
+    }
+    
+    @Test
+    void testDraggingSendsOneRequestAfterTheInFlightOne() throws Exception {
+        PlayerUpdatePump pump = pump(true);
+        pump.sessionReady(client, "abc");
+        
+        for (int volume = 0; volume <= 100; volume++) {
+            pump.setVolume(volume);
+        }
+        for (long position = 0; position <= 60_000; position += 1000) {
+            pump.seek(position);
+        }
+        
+        JsonObject first = nextUpdate();
+        assertEquals(0, first.get("volume").getAsInt());
+        assertFalse(first.has("position"));
+        
+        release.countDown();
+        JsonObject merged = nextUpdate();
+        assertEquals(100, merged.get("volume").getAsInt());
+        assertEquals(60_000, merged.get("position").getAsLong());
+        
+        assertNull(requests.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(2, pump.getSentCount());
+    }
+    
+    @Test
+    void testChangesWaitForASession() throws Exception {
+        PlayerUpdatePump pump = pump(false);
+        Track track = new Track("Song", "Artist", "https://example.com/song", 180000);
+        pump.seek(30_000);
+        pump.playTrack(track, 90_000, true);
+        pump.setVolume(80);
+        assertNull(requests.poll(100, TimeUnit.MILLISECONDS));
+        
+        pump.sessionReady(client, "abc");
+        JsonObject update = nextUpdate();
+        assertEquals("https://example.com/song", update.getAsJsonObject("track").get("identifier").getAsString());
+        assertEquals(90_000, update.get("position").getAsLong());
+        assertTrue(update.get("paused").getAsBoolean());
+        assertEquals(80, update.get("volume").getAsInt());
+        
+        // A stop is sent as a null encoded track
+        pump.stopTrack();
+        JsonObject stop = nextUpdate();
+        assertTrue(stop.getAsJsonObject("track").get("encoded").isJsonNull());
+        assertFalse(stop.has("paused"));
+        
+        pump.sessionLost();
+        pump.setPaused(false);
+        assertNull(requests.poll(100, TimeUnit.MILLISECONDS));
+    }
+    
+    @Test
+    void testFailedUpdateIsSentAgainUnderNewerChanges() throws Exception {
+        PlayerUpdatePump pump = pump(true);
+        failures.set(1);
+        pump.sessionReady(client, "abc");
+        Track track = new Track("Song", "Artist", "https://example.com/song", 180000);
+        
+        pump.playTrack(track);
+        JsonObject lost = nextUpdate();
+        assertFalse(lost.get("paused").getAsBoolean());
+        pump.setPaused(true);
+        release.countDown();
+        
+        // Not retried at once, and the player is not yet where the server is
+        assertNull(requests.poll(200, TimeUnit.MILLISECONDS));
+        assertFalse(pump.isPositionSettled());
+        
+        pump.setVolume(30);
+        JsonObject retried = nextUpdate();
+        assertEquals("https://example.com/song", retried.getAsJsonObject("track").get("identifier").getAsString());
+        assertTrue(retried.get("paused").getAsBoolean());
+        assertEquals(30, retried.get("volume").getAsInt());
+    }
+    
+    @Test
+    void testFailedUpdateIsRetriedWithoutNewChanges() throws Exception {
+        PlayerUpdatePump pump = pump(false);
+        failures.set(2);
+        pump.sessionReady(client, "abc");
+        Track track = new Track("Song", "Artist", "https://example.com/song", 180000);
+        
+        long start = System.nanoTime();
+        pump.playTrack(track);
+        nextUpdate();
+        nextUpdate();
+        JsonObject delivered = nextUpdate();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        
+        // Sent again after one and then two seconds
+        assertTrue(elapsedMillis >= PlayerUpdatePump.RETRY_MIN_MILLIS * 3, "Retried after " + elapsedMillis + " ms");
+        assertEquals("https://example.com/song", delivered.getAsJsonObject("track").get("identifier").getAsString());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!pump.isPositionSettled()) {
+            assertTrue(System.nanoTime() < deadline, "Retried update did not complete");
+            Thread.sleep(10);
+        }
+        assertEquals(3, pump.getSentCount());
+    }
+}
@@ -0,0 +1,90 @@
+package com.lavmusic.app;
+
+import com.lavmusic.app.model.Track;
+import com.lavmusic.app.player.SearchCache;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the bounded TTL + LRU search result cache
+ */
+class SearchCacheTest {
+    
+    private final AtomicLong clock = new AtomicLong();
+    
+    private static List<Track> results(String title) {
+        List<Track> tracks = new ArrayList<>();
+        tracks.add(new Track(title, "Artist", "https://example.com/" + title, 180000));
+        return tracks;
+    }
+    
+    @Test
+    void testHitAndMiss() {
+        SearchCache cache = new SearchCache(10, Duration.ofMinutes(1), clock::get);
+        String key = SearchCache.key("ytsearch", "song");
+        
+        assertNull(cache.get(key));
+        cache.put(key, results("song"));
+        assertEquals("song", cache.get(key).get(0).getTitle());
+        
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+    
+    @Test
+    void testKeyNormalization() {
+        assertEquals(SearchCache.key("ytsearch", "never gonna"),
+            SearchCache.key("ytsearch", "  Never   GONNA "));
+        assertNotEquals(SearchCache.key("ytsearch", "song"), SearchCache.key("scsearch", "song"));
+    }
+    
+    @Test
+    void testEntriesExpire() {
+        SearchCache cache = new SearchCache(10, Duration.ofSeconds(30), clock::get);
+        String key = SearchCache.key("ytsearch", "song");
+        cache.put(key, results("song"));
+        
+        clock.addAndGet(Duration.ofSeconds(29).toNanos());
+        assertNotNull(cache.get(key));
+        
+        clock.addAndGet(Duration.ofSeconds(1).toNanos());
+        assertNull(cache.get(key));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+    }
+    
+    @Test
+    void testLeastRecentlyUsedIsEvicted() {
+        SearchCache cache = new SearchCache(2, Duration.ofMinutes(1), clock::get);
+        cache.put("a", results("a"));
+        cache.put("b", results("b"));
+        
+        // Touch "a" so "b" becomes the eviction candidate
+        cache.get("a");
+        cache.put("c", results("c"));
+        
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(1, cache.getEvictionCount());
+    }
+    
+    @Test
+    void testCachedResultsAreImmutable() {
+        SearchCache cache = new SearchCache(10, Duration.ofMinutes(1), clock::get);
+        List<Track> source = results("song");
+        List<Track> cached = cache.put("song", source);
+        
+        source.clear();
+        
+        assertEquals(1, cache.get("song").size());
+        assertThrows(UnsupportedOperationException.class, () -> cached.add(null));
+    }
+}
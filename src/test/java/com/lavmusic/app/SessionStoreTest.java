@@ -0,0 +1,231 @@
+package com.lavmusic.app;
+
+import com.lavmusic.app.config.ConfigManager;
+import com.lavmusic.app.model.Track;
+import com.lavmusic.app.model.TrackTree;
+import com.lavmusic.app.player.MusicPlayerManager;
+import com.lavmusic.app.player.PlaybackQueue;
+import com.lavmusic.app.storage.SessionStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for queue and playback position snapshots
+ */
+class SessionStoreTest {
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void testNothingSaved() throws IOException {
+        assertNull(new SessionStore(directory).load());
+    }
+    
+    @Test
+    void testSaveAndLoad() throws IOException {
+        TrackTree tracks = TrackTree.of(LibraryStoreTest.tracks(100));
+        Track current = tracks.get(41);
+        new SessionStore(directory).save(new SessionStore.Session(tracks, 41, current, 95_000));
+        
+        SessionStore.Session loaded = new SessionStore(directory).load();
+        
+        assertEquals(tracks.asList(), loaded.tracks().asList());
+        assertEquals(41, loaded.cursor());
+        assertEquals(current, loaded.current());
+        assertEquals(current.getEncoded(), loaded.current().getEncoded());
+        assertEquals(95_000, loaded.positionMillis());
+        assertFalse(Files.exists(directory.resolve(SessionStore.QUEUE_FILE + ".tmp")));
+    }
+    
+    @Test
+    void testOnlyChangesAreWritten() throws IOException {
+        SessionStore store = new SessionStore(directory);
+        TrackTree tracks = TrackTree.of(LibraryStoreTest.tracks(1_000));
+        
+        store.save(new SessionStore.Session(tracks, 0, tracks.get(0), 1_000));
+        store.save(new SessionStore.Session(tracks, 0, tracks.get(0), 1_000));
+        assertEquals(1, store.getQueueWriteCount());
+        assertEquals(1, store.getPositionWriteCount());
+        
+        store.save(new SessionStore.Session(tracks, 0, tracks.get(0), 6_000));
+        assertEquals(1, store.getQueueWriteCount());
+        assertEquals(2, store.getPositionWriteCount());
+        
+        // The position names the queue it belongs to, so it is written with every queue
+        TrackTree edited = tracks.remove(500);
+        store.save(new SessionStore.Session(edited, 0, tracks.get(0), 6_000));
+        assertEquals(2, store.getQueueWriteCount());
+        assertEquals(3, store.getPositionWriteCount());
+        
+        // A store that has just loaded the snapshot does not write it back
+        SessionStore reopened = new SessionStore(directory);
+        SessionStore.Session loaded = reopened.load();
+        reopened.save(loaded);
+        assertEquals(0, reopened.getQueueWriteCount());
+        assertEquals(0, reopened.getPositionWriteCount());
+        assertEquals(999, loaded.tracks().size());
+    }
+    
+    @Test
+    void testDamagedFilesAreIgnored() throws IOException {
+        SessionStore store = new SessionStore(directory);
+        TrackTree tracks = TrackTree.of(LibraryStoreTest.tracks(10));
+        store.save(new SessionStore.Session(tracks, 3, tracks.get(3), 1_000));
+        
+        byte[] position = Files.readAllBytes(directory.resolve(SessionStore.POSITION_FILE));
+        position[6] ^= 1;
+        Files.write(directory.resolve(SessionStore.POSITION_FILE), position);
+        SessionStore.Session loaded = new SessionStore(directory).load();
+        assertEquals(10, loaded.tracks().size());
+        assertEquals(-1, loaded.cursor());
+        assertNull(loaded.current());
+        
+        Files.write(directory.resolve(SessionStore.QUEUE_FILE), new byte[] {1, 2, 3});
+        assertNull(new SessionStore(directory).load());
+    }
+    
+    @Test
+    void testMismatchedPositionKeepsTheQueue() throws IOException {
+        SessionStore store = new SessionStore(directory);
+        TrackTree tracks = TrackTree.of(LibraryStoreTest.tracks(10));
+        store.save(new SessionStore.Session(tracks, 3, tracks.get(3), 1_000));
+        byte[] oldPosition = Files.readAllBytes(directory.resolve(SessionStore.POSITION_FILE));
+        
+        TrackTree edited = tracks.remove(0);
+        store.save(new SessionStore.Session(edited, 3, tracks.get(4), 2_000));
+        
+        // A crash after the queue was renamed but before the position was: the queue starts over
+        Files.write(directory.resolve(SessionStore.POSITION_FILE), oldPosition);
+        SessionStore.Session loaded = new SessionStore(directory).load();
+        assertEquals(edited.asList(), loaded.tracks().asList());
+        assertEquals(-1, loaded.cursor());
+        assertNull(loaded.current());
+        assertEquals(0, loaded.positionMillis());
+    }
+    
+    @Test
+    void testQueueEditsAreAppendedToTheLog() throws IOException {
+        SessionStore store = new SessionStore(directory);
+        PlaybackQueue queue = new PlaybackQueue();
+        queue.addAll(LibraryStoreTest.tracks(1_000));
+        save(store, queue);
+        
+        queue.insertAt(10, LibraryStoreTest.tracks(1_001).get(1_000));
+        save(store, queue);
+        queue.removeAt(500);
+        save(store, queue);
+        queue.move(0, 900);
+        save(store, queue);
+        List<Track> beforeLast = queue.snapshot();
+        queue.addAll(LibraryStoreTest.tracks(3));
+        save(store, queue);
+        
+        assertEquals(1, store.getQueueWriteCount());
+        assertEquals(4, store.getLogAppendCount());
+        assertEquals(1, store.getPositionWriteCount());
+        assertEquals(queue.snapshot(), new SessionStore(directory).load().tracks().asList());
+        
+        // A crash while appending leaves the last record incomplete; the edits before it still apply
+        Path log = directory.resolve(SessionStore.EDIT_LOG_FILE);
+        byte[] bytes = Files.readAllBytes(log);
+        Files.write(log, Arrays.copyOf(bytes, bytes.length - 3));
+        SessionStore reopened = new SessionStore(directory);
+        SessionStore.Session loaded = reopened.load();
+        assertEquals(beforeLast, loaded.tracks().asList());
+        
+        // The damaged log is not appended to but rewritten along with the queue
+        reopened.save(loaded);
+        assertEquals(1, reopened.getQueueWriteCount());
+        assertEquals(beforeLast, new SessionStore(directory).load().tracks().asList());
+    }
+    
+    private static void save(SessionStore store, PlaybackQueue queue) throws IOException {
+        PlaybackQueue.Checkpoint checkpoint = queue.checkpoint();
+        store.save(new SessionStore.Session(checkpoint.tracks(), checkpoint.cursor(), null, 0,
+            checkpoint.base(), checkpoint.edits()));
+    }
+    
+    @Test
+    void testShuffledPlayDoesNotRewriteTheQueue() throws IOException {
+        SessionStore store = new SessionStore(directory);
+        PlaybackQueue queue = new PlaybackQueue();
+        queue.addAll(LibraryStoreTest.tracks(1_000));
+        Random random = new Random(7);
+        
+        for (int i = 0; i < 100; i++) {
+            queue.advanceRandom(random, true);
+            PlaybackQueue.Checkpoint checkpoint = queue.checkpoint();
+            store.save(new SessionStore.Session(checkpoint.tracks(), checkpoint.cursor(),
+                checkpoint.tracks().get(checkpoint.cursor()), 0, checkpoint.base(), checkpoint.edits()));
+        }
+        assertEquals(1, store.getQueueWriteCount());
+        assertEquals(100, store.getPositionWriteCount());
+        
+        SessionStore reopened = new SessionStore(directory);
+        SessionStore.Session loaded = reopened.load();
+        assertEquals(queue.snapshot(), loaded.tracks().asList());
+        assertEquals(queue.getCursor(), loaded.cursor());
+        assertEquals(100, loaded.tracks().markedCount());
+        
+        // Restoring keeps the saved queue as the base, so resuming shuffled play writes no queue
+        PlaybackQueue restored = new PlaybackQueue();
+        restored.restore(new PlaybackQueue.Checkpoint(loaded.tracks(), loaded.cursor(), loaded.base(), loaded.edits()));
+        restored.advanceRandom(random, true);
+        PlaybackQueue.Checkpoint checkpoint = restored.checkpoint();
+        reopened.save(new SessionStore.Session(checkpoint.tracks(), checkpoint.cursor(), null, 0,
+            checkpoint.base(), checkpoint.edits()));
+        assertEquals(0, reopened.getQueueWriteCount());
+        assertEquals(1, reopened.getPositionWriteCount());
+        
+        // Once enough edits have built up the queue is written out again
+        for (int i = 0; i < SessionStore.MAX_PENDING_EDITS + 10; i++) {
+            restored.advanceRandom(random, true);
+            checkpoint = restored.checkpoint();
+            reopened.save(new SessionStore.Session(checkpoint.tracks(), checkpoint.cursor(), null, 0,
+                checkpoint.base(), checkpoint.edits()));
+        }
+        assertEquals(1, reopened.getQueueWriteCount());
+        assertEquals(restored.snapshot(), new SessionStore(directory).load().tracks().asList());
+    }
+    
+    @Test
+    void testPlayerResumesWhereItLeftOff() throws IOException {
+        MusicPlayerManager player = new MusicPlayerManager(new ConfigManager());
+        player.attachSession(new SessionStore(directory));
+        List<Track> tracks = LibraryStoreTest.tracks(5);
+        player.addAllToQueue(tracks);
+        player.skipNext();
+        player.seek(0.5);
+        player.shutdown();
+        // Closing the window and stopping the application both shut down; the second must not overwrite
+        player.shutdown();
+        
+        MusicPlayerManager resumed = new MusicPlayerManager(new ConfigManager());
+        try {
+            resumed.attachSession(new SessionStore(directory));
+            
+            assertEquals(tracks.get(1), resumed.currentTrackProperty().get());
+            assertFalse(resumed.playingProperty().get());
+            assertEquals(tracks.subList(2, 5), resumed.getQueue());
+            assertEquals(0.5, resumed.positionProperty().get(), 0.01);
+            assertEquals(tracks.get(1).getDuration() / 2, resumed.getPlaybackClock().getPositionMillis(), 100);
+            
+            resumed.play();
+            assertTrue(resumed.playingProperty().get());
+            resumed.skipNext();
+            assertEquals(tracks.get(2), resumed.currentTrackProperty().get());
+        } finally {
+            resumed.shutdown();
+        }
+    }
+}
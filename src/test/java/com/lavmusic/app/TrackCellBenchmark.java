@@ -0,0 +1,222 @@
+package com.lavmusic.app;
+
+import com.lavmusic.app.config.ConfigManager;
+import com.lavmusic.app.model.Track;
+import com.lavmusic.app.player.MusicPlayerManager;
+import com.lavmusic.app.ui.MainUI;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.Tooltip;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.FontWeight;
+import javafx.stage.Stage;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares the reusing track cell with a cell that rebuilds its nodes on every update,
+ * over a 100k-track list. One benchmark rebinds a screenful of detached cells to new rows
+ * each frame, which isolates {@code updateItem}; the other scrolls a ListView shown in a
+ * window and times {@code scrollTo} plus layout, which adds the CSS and layout of whatever
+ * nodes the cells create. Needs a display, like the app itself.
+ */
+@Tag("benchmark")
+class TrackCellBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(TrackCellBenchmark.class);
+    private static final int TRACKS = 100_000;
+    private static final int VISIBLE = 30;
+    private static final int ROWS_PER_FRAME = 3;
+    
+    /**
+     * The cell as it was before: a fresh node graph, fonts and tooltips on every update
+     */
+    private static class RebuildingCell extends ListCell<Track> {
+        @Override
+        protected void updateItem(Track track, boolean empty) {
+            super.updateItem(track, empty);
+            if (empty || track == null) {
+                setGraphic(null);
+                return;
+            }
+            HBox cell = new HBox(10);
+            cell.setAlignment(Pos.CENTER_LEFT);
+            cell.setPadding(new Insets(8));
+            VBox trackInfo = new VBox(2);
+            Label titleLabel = new Label(track.getTitle());
+            titleLabel.setFont(Font.font("System", FontWeight.BOLD, 13));
+            Label artistLabel = new Label(track.getAuthor() + " • " + track.getFormattedDuration());
+            artistLabel.setFont(Font.font("System", 11));
+            artistLabel.setTextFill(Color.GRAY);
+            trackInfo.getChildren().addAll(titleLabel, artistLabel);
+            HBox.setHgrow(trackInfo, Priority.ALWAYS);
+            Button favButton = new Button("♡");
+            favButton.setFont(Font.font(18));
+            favButton.setTooltip(new Tooltip("Add to favorites"));
+            Button addButton = new Button("+");
+            addButton.setFont(Font.font(18));
+            addButton.setTooltip(new Tooltip("Add to queue"));
+            cell.getChildren().addAll(trackInfo, favButton, addButton);
+            setGraphic(cell);
+        }
+    }
+    
+    private static void startToolkit() {
+        try {
+            Platform.startup(() -> { });
+        } catch (IllegalStateException e) {
+            // Already running
+        }
+    }
+    
+    private static <T> T onFxThread(Callable<T> task) throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<T> result = new AtomicReference<>();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Platform.runLater(() -> {
+            try {
+                result.set(task.call());
+            } catch (Exception e) {
+                failure.set(e);
+            } finally {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.MINUTES));
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return result.get();
+    }
+    
+    private static MusicPlayerManager playerWithFavorites(List<Track> tracks) {
+        MusicPlayerManager player = new MusicPlayerManager(new ConfigManager());
+        for (int i = 0; i < TRACKS; i += 10) {
+            player.addToFavorites(tracks.get(i));
+        }
+        return player;
+    }
+    
+    private static void log(List<BenchmarkSupport.Result> results) {
+        for (BenchmarkSupport.Result result : results) {
+            logger.info("{} ({} MB/s at 60 fps)", result,
+                String.format("%.1f", result.bytesPerOp() * 60 / (1024 * 1024)));
+        }
+    }
+    
+    /**
+     * Rebind a screenful of cells that are in no scene to rows a few further down each frame,
+     * wrapping at the end; only the cells' own update work is timed
+     */
+    private static BenchmarkSupport.Result rebind(String name, ListView<Track> list,
+            Supplier<ListCell<Track>> factory) throws Exception {
+        List<ListCell<Track>> cells = new ArrayList<>(VISIBLE);
+        for (int i = 0; i < VISIBLE; i++) {
+            ListCell<Track> cell = factory.get();
+            cell.updateListView(list);
+            cells.add(cell);
+        }
+        int[] top = {0};
+        return BenchmarkSupport.measure(name, 500, 5_000, () -> {
+            int first = top[0];
+            top[0] = (first + ROWS_PER_FRAME) % (TRACKS - VISIBLE);
+            for (int i = 0; i < VISIBLE; i++) {
+                cells.get(i).updateIndex(first + i);
+            }
+            return first;
+        });
+    }
+    
+    /**
+     * Scroll a ListView shown in a window a few rows per frame, wrapping at the end, and
+     * lay it out as the next pulse would; the cells it recycles are made by the factory
+     */
+    private static BenchmarkSupport.Result scroll(String name, List<Track> tracks,
+            Supplier<ListCell<Track>> factory) throws Exception {
+        ListView<Track> list = new ListView<>(FXCollections.observableArrayList(tracks));
+        list.setCellFactory(view -> factory.get());
+        Stage stage = new Stage();
+        stage.setScene(new Scene(list, 480, 720));
+        stage.show();
+        try {
+            list.layout();
+            int[] top = {0};
+            return BenchmarkSupport.measure(name, 500, 5_000, () -> {
+                int first = top[0];
+                top[0] = (first + ROWS_PER_FRAME) % (TRACKS - VISIBLE);
+                list.scrollTo(first);
+                list.layout();
+                return first;
+            });
+        } finally {
+            stage.close();
+        }
+    }
+    
+    @Test
+    void benchmarkRebind() throws Exception {
+        startToolkit();
+        List<Track> tracks = LibraryStoreTest.tracks(TRACKS);
+        MusicPlayerManager player = playerWithFavorites(tracks);
+        try {
+            List<BenchmarkSupport.Result> results = onFxThread(() -> {
+                ListView<Track> list = new ListView<>(FXCollections.observableArrayList(tracks));
+                return List.of(
+                    rebind("rebuilding cell rebind", list, RebuildingCell::new),
+                    rebind("reusing track cell rebind", list, () -> new MainUI.TrackCell(player, true)),
+                    rebind("reusing queue cell rebind", list, () -> new MainUI.TrackCell(player, false)));
+            });
+            
+            log(results);
+            BenchmarkSupport.Result rebuilding = results.get(0);
+            BenchmarkSupport.Result reusing = results.get(1);
+            assertTrue(reusing.bytesPerOp() < rebuilding.bytesPerOp() / 10,
+                "Reusing cell allocated " + reusing.bytesPerOp() + " B per frame");
+            assertTrue(reusing.nanosPerOp() < rebuilding.nanosPerOp());
+        } finally {
+            player.shutdown();
+        }
+    }
+    
+    @Test
+    void benchmarkScroll() throws Exception {
+        startToolkit();
+        List<Track> tracks = LibraryStoreTest.tracks(TRACKS);
+        MusicPlayerManager player = playerWithFavorites(tracks);
+        try {
+            List<BenchmarkSupport.Result> results = onFxThread(() -> List.of(
+                scroll("rebuilding cell scroll frame", tracks, RebuildingCell::new),
+                scroll("reusing track cell scroll frame", tracks, () -> new MainUI.TrackCell(player, true)),
+                scroll("reusing queue cell scroll frame", tracks, () -> new MainUI.TrackCell(player, false))));
+            
+            log(results);
+            // Layout and the rows' CSS are paid by both, so the gap is smaller than for rebinding
+            assertTrue(results.get(1).nanosPerOp() < results.get(0).nanosPerOp());
+            assertTrue(results.get(1).bytesPerOp() < results.get(0).bytesPerOp());
+        } finally {
+            player.shutdown();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.lavmusic.app;
+
+import com.lavmusic.app.model.Track;
+import com.lavmusic.app.storage.TrackLibrary;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares a heap list of tracks with the memory-mapped track library:
+ * retained heap, cold open and a full filter pass
+ */
+@Tag("benchmark")
+class TrackLibraryBenchmark {
+    private static final Logger logger = LoggerFactory.getLogger(TrackLibraryBenchmark.class);
+    private static final int TRACKS = 300_000;
+    
+    @TempDir
+    Path directory;
+    
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+    
+    @Test
+    void benchmarkLibrary() throws Exception {
+        Path file = directory.resolve("library.bin");
+        TrackLibrary.write(file, LibraryStoreTest.tracks(TRACKS));
+        logger.info("Library file: {} MB for {} tracks", Files.size(file) / (1024 * 1024), TRACKS);
+        
+        long base = usedHeap();
+        List<Track> onHeap = LibraryStoreTest.tracks(TRACKS);
+        long listHeap = usedHeap() - base;
+        BenchmarkSupport.sink = onHeap;
+        onHeap = null;
+        BenchmarkSupport.sink = null;
+        
+        base = usedHeap();
+        try (TrackLibrary library = TrackLibrary.open(file)) {
+            long mappedHeap = usedHeap() - base;
+            logger.info("Retained heap: {} KB as Track objects, {} KB mapped", listHeap / 1024, mappedHeap / 1024);
+            
+            BenchmarkSupport.Result open = BenchmarkSupport.measure("open (" + TRACKS + ")", 20, 100, () -> {
+                try (TrackLibrary opened = TrackLibrary.open(file)) {
+                    return opened.size();
+                }
+            });
+            int author = library.findSymbol("Artist 3");
+            BenchmarkSupport.Result byAuthor = BenchmarkSupport.measure("filter by author id", 5, 20,
+                () -> library.filter(view -> view.getAuthorId() == author && view.getDuration() > 200_000));
+            BenchmarkSupport.Result byTitle = BenchmarkSupport.measure("filter by title", 3, 10,
+                () -> library.filter(view -> view.getTitle().endsWith("99")));
+            
+            assertTrue(mappedHeap < listHeap);
+            assertEquals(3_000, library.filter(view -> view.getTitle().endsWith("99")).length);
+            logger.info("{}", open);
+            logger.info("{}", byAuthor);
+            logger.info("{}", byTitle);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.lavmusic.app;
+
+import com.lavmusic.app.model.Track;
+import com.lavmusic.app.storage.TrackLibrary;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the memory-mapped columnar track library
+ */
+class TrackLibraryTest {
+    
+    @TempDir
+    Path directory;
+    
+    @Test
+    void testRoundTrip() throws IOException {
+        Path file = directory.resolve("library.bin");
+        List<Track> tracks = new ArrayList<>(LibraryStoreTest.tracks(50));
+        tracks.add(new Track(null, null, null, 0));
+        tracks.add(new Track("Ünïcødé ♫", "Bjørk", "https://example.com/ü", 42, "ü", null, false, true, null));
+        TrackLibrary.write(file, tracks);
+        
+        try (TrackLibrary library = TrackLibrary.open(file)) {
+            assertEquals(tracks.size(), library.size());
+            for (int i = 0; i < tracks.size(); i++) {
+                Track expected = tracks.get(i);
+                Track actual = library.getTrack(i);
+                assertEquals(expected.getTitle(), actual.getTitle());
+                assertEquals(expected.getAuthor(), actual.getAuthor());
+                assertEquals(expected.getUri(), actual.getUri());
+                assertEquals(expected.getDuration(), actual.getDuration());
+                assertEquals(expected.getIdentifier(), actual.getIdentifier());
+                assertEquals(expected.getSourceName(), actual.getSourceName());
+                assertEquals(expected.isSeekable(), actual.isSeekable());
+                assertEquals(expected.isStream(), actual.isStream());
+                assertEquals(expected.getEncoded(), actual.getEncoded());
+                assertEquals(expected, actual);
+            }
+            assertThrows(IndexOutOfBoundsException.class, () -> library.getTitle(tracks.size()));
+        }
+    }
+    
+    @Test
+    void testAuthorsAreShared() throws IOException {
+        Path file = directory.resolve("library.bin");
+        TrackLibrary.write(file, LibraryStoreTest.tracks(100));
+        
+        try (TrackLibrary library = TrackLibrary.open(file)) {
+            assertSame(library.getAuthor(3), library.getAuthor(10));
+            assertEquals("Artist 3", library.getAuthor(3));
+            assertSame(library.getSourceName(0), library.getSourceName(99));
+            assertEquals(library.getAuthorId(3), library.findSymbol("Artist 3"));
+            assertEquals(-1, library.findSymbol("Nobody"));
+        }
+    }
+    
+    @Test
+    void testFilterWithOneView() throws IOException {
+        Path file = directory.resolve("library.bin");
+        TrackLibrary.write(file, LibraryStoreTest.tracks(1_000));
+        
+        try (TrackLibrary library = TrackLibrary.open(file)) {
+            int author = library.findSymbol("Artist 2");
+            int[] matches = library.filter(view -> view.getAuthorId() == author && view.getDuration() > 180500);
+            
+            assertEquals(71, matches.length);
+            for (int index : matches) {
+                TrackLibrary.View view = library.view(index);
+                assertEquals("Artist 2", view.getAuthor());
+                assertEquals(index, view.getIndex());
+                assertEquals("Song " + index, view.getTitle());
+            }
+            assertEquals(LibraryStoreTest.fullTrack(9), library.view(9).toTrack());
+        }
+    }
+    
+    @Test
+    void testEmptyLibraryAndBadFile() throws IOException {
+        Path file = directory.resolve("library.bin");
+        TrackLibrary.write(file, List.of());
+        try (TrackLibrary library = TrackLibrary.open(file)) {
+            assertEquals(0, library.size());
+            assertEquals(0, library.filter(view -> true).length);
+        }
+        
+        Path bad = directory.resolve("bad.bin");
+        Files.writeString(bad, "not a library at all");
+        assertThrows(IOException.class, () -> TrackLibrary.open(bad));
+    }
+}
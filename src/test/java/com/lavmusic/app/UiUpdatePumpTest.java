@@ -0,0 +1,80 @@
+package com.lavmusic.app;
+
+import com.lavmusic.app.ui.UiUpdatePump;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for UiUpdatePump coalescing
+ */
+class UiUpdatePumpTest {
+    
+    @Test
+    void testBurstIsAppliedOncePerFrame() {
+        List<Integer> applied = new ArrayList<>();
+        UiUpdatePump<Integer> pump = new UiUpdatePump<>(applied::add);
+        
+        for (int i = 0; i < 1000; i++) {
+            pump.publish(i);
+        }
+        
+        assertTrue(pump.drain());
+        assertFalse(pump.drain());
+        assertEquals(List.of(999), applied);
+        assertEquals(1000, pump.getPublishedCount());
+        assertEquals(1, pump.getAppliedCount());
+    }
+    
+    @Test
+    void testEmptyFrameAppliesNothing() {
+        List<String> applied = new ArrayList<>();
+        UiUpdatePump<String> pump = new UiUpdatePump<>(applied::add);
+        
+        assertFalse(pump.drain());
+        assertTrue(applied.isEmpty());
+    }
+    
+    @Test
+    void testConcurrentPublishersConvergeOnLatest() throws Exception {
+        List<Integer> applied = new ArrayList<>();
+        UiUpdatePump<Integer> pump = new UiUpdatePump<>(applied::add);
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        
+        try {
+            for (int t = 0; t < threads; t++) {
+                executor.execute(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        pump.publish(i);
+                    }
+                    done.countDown();
+                });
+            }
+            
+            // Frames interleaved with publishing never apply more than one value each
+            int frames = 0;
+            while (done.getCount() > 0) {
+                pump.drain();
+                frames++;
+            }
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            pump.drain();
+            frames++;
+            
+            assertTrue(applied.size() <= frames);
+            assertEquals(40_000, pump.getPublishedCount());
+            assertEquals(9_999, (int) applied.get(applied.size() - 1));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}